@@ -224,18 +224,18 @@ public class FFT extends FourierTransform
     }
   }
 
-  // bit reverse real[] and imag[]
+  // bit reverse real[] and imag[] in place, the permutation consists of swaps
   private void bitReverseComplex()
   {
-    float[] revReal = new float[real.length];
-    float[] revImag = new float[imag.length];
     for (int i = 0; i < real.length; i++)
     {
-      revReal[i] = real[reverse[i]];
-      revImag[i] = imag[reverse[i]];
+      int j = reverse[i];
+      if (j > i)
+      {
+        float t = real[i]; real[i] = real[j]; real[j] = t;
+        t = imag[i]; imag[i] = imag[j]; imag[j] = t;
+      }
     }
-    real = revReal;
-    imag = revImag;
   }
 
   // lookup tables
@@ -0,0 +1,207 @@
+package com.comino.analysis;
+
+/**
+ * Allocation free FFT of real signals. The N real samples are packed into N/2 complex
+ * values (even samples real, odd samples imaginary), transformed by an iterative radix-2
+ * FFT with precomputed twiddles and bit reversal table, and split into the N/2+1 bins of the
+ * real spectrum. All buffers are allocated in the constructor; an instance is not thread safe.
+ *
+ * The magnitudes are not normalized, as the spectrum of {@link FFT}.
+ */
+public class RealFFT
+{
+	public static final int NONE    = 0;
+	public static final int HAMMING = 1;
+	public static final int HANN    = 2;
+
+	private final int     size;
+	private final int     half;
+
+	private final int[]   reverse;
+	private final float[] cos;       // exp(-2 pi i k / half)
+	private final float[] sin;
+	private final float[] splitCos;  // exp(-2 pi i k / size)
+	private final float[] splitSin;
+	private final float[] window;
+
+	private final float[] re;
+	private final float[] im;
+	private final float[] specRe;
+	private final float[] specIm;
+
+	/**
+	 * @param size the number of samples per transform, a power of two of at least 4
+	 */
+	public RealFFT(int size)
+	{
+		if (size < 4 || (size & (size - 1)) != 0)
+			throw new IllegalArgumentException("RealFFT: size must be a power of two >= 4.");
+
+		this.size = size;
+		this.half = size / 2;
+
+		reverse = new int[half];
+		for (int limit = 1, bit = half / 2; limit < half; limit <<= 1, bit >>= 1)
+			for (int i = 0; i < limit; i++)
+				reverse[i + limit] = reverse[i] + bit;
+
+		cos = new float[half / 2];
+		sin = new float[half / 2];
+		for (int k = 0; k < half / 2; k++) {
+			cos[k] = (float) Math.cos(2 * Math.PI * k / half);
+			sin[k] = (float) -Math.sin(2 * Math.PI * k / half);
+		}
+
+		splitCos = new float[half + 1];
+		splitSin = new float[half + 1];
+		for (int k = 0; k <= half; k++) {
+			splitCos[k] = (float) Math.cos(2 * Math.PI * k / size);
+			splitSin[k] = (float) -Math.sin(2 * Math.PI * k / size);
+		}
+
+		window = new float[size];
+		window(NONE);
+		re     = new float[half];
+		im     = new float[half];
+		specRe = new float[half + 1];
+		specIm = new float[half + 1];
+	}
+
+	/**
+	 * Selects the window applied to the samples before the transform.
+	 *
+	 * @param type NONE, HAMMING or HANN
+	 */
+	public void window(int type)
+	{
+		for (int i = 0; i < size; i++) {
+			switch (type) {
+			case HAMMING:
+				window[i] = (float) (0.54 - 0.46 * Math.cos(2 * Math.PI * i / (size - 1)));
+				break;
+			case HANN:
+				window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / (size - 1)));
+				break;
+			default:
+				window[i] = 1;
+			}
+		}
+	}
+
+	public int timeSize()
+	{
+		return size;
+	}
+
+	public int specSize()
+	{
+		return half + 1;
+	}
+
+	/**
+	 * Transforms size samples starting at offset.
+	 */
+	public void forward(float[] samples, int offset)
+	{
+		for (int m = 0; m < half; m++) {
+			final int r = reverse[m];
+			final int s = offset + 2 * r;
+			re[m] = samples[s] * window[2 * r];
+			im[m] = samples[s + 1] * window[2 * r + 1];
+		}
+		transform();
+	}
+
+	/**
+	 * Transforms size samples starting at offset, e.g. of a keyfigure column. Missing values
+	 * (NaN) are taken as 0.
+	 */
+	public void forward(double[] samples, int offset)
+	{
+		for (int m = 0; m < half; m++) {
+			final int r = reverse[m];
+			final int s = offset + 2 * r;
+			final double a = samples[s], b = samples[s + 1];
+			re[m] = Double.isNaN(a) ? 0 : (float) a * window[2 * r];
+			im[m] = Double.isNaN(b) ? 0 : (float) b * window[2 * r + 1];
+		}
+		transform();
+	}
+
+	/**
+	 * Transforms the samples of a ring of length size, the oldest sample at start.
+	 */
+	public void forwardRing(float[] ring, int start)
+	{
+		final int mask = size - 1;
+		for (int m = 0; m < half; m++) {
+			final int r = reverse[m];
+			re[m] = ring[(start + 2 * r) & mask] * window[2 * r];
+			im[m] = ring[(start + 2 * r + 1) & mask] * window[2 * r + 1];
+		}
+		transform();
+	}
+
+	public float getReal(int k)
+	{
+		return specRe[k];
+	}
+
+	public float getImag(int k)
+	{
+		return specIm[k];
+	}
+
+	/**
+	 * Magnitudes of the bins 0..size/2 of the last transform into out.
+	 */
+	public void magnitude(float[] out)
+	{
+		for (int k = 0; k <= half; k++)
+			out[k] = (float) Math.sqrt(specRe[k] * specRe[k] + specIm[k] * specIm[k]);
+	}
+
+	/**
+	 * Squared magnitudes of the bins 0..size/2 of the last transform into out.
+	 */
+	public void power(float[] out)
+	{
+		for (int k = 0; k <= half; k++)
+			out[k] = specRe[k] * specRe[k] + specIm[k] * specIm[k];
+	}
+
+	private void transform()
+	{
+		// complex FFT of the packed samples, already in bit reversed order
+		for (int len = 2; len <= half; len <<= 1) {
+			final int hs = len >> 1;
+			final int step = half / len;
+			for (int j = 0; j < hs; j++) {
+				final float wr = cos[j * step];
+				final float wi = sin[j * step];
+				for (int i = j; i < half; i += len) {
+					final int k = i + hs;
+					final float tr = wr * re[k] - wi * im[k];
+					final float ti = wr * im[k] + wi * re[k];
+					re[k] = re[i] - tr;
+					im[k] = im[i] - ti;
+					re[i] += tr;
+					im[i] += ti;
+				}
+			}
+		}
+
+		// split into the spectrum of the real signal:
+		// X[k] = (Z[k] + Z*[h-k]) / 2 + W^k (Z[k] - Z*[h-k]) / 2i
+		for (int k = 0; k <= half; k++) {
+			final int i = k == half ? 0 : k;
+			final int m = k == 0 ? 0 : half - k;
+			final float a = re[i], b = im[i], c = re[m], d = im[m];
+			final float er = 0.5f * (a + c), ei = 0.5f * (b - d);
+			final float or = 0.5f * (b + d), oi = -0.5f * (a - c);
+			final float wr = splitCos[k], wi = splitSin[k];
+			specRe[k] = er + wr * or - wi * oi;
+			specIm[k] = ei + wr * oi + wi * or;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package com.comino.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Short time Fourier transform with overlapping frames. Samples are added one by one into a
+ * ring; every hop samples the last size samples are transformed, so that a spectrogram is
+ * updated incrementally as samples arrive. Whole recordings are transformed frame by frame
+ * from their sample array without copying.
+ */
+public class STFT
+{
+	public interface IFrameListener
+	{
+		/**
+		 * @param frame the index of the frame
+		 * @param start the index of the first sample of the frame
+		 * @param magnitude the magnitudes of the bins 0..size/2, only valid during the call
+		 */
+		void frame(int frame, int start, float[] magnitude);
+	}
+
+	private final RealFFT fft;
+	private final int     size;
+	private final int     hop;
+	private final float[] ring;
+	private final float[] magnitude;
+
+	private int  position = 0;
+	private long count    = 0;
+
+	/**
+	 * @param size the samples per frame, a power of two
+	 * @param hop the samples between the start of two frames, e.g. size/4 for 75% overlap
+	 * @param window the window applied to each frame, see {@link RealFFT}
+	 */
+	public STFT(int size, int hop, int window)
+	{
+		if (hop < 1)
+			throw new IllegalArgumentException("STFT: hop must be at least 1.");
+		this.fft       = new RealFFT(size);
+		this.size      = size;
+		this.hop       = hop;
+		this.ring      = new float[size];
+		this.magnitude = new float[fft.specSize()];
+		fft.window(window);
+	}
+
+	public int timeSize()
+	{
+		return size;
+	}
+
+	public int specSize()
+	{
+		return fft.specSize();
+	}
+
+	public int getHop()
+	{
+		return hop;
+	}
+
+	/**
+	 * Adds a sample. Returns true if a new frame has been transformed, which is then
+	 * available by {@link #getMagnitude()} until the next frame.
+	 */
+	public boolean add(float sample)
+	{
+		ring[position] = sample;
+		position = (position + 1) & (size - 1);
+		if (++count < size || (count - size) % hop != 0)
+			return false;
+		fft.forwardRing(ring, position);
+		fft.magnitude(magnitude);
+		return true;
+	}
+
+	public float[] getMagnitude()
+	{
+		return magnitude;
+	}
+
+	public void reset()
+	{
+		Arrays.fill(ring, 0);
+		position = 0;
+		count = 0;
+	}
+
+	/**
+	 * Number of frames of a recording of length samples.
+	 */
+	public int frames(int length)
+	{
+		return length < size ? 0 : (length - size) / hop + 1;
+	}
+
+	/**
+	 * Transforms all frames of samples [from, to).
+	 */
+	public void transform(double[] samples, int from, int to, IFrameListener listener)
+	{
+		int frame = 0;
+		for (int start = from; start + size <= to; start += hop) {
+			fft.forward(samples, start);
+			fft.magnitude(magnitude);
+			listener.frame(frame++, start, magnitude);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package com.comino.analysis;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Spectrogram of a whole recording. The frames of the recording are split into blocks which
+ * are transformed in parallel, each block by its own {@link RealFFT}. The power of each frame
+ * is stored in dB as one row of a compact float matrix [frame * bins + bin].
+ */
+public class Spectrogram
+{
+	private static final int   BLOCKS_PER_THREAD = 4;
+	private static final float FLOOR            = 1e-12f;
+
+	private final int     size;
+	private final int     hop;
+	private final int     from;
+	private final int     length;
+	private final int     frames;
+	private final int     bins;
+	private final float[] data;
+
+	private float min = Float.POSITIVE_INFINITY;
+	private float max = Float.NEGATIVE_INFINITY;
+
+	/**
+	 * Transforms all frames of samples [from, to) using the threads of pool. Returns at once,
+	 * the future completes when all frames are transformed. The caller does not wait for the
+	 * blocks, so it may itself run on a pool without occupying a thread meanwhile.
+	 *
+	 * @param size the samples per frame, a power of two
+	 * @param hop the samples between the start of two frames
+	 * @param window the window applied to each frame, see {@link RealFFT}
+	 * @param threads the number of threads of pool
+	 */
+	public static CompletableFuture<Spectrogram> compute(final double[] samples, int from, int to,
+			int size, int hop, final int window, Executor pool, int threads)
+	{
+		final Spectrogram s = new Spectrogram(size, hop, from, to);
+		if (s.frames == 0)
+			return CompletableFuture.completedFuture(s);
+
+		final int count = Math.min(s.frames, Math.max(1, threads * BLOCKS_PER_THREAD));
+		final CompletableFuture<?>[] blocks = new CompletableFuture<?>[count];
+		for (int b = 0; b < count; b++) {
+			final int first = (int) ((long) s.frames * b / count);
+			final int last  = (int) ((long) s.frames * (b + 1) / count);
+			blocks[b] = CompletableFuture.supplyAsync(() -> s.transform(samples, first, last, window), pool)
+					.thenAccept(s::merge);
+		}
+		return CompletableFuture.allOf(blocks).thenApply(v -> s);
+	}
+
+	private Spectrogram(int size, int hop, int from, int to)
+	{
+		if (hop < 1)
+			throw new IllegalArgumentException("Spectrogram: hop must be at least 1.");
+		this.size   = size;
+		this.hop    = hop;
+		this.from   = from;
+		this.length = to - from;
+		this.frames = length < size ? 0 : (length - size) / hop + 1;
+		this.bins   = size / 2 + 1;
+		this.data   = new float[frames * bins];
+	}
+
+	/*
+	 * Transforms frames [first, last) into their rows and returns the range of the rows
+	 * without the DC bin, which would otherwise dominate sensors with an offset.
+	 */
+	private float[] transform(double[] samples, int first, int last, int window)
+	{
+		final RealFFT fft   = new RealFFT(size);
+		final float[] power = new float[bins];
+		final float[] range = { Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY };
+
+		fft.window(window);
+		for (int frame = first; frame < last; frame++) {
+			fft.forward(samples, from + frame * hop);
+			fft.power(power);
+			final int row = frame * bins;
+			for (int k = 0; k < bins; k++) {
+				final float db = (float) (10 * Math.log10(power[k] + FLOOR));
+				data[row + k] = db;
+				if (k > 0) {
+					if (db < range[0]) range[0] = db;
+					if (db > range[1]) range[1] = db;
+				}
+			}
+		}
+		return range;
+	}
+
+	/*
+	 * Merges the range of a transformed block, blocks complete on different threads.
+	 */
+	private synchronized void merge(float[] range)
+	{
+		if (range[0] < min) min = range[0];
+		if (range[1] > max) max = range[1];
+	}
+
+	public int getFrames()
+	{
+		return frames;
+	}
+
+	public int getBins()
+	{
+		return bins;
+	}
+
+	public int timeSize()
+	{
+		return size;
+	}
+
+	public int getHop()
+	{
+		return hop;
+	}
+
+	/**
+	 * Number of samples the spectrogram was calculated from.
+	 */
+	public int getLength()
+	{
+		return length;
+	}
+
+	/**
+	 * Index of the first sample of a frame.
+	 */
+	public int getStart(int frame)
+	{
+		return from + frame * hop;
+	}
+
+	/**
+	 * Power of a bin of a frame in dB.
+	 */
+	public float get(int frame, int bin)
+	{
+		return data[frame * bins + bin];
+	}
+
+	/**
+	 * The matrix of all frames, bins of a frame consecutive.
+	 */
+	public float[] getData()
+	{
+		return data;
+	}
+
+	/**
+	 * Lowest power in dB, excluding the DC bin.
+	 */
+	public float getMin()
+	{
+		return min;
+	}
+
+	/**
+	 * Highest power in dB, excluding the DC bin.
+	 */
+	public float getMax()
+	{
+		return max;
+	}
+}
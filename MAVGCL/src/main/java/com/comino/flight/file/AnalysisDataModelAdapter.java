@@ -0,0 +1,110 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2018 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+package com.comino.flight.file;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+
+import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.mavcom.model.segment.LogMessage;
+import com.comino.mavcom.model.segment.Status;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
+/*
+ * Keeps the JSON layout of .mgc files ("data" as map of keyfigure hash to value)
+ * independent of the internal storage of AnalysisDataModel.
+ */
+
+public class AnalysisDataModelAdapter implements JsonSerializer<AnalysisDataModel>, JsonDeserializer<AnalysisDataModel> {
+
+	private final AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
+
+	@Override
+	public JsonElement serialize(AnalysisDataModel m, Type type, JsonSerializationContext context) {
+		final JsonObject o    = new JsonObject();
+		final JsonObject data = new JsonObject();
+
+		o.addProperty("tms", m.tms);
+		if(m.msg!=null)
+			o.add("msg", context.serialize(m.msg));
+		if(m.status!=null)
+			o.add("status", context.serialize(m.status));
+		o.addProperty("dt_sec", m.dt_sec);
+		o.addProperty("sync_fps", m.sync_fps);
+
+		meta.getKeyFigureMap().forEach((hash,kf) -> {
+			final double v = m.getValue(kf);
+			if(!Double.isNaN(v))
+				data.addProperty(String.valueOf(hash), v);
+		});
+		o.add("data", data);
+
+		return o;
+	}
+
+	@Override
+	public AnalysisDataModel deserialize(JsonElement json, Type type, JsonDeserializationContext context) throws JsonParseException {
+		final JsonObject o = json.getAsJsonObject();
+		final AnalysisDataModel m = new AnalysisDataModel();
+
+		if(o.has("tms"))
+			m.tms = o.get("tms").getAsLong();
+		if(o.has("msg"))
+			m.msg = context.deserialize(o.get("msg"), LogMessage.class);
+		if(o.has("status"))
+			m.status = context.deserialize(o.get("status"), Status.class);
+		if(o.has("dt_sec"))
+			m.dt_sec = o.get("dt_sec").getAsFloat();
+		if(o.has("sync_fps"))
+			m.sync_fps = o.get("sync_fps").getAsFloat();
+
+		if(o.has("data") && o.get("data").isJsonObject()) {
+			for(Map.Entry<String,JsonElement> e : o.getAsJsonObject("data").entrySet()) {
+				final KeyFigureMetaData kf = meta.getKeyFigureMap().get(Integer.parseInt(e.getKey()));
+				if(kf!=null && !e.getValue().isJsonNull())
+					m.setValue(kf, e.getValue().getAsDouble());
+			}
+		}
+		return m;
+	}
+
+}
@@ -76,6 +76,7 @@ import com.comino.mavcom.model.DataModel;
 import com.comino.mavcom.model.segment.LogMessage;
 import com.comino.mavcom.param.ParameterAttributes;
 import com.comino.mavcom.struct.MapPoint3D_F32;
+import com.comino.video.src.mp4.MP4FFMpegRecorder;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
@@ -310,7 +311,23 @@ public class FileHandler {
 						state.isLogLoading().set(false);
 					}
 
-					if(file.getName().endsWith("mgc")) {
+					if(file.getName().endsWith("mgc") && MGCBinaryFile.isBinary(file)) {
+						try {
+							MGCBinaryFile.Header header = MGCBinaryFile.read(file, modelService.prepareModelList());
+							modelService.completeModelList();
+							FileData data = new FileData();
+							data.params = header.params;
+							data.conversion_rate = header.conversion_rate;
+							data.update(modelService,paramService,currentModel);
+						} catch(Exception e) {
+							logger.writeLocalMsg("[mgc] "+e.getMessage(),MAV_SEVERITY.MAV_SEVERITY_ERROR);
+							name = "";
+							state.getLogLoadedProperty().set(false);
+							state.isLogLoading().set(false);
+							return null;
+						}
+					}
+					else if(file.getName().endsWith("mgc")) {
 						listType = new TypeToken<FileData>() {}.getType();
 
 						ProgressInputStream raw = new ProgressInputStream(new FileInputStream(file));
@@ -321,7 +338,7 @@ public class FileHandler {
 							}
 						});
 						Reader reader = new BufferedReader(new InputStreamReader(raw));
-						Gson gson = new GsonBuilder().create();
+						Gson gson = getModelGsonBuilder().create();
 						try {
 							FileData data = gson.fromJson(reader,listType);
 							data.update(modelService,paramService,currentModel);
@@ -392,12 +409,8 @@ public class FileHandler {
 					if(file.getName().endsWith("mgc")) {
 						try {
 							System.out.println(file.getName()+" saved..");
-							Writer writer = new FileWriter(file);
-							FileData data = new FileData(); data.prepareData(modelService,paramService, currentModel);
-							Gson gson = new GsonBuilder().serializeSpecialFloatingPointValues().create();
 							stage.getScene().setCursor(Cursor.WAIT);
-							gson.toJson(data, writer);
-							writer.close();
+							MGCBinaryFile.write(file, modelService.getModelList(), paramService.get(), modelService.getCollectorInterval_ms());
 							stage.getScene().setCursor(Cursor.DEFAULT);
 							StateProperties.getInstance().getLogLoadedProperty().set(true);
 							name = file.getName();
@@ -578,13 +591,13 @@ public class FileHandler {
 					writer.flush();
 					writer.close();
 
-					// Wait for video recording has stopped or timeout of 2 sec
-					int to = 20;
-					while(--to > 0 && state.getMP4RecordingProperty().get())
-						Thread.sleep(100);
+					// Wait for video file to be closed or timeout of 5 sec
+					final boolean closed = MP4FFMpegRecorder.awaitLastStopped(5000);
+					if(!closed)
+						System.out.println("MP4 recording not stopped. Video not saved with log");
 
 					File video = new File(path+"/video.mp4");
-					if(video.exists()) {
+					if(closed && video.exists()) {
 						video.renameTo(new File(path_result+"/"+logname+".mp4"));
 					}
 
@@ -753,12 +766,11 @@ public class FileHandler {
 			f.delete();
 		f.createNewFile();
 		addToLastFile(f.getAbsolutePath());
-		Writer writer = new FileWriter(f);
-		FileData data = new FileData(); data.prepareData(modelService,paramService, currentModel);
-		Gson gson = new GsonBuilder().serializeSpecialFloatingPointValues().create();
-		gson.toJson(data, writer);
-		writer.flush();
-		writer.close();
+		MGCBinaryFile.write(f, modelService.getModelList(), paramService.get(), modelService.getCollectorInterval_ms());
+	}
+
+	private GsonBuilder getModelGsonBuilder() {
+		return new GsonBuilder().registerTypeAdapter(AnalysisDataModel.class, new AnalysisDataModelAdapter());
 	}
 
 	private FileChooser getFileDialog(String title, String initDir, ExtensionFilter...filter) {
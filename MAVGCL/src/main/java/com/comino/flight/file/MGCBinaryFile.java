@@ -0,0 +1,282 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2021 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+package com.comino.flight.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.AnalysisDataModelStore;
+import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.mavcom.model.segment.LogMessage;
+import com.comino.mavcom.param.ParameterAttributes;
+import com.google.gson.Gson;
+
+/*
+ * Binary .mgc format (little endian):
+ *
+ *   "MGCB", int version, int samples
+ *   int length, header as JSON (parameters, collector rate, messages by sample index)
+ *   int keyfigures, per keyfigure: int hash, int length, key as UTF-8
+ *   padding to 8 bytes
+ *   long[samples] timestamps (us)
+ *   per keyfigure: double[samples] values, NaN if not available
+ *
+ * Keyfigure columns are memory mapped when reading and copied into the store on first access.
+ * A file is written into a temporary file which then replaces the target, as the store may
+ * still map the columns of the target.
+ */
+
+public class MGCBinaryFile {
+
+	public static final int VERSION = 1;
+
+	private static final byte[] MAGIC       = { 'M', 'G', 'C', 'B' };
+	private static final int    BUFFER_SIZE = 1024 * 1024;
+
+	public static boolean isBinary(File file) {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			if(raf.length() < MAGIC.length)
+				return false;
+			final byte[] magic = new byte[MAGIC.length];
+			raf.readFully(magic);
+			for(int i = 0; i < MAGIC.length; i++) {
+				if(magic[i] != MAGIC[i])
+					return false;
+			}
+			return true;
+		} catch(IOException e) {
+			return false;
+		}
+	}
+
+	public static void write(File file, AnalysisDataModelStore store, Map<String,ParameterAttributes> params,
+			int conversion_rate) throws IOException {
+
+		final AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
+		final int samples = store.size();
+
+		final Header header = new Header();
+		header.params = params;
+		header.conversion_rate = conversion_rate;
+		for(int i = 0; i < samples; i++) {
+			final LogMessage msg = store.getMessage(i);
+			if(msg != null)
+				header.msg.put(i, msg);
+		}
+
+		final List<KeyFigureMetaData> kfs = new ArrayList<KeyFigureMetaData>();
+		meta.getKeyFigureMap().forEach((hash,kf) -> {
+			if(store.hasColumn(kf))
+				kfs.add(kf);
+		});
+
+		// Columns mapped from the target must not be read after the target has been replaced
+		store.detach();
+
+		final File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName()+".tmp");
+		try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); FileChannel channel = raf.getChannel()) {
+			raf.setLength(0);
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+			buffer.put(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(samples);
+			putString(channel, buffer, new Gson().toJson(header));
+
+			ensure(channel, buffer, 4);
+			buffer.putInt(kfs.size());
+			for(KeyFigureMetaData kf : kfs) {
+				ensure(channel, buffer, 4);
+				buffer.putInt(kf.hash);
+				putString(channel, buffer, kf.key);
+			}
+
+			final long position = channel.position() + buffer.position();
+			for(long i = position; i % 8 != 0; i++) {
+				ensure(channel, buffer, 1);
+				buffer.put((byte)0);
+			}
+
+			for(int i = 0; i < samples; i++) {
+				ensure(channel, buffer, 8);
+				buffer.putLong(store.getTimestamp(i));
+			}
+
+			for(KeyFigureMetaData kf : kfs) {
+				final double[] column = store.getColumn(kf);
+				for(int i = 0; i < samples; i++) {
+					ensure(channel, buffer, 8);
+					buffer.putDouble(column != null && i < column.length ? column[i] : Double.NaN);
+				}
+			}
+			flush(channel, buffer);
+		} catch(IOException e) {
+			tmp.delete();
+			throw e;
+		}
+
+		try {
+			try {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch(IOException e) {
+			tmp.delete();
+			throw e;
+		}
+	}
+
+	/*
+	 * Loads the samples into the store and returns the header.
+	 */
+	public static Header read(File file, AnalysisDataModelStore store) throws IOException {
+
+		final AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+
+			final ByteBuffer start = read(channel, 0, 12);
+			for(int i = 0; i < MAGIC.length; i++) {
+				if(start.get() != MAGIC[i])
+					throw new IOException("Not a binary MAVGCL model file");
+			}
+			final int version = start.getInt();
+			if(version > VERSION)
+				throw new IOException("Unsupported model file version "+version);
+			final int samples = start.getInt();
+
+			long position = 12;
+			final int header_length = read(channel, position, 4).getInt(); position += 4;
+			final Header header = new Gson().fromJson(getString(read(channel, position, header_length)), Header.class);
+			position += header_length;
+
+			final int count = read(channel, position, 4).getInt(); position += 4;
+			final int[] hashes = new int[count];
+			for(int k = 0; k < count; k++) {
+				final ByteBuffer b = read(channel, position, 8);
+				hashes[k] = b.getInt();
+				position += 8 + b.getInt();
+			}
+			position = (position + 7) & ~7L;
+
+			final long[] tms = new long[samples];
+			channel.map(FileChannel.MapMode.READ_ONLY, position, samples * 8L)
+			       .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(tms);
+			position += samples * 8L;
+
+			final Map<KeyFigureMetaData,DoubleBuffer> columns = new HashMap<KeyFigureMetaData,DoubleBuffer>();
+			for(int k = 0; k < count; k++) {
+				final KeyFigureMetaData kf = meta.getKeyFigureMap().get(hashes[k]);
+				if(kf != null)
+					columns.put(kf, channel.map(FileChannel.MapMode.READ_ONLY, position, samples * 8L)
+							.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+				position += samples * 8L;
+			}
+
+			store.load(tms, samples, columns);
+
+			if(header.msg != null) {
+				header.msg.forEach((index,msg) -> {
+					if(index < samples)
+						store.get(index).msg = msg;
+				});
+			}
+			return header;
+		}
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		final ByteBuffer b = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while(b.hasRemaining()) {
+			if(channel.read(b, position + b.position()) < 0)
+				throw new IOException("Unexpected end of model file");
+		}
+		b.flip();
+		return b;
+	}
+
+	private static String getString(ByteBuffer b) {
+		final byte[] bytes = new byte[b.remaining()];
+		b.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void putString(FileChannel channel, ByteBuffer buffer, String s) throws IOException {
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		ensure(channel, buffer, 4);
+		buffer.putInt(bytes.length);
+		int offset = 0;
+		while(offset < bytes.length) {
+			ensure(channel, buffer, 1);
+			final int length = Math.min(buffer.remaining(), bytes.length - offset);
+			buffer.put(bytes, offset, length);
+			offset += length;
+		}
+	}
+
+	private static void ensure(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+		if(buffer.remaining() < bytes)
+			flush(channel, buffer);
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	public static class Header {
+
+		public Map<String,ParameterAttributes> params = null;
+		public int conversion_rate = 0;
+		public Map<Integer,LogMessage> msg = new HashMap<Integer,LogMessage>();
+
+	}
+}
@@ -34,7 +34,7 @@
 package com.comino.flight.log.ulog;
 
 import java.util.Map;
-import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.CompletableFuture;
 
 import org.mavlink.messages.MAV_CMD;
 import org.mavlink.messages.MAV_SEVERITY;
@@ -58,13 +58,25 @@ public class ULogFromMAVLinkReader implements IMAVLinkListener {
 	private final int STATE_HEADER_WAIT				= 1;
 	private final int STATE_DATA            			= 2;
 
+	// Start attempts: the header has to start streaming within START_TIMEOUT_MS
+	// and has to be complete within HEADER_TIMEOUT_MS after the attempt
+	private static final int START_RETRIES           = 3;
+	private static final int START_TIMEOUT_MS        = 3000;
+	private static final int HEADER_TIMEOUT_MS       = 12000;
+	private static final int SUPERVISION_CYCLE_MS    = 100;
+
+	// Packets held back while waiting for a missing one
+	public static final int DEFAULT_WINDOW_DEPTH      = 16;
+
 	private IMAVController control   = null;
-	private int state = STATE_HEADER_IDLE;
+	private volatile int state = STATE_HEADER_IDLE;
 	private UlogMAVLinkParser parser = null;
+	private ULogStreamWindow  window = null;
+
+	private final byte[] payload = new byte[ULogStreamWindow.PAYLOAD_SIZE];
 
 	private int header_processed = 0;
 	private int data_processed = 0;
-	private int package_lost=0;
 
 	private boolean debug = false;
 	private AnalysisModelService service = null;
@@ -74,9 +86,19 @@ public class ULogFromMAVLinkReader implements IMAVLinkListener {
 	
 	private final WorkQueue wq = WorkQueue.getInstance();
 
+	private CompletableFuture<Boolean> start = null;
+	private int  supervisor = 0;
+	private int  attempt = 0;
+	private long tms_attempt = 0;
+
 
 	public ULogFromMAVLinkReader(IMAVController control, boolean debug)  {
+		this(control, debug, DEFAULT_WINDOW_DEPTH);
+	}
+
+	public ULogFromMAVLinkReader(IMAVController control, boolean debug, int window_depth)  {
 		this.parser = new UlogMAVLinkParser();
+		this.window = new ULogStreamWindow(window_depth, this::process);
 		this.control = control;
 		this.control.addMAVLinkListener(this);
 		this.logger = MSPLogger.getInstance();
@@ -95,65 +117,104 @@ public class ULogFromMAVLinkReader implements IMAVLinkListener {
 		return parser.getFieldList();
 	}
 
-	public boolean enableLogging(boolean enable) {
+	/*
+	 * Starts or stops ULog streaming without blocking. The returned future completes with true
+	 * as soon as the header is parsed and data is streamed, or with false if streaming is not
+	 * enabled, has been stopped or did not start after START_RETRIES attempts.
+	 */
+	public synchronized CompletableFuture<Boolean> enableLogging(boolean enable) {
 		
 		this.service = AnalysisModelService.getInstance();
 
-	//	new Thread(() -> {
-
+		if(!control.isConnected()) {
+			cancelStart();
 			state=STATE_HEADER_IDLE;
+			return CompletableFuture.completedFuture(false);
+		}
 
-			if(!control.isConnected())
-				return false;
-			
-
-			if(!MAVPreferences.getInstance().getBoolean(MAVPreferences.ULOGGER, false) && !debug) {
-				if(enable) {
-					service.setCollectorInterval(AnalysisModelService.DEFAULT_INTERVAL_US);
-					logger.writeLocalMsg("[mgc] Logging via MAVLink streaming",MAV_SEVERITY.MAV_SEVERITY_NOTICE);
-				}
-				return false;
+		if(!MAVPreferences.getInstance().getBoolean(MAVPreferences.ULOGGER, false) && !debug) {
+			if(enable) {
+				service.setCollectorInterval(AnalysisModelService.DEFAULT_INTERVAL_US);
+				logger.writeLocalMsg("[mgc] Logging via MAVLink streaming",MAV_SEVERITY.MAV_SEVERITY_NOTICE);
 			}
+			return CompletableFuture.completedFuture(false);
+		}
 
-			if(enable)  {
-				service.setCollectorInterval(AnalysisModelService.MAVHIRES_INTERVAL_US);
-				long tms = System.currentTimeMillis();
-				parser.reset(); header_processed = 0; package_lost = 0;
-				logger.writeLocalMsg("[mgc] Try to start ULog streaming",MAV_SEVERITY.MAV_SEVERITY_DEBUG);
-				control.sendMAVLinkCmd(MAV_CMD.MAV_CMD_LOGGING_START,0);
-
-				while(state!=STATE_DATA ) {
-					// TODO: This is blocking the UI Thread -> resolve
-					try {
-						Thread.sleep(100);
-					} catch (InterruptedException e) {	}
-
-					if((System.currentTimeMillis()-tms)>12000) {
-						service.setCollectorInterval(AnalysisModelService.DEFAULT_INTERVAL_US);
-						control.sendMAVLinkCmd(MAV_CMD.MAV_CMD_LOGGING_STOP);
-						logger.writeLocalMsg("[mgc] Logging via MAVLink streaming",MAV_SEVERITY.MAV_SEVERITY_NOTICE);
-						state=STATE_HEADER_IDLE;
-						return false;
-					}
-				}
-
-				wq.addSingleTask("LP",5000,() -> {
-					if(state==STATE_DATA && lostPackageRatio() > 0.02f)
-						logger.writeLocalMsg("[mgc] ULog lost package ratio: "+(int)(lostPackageRatio()*100f)+"%",
-								MAV_SEVERITY.MAV_SEVERITY_NOTICE);
-				});
+		if(enable)  {
+			if(start!=null && !start.isDone())
+				return start;
+			if(state==STATE_DATA)
+				return CompletableFuture.completedFuture(true);
+
+			service.setCollectorInterval(AnalysisModelService.MAVHIRES_INTERVAL_US);
+			start = new CompletableFuture<Boolean>();
+			attempt = 0;
+			sendStart();
+			supervisor = wq.addCyclicTask("LP",SUPERVISION_CYCLE_MS,this::supervise);
+			return start;
+		}
 
-	
-				logger.writeLocalMsg("[mgc] Logging via ULog streaming",MAV_SEVERITY.MAV_SEVERITY_NOTICE);
-			} else {
-				control.sendMAVLinkCmd(MAV_CMD.MAV_CMD_LOGGING_STOP);
-				if(state==STATE_DATA) {
-					state=STATE_HEADER_IDLE;
-				}
-				return false;
+		cancelStart();
+		control.sendMAVLinkCmd(MAV_CMD.MAV_CMD_LOGGING_STOP);
+		state=STATE_HEADER_IDLE;
+		return CompletableFuture.completedFuture(false);
+	}
+
+	private void sendStart() {
+		state=STATE_HEADER_IDLE;
+		parser.reset(); header_processed = 0; data_processed = 0;
+		tms_attempt = System.currentTimeMillis();
+		attempt++;
+		logger.writeLocalMsg("[mgc] Try to start ULog streaming ("+attempt+")",MAV_SEVERITY.MAV_SEVERITY_DEBUG);
+		control.sendMAVLinkCmd(MAV_CMD.MAV_CMD_LOGGING_START,0);
+	}
+
+	private synchronized void supervise() {
+
+		if(start==null || start.isDone()) {
+			wq.removeTask("LP", supervisor);
+			return;
+		}
+
+		final long dt = System.currentTimeMillis() - tms_attempt;
+
+		if(state==STATE_DATA) {
+			wq.removeTask("LP", supervisor);
+			wq.addSingleTask("LP",5000,() -> {
+				if(state==STATE_DATA && lostPackageRatio() > 0.02f)
+					logger.writeLocalMsg("[mgc] ULog lost package ratio: "+(int)(lostPackageRatio()*100f)+"%",
+							MAV_SEVERITY.MAV_SEVERITY_NOTICE);
+			});
+			logger.writeLocalMsg("[mgc] Logging via ULog streaming",MAV_SEVERITY.MAV_SEVERITY_NOTICE);
+			start.complete(true);
+			return;
+		}
+
+		if((state==STATE_HEADER_IDLE && dt > START_TIMEOUT_MS) || dt > HEADER_TIMEOUT_MS) {
+			control.sendMAVLinkCmd(MAV_CMD.MAV_CMD_LOGGING_STOP);
+			if(attempt < START_RETRIES && control.isConnected()) {
+				sendStart();
+				return;
 			}
-			return true;
-//		}).start();
+			wq.removeTask("LP", supervisor);
+			service.setCollectorInterval(AnalysisModelService.DEFAULT_INTERVAL_US);
+			logger.writeLocalMsg("[mgc] Logging via MAVLink streaming",MAV_SEVERITY.MAV_SEVERITY_NOTICE);
+			state=STATE_HEADER_IDLE;
+			start.complete(false);
+		}
+	}
+
+	private void cancelStart() {
+		if(start!=null && !start.isDone()) {
+			wq.removeTask("LP", supervisor);
+			service.setCollectorInterval(AnalysisModelService.DEFAULT_INTERVAL_US);
+			start.complete(false);
+		}
+	}
+
+	public boolean isStarting() {
+		final CompletableFuture<Boolean> f = start;
+		return f!=null && !f.isDone();
 	}
 
 	public boolean isReadingHeader() {
@@ -164,86 +225,89 @@ public class ULogFromMAVLinkReader implements IMAVLinkListener {
 		return state==STATE_DATA;
 	}
 
+	/*
+	 * Acked and unacked packets share one sequence. Every acked packet is acknowledged, also
+	 * duplicates, so that the vehicle stops retransmitting. The stream starts with the acked
+	 * packet containing the ULog magic; from then on all packets pass the sequence window.
+	 */
 	@Override
 	public  void received(Object o) {
 
 		if( o instanceof msg_logging_data_acked) {
 
 			msg_logging_data_acked log = (msg_logging_data_acked)o;
+			sendAck(log.sequence);
 
-			if(state==STATE_DATA) {
-				parser.parseHeader();
-				header_processed++;
-				msg_logging_ack ack = new msg_logging_ack(255,1);
-				ack.target_component=1;
-				ack.target_system=1;
-				ack.isValid = true;
-				ack.sequence = log.sequence;
-				control.sendMAVLinkMessage(ack);
-				return;
-			}
-
-			if(header_processed != log.sequence) {
-				return;
-			}
-			parser.addToBuffer(log);
-			msg_logging_ack ack = new msg_logging_ack(255,1);
-			ack.target_component=1;
-			ack.target_system=1;
-			ack.isValid = true;
-			ack.sequence = log.sequence;
-			control.sendMAVLinkMessage(ack);
+			final int length = Math.min(log.length, payload.length);
+			for (int i = 0; i < length; i++)
+				payload[i] = (byte)(log.data[i] & 0x00FF);
 
 			if(state==STATE_HEADER_IDLE) {
-				if(parser.checkHeader()) {
-					header_processed = log.sequence;
-					state = STATE_HEADER_WAIT;
-					System.out.println("ULOG Start reading header");
-				} else
+				parser.reset();
+				parser.addToBuffer(payload, length, 0, false);
+				if(!parser.checkHeader())
 					return;
+				window.reset(log.sequence + 1);
+				header_processed = 1;
+				data_processed = 0;
+				state = STATE_HEADER_WAIT;
+				System.out.println("ULOG Start reading header");
+				parser.parseHeader();
+				return;
 			}
 
-			parser.parseHeader();
-			header_processed++;
+			window.add(log.sequence, payload, length, log.first_message_offset, true);
+			return;
 		}
 
 		if( o instanceof msg_logging_data) {
 
 			msg_logging_data log = (msg_logging_data)o;
 
-			if(state==STATE_HEADER_IDLE) {
-				parser.reset();
-				data_processed = 0;
-				package_lost=0;
+			if(state==STATE_HEADER_IDLE)
 				return;
-			}
 
-			if(state==STATE_HEADER_WAIT) {
-				System.out.println("ULOG build subscriptions");
-				parser.buildSubscriptions();
-				data_processed = header_processed;
-				parser.clearBuffer();
-				state = STATE_DATA;
-			}
+			final int length = Math.min(log.length, payload.length);
+			for (int i = 0; i < length; i++)
+				payload[i] = (byte)(log.data[i] & 0x00FF);
 
-			if(state==STATE_DATA) {
-				if(data_processed != log.sequence) {
-					data_processed = log.sequence;
-					package_lost++;
-					parser.addToBuffer(log, false);
-				} else {
-					parser.addToBuffer(log, true);
-				}
-				parser.parseData(debug);
-			}
+			window.add(log.sequence, payload, length, log.first_message_offset, false);
+		}
+	}
 
-			if(++data_processed > 65535) {
-				data_processed = 0;
-				package_lost = 0;
+	/*
+	 * Packets in sequence order. The header is complete with the first unacked packet.
+	 */
+	private void process(byte[] data, int length, int first_message_offset, boolean acked, boolean gap) {
+
+		if(state==STATE_HEADER_WAIT) {
+			if(acked) {
+				parser.addToBuffer(data, length, first_message_offset, gap);
+				parser.parseHeader();
+				header_processed++;
+				return;
 			}
+			System.out.println("ULOG build subscriptions");
+			parser.buildSubscriptions();
+			state = STATE_DATA;
+		}
+
+		if(state==STATE_DATA) {
+			parser.addToBuffer(data, length, first_message_offset, gap);
+			parser.parseData(debug);
+			data_processed++;
 		}
 	}
 
+	private void sendAck(int sequence) {
+		msg_logging_ack ack = new msg_logging_ack(255,1);
+		ack.target_component=1;
+		ack.target_system=1;
+		ack.isValid = true;
+		ack.sequence = sequence;
+		control.sendMAVLinkMessage(ack);
+	}
+
 	public int getHeaderProcessed() {
 		return header_processed;
 	}
@@ -252,11 +316,24 @@ public class ULogFromMAVLinkReader implements IMAVLinkListener {
 		return data_processed;
 	}
 
+	public int getLostPackages() {
+		return window.getLost();
+	}
+
+	public int getDuplicatePackages() {
+		return window.getDuplicates();
+	}
+
+	public int getReorderedPackages() {
+		return window.getReordered();
+	}
+
 	public float lostPackageRatio() {
+		final int lost = window.getLost();
 		if(data_processed == 0)
 			return Float.NaN;
 		else
-			return (float)package_lost/data_processed;
+			return (float)lost/(data_processed + lost);
 	}
 
 	//  helpers for dev
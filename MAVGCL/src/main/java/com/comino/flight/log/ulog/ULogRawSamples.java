@@ -0,0 +1,174 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2018 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log.ulog;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.comino.flight.model.KeyFigureMetaData;
+
+import me.drton.jmavlib.log.FormatErrorException;
+import me.drton.jmavlib.log.ulog.MessageFormat;
+import me.drton.jmavlib.log.ulog.ULogDataSink;
+import me.drton.jmavlib.log.ulog.ULogReader;
+
+/*
+ * Samples of keyfigures at the rate they were logged. The store keeps a converted log
+ * resampled at the collector rate only, so spectra of high rate data (e.g. IMU at 1kHz) are
+ * calculated from samples read from the log again.
+ *
+ * Only keyfigures with a plain ULog source field are supported, a keyfigure with a converter
+ * has no samples. Timestamps are in us relative to the start of the log like the store.
+ */
+
+public class ULogRawSamples {
+
+	private static final int INITIAL_CAPACITY = 65536;
+
+	private long[]   tms    = new long[INITIAL_CAPACITY];
+	private double[] values = new double[INITIAL_CAPACITY];
+	private int      count  = 0;
+
+	/*
+	 * Reads the samples of the keyfigures in one pass, null for a keyfigure without plain
+	 * ULog source field or without samples in the log.
+	 */
+	public static ULogRawSamples[] read(String path, KeyFigureMetaData... kfs) throws IOException, FormatErrorException {
+
+		final ULogRawSamples[] samples = new ULogRawSamples[kfs.length];
+		final Map<String,ULogRawSamples> fields = new HashMap<String,ULogRawSamples>();
+		for(int k = 0; k < kfs.length; k++) {
+			if(kfs[k] == null)
+				continue;
+			final KeyFigureMetaData.DataSource source = kfs[k].sources.get(KeyFigureMetaData.ULG_SOURCE);
+			if(source == null || source.field == null || source.converter != null)
+				continue;
+			samples[k] = fields.computeIfAbsent(source.field, (f) -> new ULogRawSamples());
+		}
+		if(fields.isEmpty())
+			return samples;
+
+		final ULogReader reader = new ULogReader(path);
+		final long start = reader.getStartMicroseconds();
+
+		// Samples of each message element per format and multi instance, null if not used
+		final Map<MessageFormat,ULogRawSamples[][]> bindings = new IdentityHashMap<MessageFormat,ULogRawSamples[][]>();
+		final ULogDataSink sink = (format, multiID, timestamp, buffer, offset, size) -> {
+			ULogRawSamples[][] b = bindings.get(format);
+			if(b == null || b.length <= multiID) {
+				b = b == null ? new ULogRawSamples[multiID+1][] : Arrays.copyOf(b, multiID+1);
+				bindings.put(format, b);
+			}
+			if(b[multiID] == null) {
+				final String name = format.name + "_" + multiID + ".";
+				b[multiID] = new ULogRawSamples[format.getElementCount()];
+				for(int e = 0; e < b[multiID].length; e++)
+					b[multiID][e] = fields.get(name + format.getElementName(e));
+			}
+			final ULogRawSamples[] binding = b[multiID];
+			for(int e = 0; e < binding.length; e++) {
+				if(binding[e] != null)
+					binding[e].add(timestamp - start, format.getDouble(buffer, offset, e));
+			}
+		};
+
+		try {
+			while(true)
+				reader.readData(sink);
+		} catch(IOException e) {
+			// End of log
+		} finally {
+			reader.close();
+		}
+
+		for(int k = 0; k < samples.length; k++) {
+			if(samples[k] != null && samples[k].count < 2)
+				samples[k] = null;
+		}
+		return samples;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/*
+	 * Values of the samples, only indices below size() are valid
+	 */
+	public double[] getValues() {
+		return values;
+	}
+
+	public long getTms(int index) {
+		return tms[index];
+	}
+
+	/*
+	 * Mean sample rate in Hz
+	 */
+	public float getSampleRate() {
+		final long duration = tms[count-1] - tms[0];
+		return duration > 0 ? (count - 1) * 1e6f / duration : 0;
+	}
+
+	/*
+	 * Index of the last sample at or before t (us), -1 if there is none
+	 */
+	public int indexOf(long t) {
+		final int i = Arrays.binarySearch(tms, 0, count, t);
+		if(i >= 0) {
+			// Samples with the same timestamp: the last one
+			int j = i;
+			while(j + 1 < count && tms[j+1] == t)
+				j++;
+			return j;
+		}
+		return -i - 2;
+	}
+
+	private void add(long t, double value) {
+		if(count == tms.length) {
+			tms    = Arrays.copyOf(tms, count * 2);
+			values = Arrays.copyOf(values, count * 2);
+		}
+		tms[count]    = t;
+		values[count] = value;
+		count++;
+	}
+
+}
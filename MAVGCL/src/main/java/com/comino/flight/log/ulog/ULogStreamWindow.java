@@ -0,0 +1,183 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2021 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log.ulog;
+
+/*
+ * Restores the order of the ULog logging packets by their 16 bit sequence number. Packets
+ * arriving ahead of a missing one are held in a window of the given depth; duplicates and
+ * packets behind the window are dropped. When a packet arrives beyond the window, the missing
+ * packets are given up as lost and the next delivered packet is marked as following a gap.
+ */
+public class ULogStreamWindow {
+
+	public interface ISink {
+		void accept(byte[] payload, int length, int first_message_offset, boolean acked, boolean gap);
+	}
+
+	public static final int PAYLOAD_SIZE = 249;
+
+	private final ISink     sink;
+	private final int       mask;
+	private final byte[][]  payload;
+	private final int[]     length;
+	private final int[]     offset;
+	private final boolean[] acked;
+	private final boolean[] present;
+
+	private int     next    = -1;
+	private boolean gap     = false;
+
+	private int received    = 0;
+	private int delivered   = 0;
+	private int lost        = 0;
+	private int duplicates  = 0;
+	private int reordered   = 0;
+
+	/*
+	 * @param depth the number of packets held while waiting for a missing one (rounded up to
+	 *              a power of two, so that the slots stay aligned when the sequence wraps)
+	 */
+	public ULogStreamWindow(int depth, ISink sink) {
+		final int size = depth <= 1 ? 1 : Integer.highestOneBit(depth - 1) << 1;
+		this.sink    = sink;
+		this.mask    = size - 1;
+		this.payload = new byte[size][PAYLOAD_SIZE];
+		this.length  = new int[size];
+		this.offset  = new int[size];
+		this.acked   = new boolean[size];
+		this.present = new boolean[size];
+	}
+
+	public int getDepth() {
+		return mask + 1;
+	}
+
+	/* Starts a new stream, the next packet delivered is the one with the given sequence */
+	public void reset(int sequence) {
+		for(int i = 0; i <= mask; i++)
+			present[i] = false;
+		next = sequence & 0xFFFF;
+		gap = false;
+		received = 0; delivered = 0; lost = 0; duplicates = 0; reordered = 0;
+	}
+
+	public void add(int sequence, byte[] data, int len, int first_message_offset, boolean is_acked) {
+
+		received++;
+		if(next < 0)
+			next = sequence & 0xFFFF;
+
+		int d = (sequence - next) & 0xFFFF;
+		if(d >= 0x8000) {
+			duplicates++;
+			return;
+		}
+
+		// Beyond the window: give up the oldest missing packets
+		while(d > mask) {
+			final int i = next & mask;
+			if(present[i]) {
+				present[i] = false;
+				deliver(payload[i], length[i], offset[i], acked[i]);
+			} else {
+				lost++;
+				gap = true;
+			}
+			next = (next + 1) & 0xFFFF;
+			d--;
+			if(d <= mask) {
+				drain();
+				d = (sequence - next) & 0xFFFF;
+				if(d >= 0x8000) {
+					duplicates++;
+					return;
+				}
+			}
+		}
+
+		if(d > 0) {
+			final int i = sequence & mask;
+			if(present[i]) {
+				duplicates++;
+				return;
+			}
+			System.arraycopy(data, 0, payload[i], 0, Math.min(len, PAYLOAD_SIZE));
+			length[i] = len; offset[i] = first_message_offset; acked[i] = is_acked;
+			present[i] = true;
+			reordered++;
+			return;
+		}
+
+		deliver(data, len, first_message_offset, is_acked);
+		next = (next + 1) & 0xFFFF;
+		drain();
+	}
+
+	public int getReceived() {
+		return received;
+	}
+
+	public int getDelivered() {
+		return delivered;
+	}
+
+	public int getLost() {
+		return lost;
+	}
+
+	public int getDuplicates() {
+		return duplicates;
+	}
+
+	public int getReordered() {
+		return reordered;
+	}
+
+	private void drain() {
+		int i;
+		while(present[i = next & mask]) {
+			present[i] = false;
+			deliver(payload[i], length[i], offset[i], acked[i]);
+			next = (next + 1) & 0xFFFF;
+		}
+	}
+
+	private void deliver(byte[] data, int len, int first_message_offset, boolean is_acked) {
+		delivered++;
+		final boolean g = gap;
+		gap = false;
+		sink.accept(data, len, first_message_offset, is_acked, g);
+	}
+}
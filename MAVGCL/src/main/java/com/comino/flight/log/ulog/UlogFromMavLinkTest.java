@@ -47,7 +47,7 @@ public class UlogFromMavLinkTest implements Runnable {
 		} catch (InterruptedException e1) {
 
 		}
-		 logger.enableLogging(true);
+		 logger.enableLogging(true).join();
 		 float val = 0;
 		while(true) {
 			try {
@@ -34,89 +34,515 @@
 package com.comino.flight.log.ulog;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractMap;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.AnalysisDataModelStore;
 import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.flight.model.ULogFieldBinding;
+import com.comino.flight.model.converter.SourceConverter;
 import com.comino.flight.model.service.AnalysisModelService;
 import com.comino.flight.observables.StateProperties;
 import com.comino.mavcom.model.segment.LogMessage;
 
 import me.drton.jmavlib.log.FormatErrorException;
+import me.drton.jmavlib.log.ulog.FieldFormat;
+import me.drton.jmavlib.log.ulog.MessageFormat;
+import me.drton.jmavlib.log.ulog.ULogDataSink;
 import me.drton.jmavlib.log.ulog.ULogReader;
 
+/*
+ * Converts a ULog into the model store in three stages:
+ *
+ * - Decoder thread: copies the raw bodies of the data messages into recycled batches,
+ *   no MessageData is created
+ * - Resampler (caller): decodes the fields used by keyfigures directly from the batch into
+ *   a primitive hold array and takes a snapshot for each collector slot, collected in segments
+ * - Fill tasks: calculate the keyfigure columns of a segment in parallel (one keyfigure per
+ *   task, as converters may keep state), then append the rows and virtual keyfigures. Sources
+ *   and record based converters read the snapshot by the indices bound once per log
+ *
+ * Segments are processed in order, at most MAX_SEGMENTS are pending. The first failure of the
+ * decoder or of a segment ends the conversion and is thrown as FormatErrorException.
+ *
+ * In batch mode the keyfigure columns of each segment are passed to a listener instead of
+ * the store, and no UI state is updated, so that several logs can be converted in parallel.
+ */
+
 public class UlogtoModelConverter {
 
+	public interface IRowListener {
+		/*
+		 * Receives the rows of a segment in order: time tms[i] in us relative to the start
+		 * of the log, value of keyfigure k values[k][i]. Arrays are only valid during the call.
+		 */
+		void rows(long[] tms, double[][] values, int count);
+	}
+
+	private static final int SEGMENT_SIZE = 2000;
+	private static final int BATCH_SIZE   = 1024;
+	private static final int BATCH_BYTES  = 256 * 1024;
+	private static final int BATCHES      = 16;
+	private static final int MAX_SEGMENTS = 4;
+
+	private static final Batch END = new Batch();
+
 	private ULogReader reader;
-	private List<AnalysisDataModel> list;
+	private AnalysisDataModelStore list;
+	private IRowListener listener;
 
 	private AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
 	private StateProperties state;
-	
+
 	private LogMessage msg_old;
 
+	private KeyFigureMetaData[] kfs;
+	private String[]            fields;
+	private Map<String,Integer> field_index;
+	private FieldFormat[]       field_types;
+	private ULogFieldBinding.Inputs[] kf_inputs;
+
+	// Index of each message element in the hold array per format and multi instance, -1 if not used
+	private final Map<MessageFormat,int[][]> bindings = new IdentityHashMap<MessageFormat,int[][]>();
+
+	private volatile Throwable  decoder_error = null;
+	private volatile boolean    stopped       = false;
+
 
-	public UlogtoModelConverter(ULogReader reader, List<AnalysisDataModel> list) {
+	public UlogtoModelConverter(ULogReader reader, AnalysisDataModelStore list) {
 		this.reader = reader;
 		this.list = list;
 		this.state = StateProperties.getInstance();
 	}
 
+	/*
+	 * Batch conversion of the given keyfigures with ULog source, which must not be shared with
+	 * other conversions (see KeyFigureMetaData.forkULogSource())
+	 */
+	public UlogtoModelConverter(ULogReader reader, KeyFigureMetaData[] kfs, IRowListener listener) {
+		this.reader = reader;
+		this.kfs = kfs;
+		this.listener = listener;
+	}
+
+	public KeyFigureMetaData[] getKeyFigures() {
+		return kfs;
+	}
+
 
 	public void doConversion() throws FormatErrorException {
 
-		long tms_slot = 0; long tms = 0;  boolean errorFlag = false;
+		long tms_slot = 0; long tms = 0;
+
+		final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(BATCHES);
+		final BlockingQueue<Batch> free  = new ArrayBlockingQueue<Batch>(BATCHES);
+		final Semaphore pending = new Semaphore(MAX_SEGMENTS);
 
-		Map<String,Object> data = new HashMap<String,Object>();
+		// The store copies the values into its columns, so one model is reused for all slots
+		final AnalysisDataModel model = new AnalysisDataModel();
 
-		list.clear();
-		
-		int interval_us = AnalysisModelService.getInstance().setCollectorInterval(AnalysisModelService.HISPEED_INTERVAL_US);
+		CompletableFuture<Void> processed = CompletableFuture.completedFuture(null);
+
+		final boolean headless = listener != null;
+		if(!headless)
+			list.clear();
+
+		int interval_us = headless ? AnalysisModelService.HISPEED_INTERVAL_US
+				: AnalysisModelService.getInstance().setCollectorInterval(AnalysisModelService.HISPEED_INTERVAL_US);
 		int interval_us2 = interval_us/2;
-		
-		try {
 
+		bindFields();
+		final double[] hold = new double[fields.length];
+		Arrays.fill(hold, Double.NaN);
+
+		stopped = false;
+		final Thread decoder = new Thread(() -> decode(queue, free));
+		decoder.setName("ULog decoder");
+		decoder.setDaemon(true);
+		decoder.start();
+
+		final BlockingQueue<Segment> segments = new ArrayBlockingQueue<Segment>(MAX_SEGMENTS + 1);
+		Segment segment = new Segment(fields.length);
+
+		try {
+			read:
 			while(tms_slot < reader.getSizeMicroseconds()) {
-				//reader.seek(tms_slot+reader.getStartMicroseconds());
-				tms = reader.readUpdate(data) - reader.getStartMicroseconds();
-				if(tms > (tms_slot-interval_us2)) {
-					state.getProgressProperty().set(tms*1.0f/reader.getSizeMicroseconds());
-					AnalysisDataModel model = new AnalysisDataModel();
-					model.tms = tms;
-					model.dt_sec = tms / 1e6f;
-					tms_slot += interval_us;
-					model.setValues(KeyFigureMetaData.ULG_SOURCE, data, meta);
-					model.calculateVirtualKeyFigures(meta);
-					list.add(model);
+				final Batch batch = queue.take();
+				if(batch == END)
+					break;
+				for(int m = 0; m < batch.count; m++) {
+					apply(hold, batch, m);
+					tms = batch.timestamps[m] - reader.getStartMicroseconds();
+					if(tms > (tms_slot-interval_us2)) {
+						tms_slot += interval_us;
+						segment.add(tms, hold);
+						if(segment.count == SEGMENT_SIZE) {
+							if(!headless)
+								state.getProgressProperty().set(tms*1.0f/reader.getSizeMicroseconds());
+							pending.acquire();
+							processed = submit(processed, segment, model, pending, segments);
+							if(processed.isCompletedExceptionally())
+								break read;
+							segment = segments.poll();
+							if(segment == null)
+								segment = new Segment(fields.length);
+							segment.count = 0;
+						}
+						if(tms_slot >= reader.getSizeMicroseconds())
+							break read;
+					}
 				}
+				free.offer(batch);
+			}
+			if(segment.count > 0 && !processed.isCompletedExceptionally()) {
+				pending.acquire();
+				processed = submit(processed, segment, model, pending, segments);
+			}
+			processed.join();
+
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		} catch(CompletionException e) {
+			if(!headless)
+				state.getProgressProperty().set(StateProperties.NO_PROGRESS);
+			throw toFormatError(e.getCause() != null ? e.getCause() : e);
+		} finally {
+			stopped = true;
+		}
+
+		if(headless) {
+			if(decoder_error != null)
+				throw toFormatError(decoder_error);
+			return;
+		}
+
+		reader.loggedMessages.forEach(s -> {
+			LogMessage msg = new LogMessage(s.message,s.getLevel());
+			msg.tms = s.timestamp - reader.getStartMicroseconds();
+			int i = (int)((s.timestamp - reader.getStartMicroseconds())/interval_us);
+			if(i > 0 && i < list.size() && (msg_old == null || ( !msg.text.equals(msg_old.text) && (msg.tms - msg_old.tms) > 5 ))) {
+				AnalysisDataModel m = list.get(i);
+				m.msg = msg;
+				msg_old = msg;
 			}
+		});
+
+		list.setSource(reader.getFileName());
+		state.getLogULOGProperty().set(true);
+		state.getProgressProperty().set(StateProperties.NO_PROGRESS);
+		System.out.println(list.size()+" entries read. Timespan is "+tms_slot/1e6f+" sec");
+
+		if(decoder_error != null)
+			throw toFormatError(decoder_error);
+	}
+
+	private static FormatErrorException toFormatError(Throwable t) {
+		if(t instanceof FormatErrorException)
+			return (FormatErrorException)t;
+		return new FormatErrorException(0, t.toString(), t);
+	}
 
-			reader.loggedMessages.forEach(s -> {
-				LogMessage msg = new LogMessage(s.message,s.logLevel & 0x00FF - 56);
-				msg.tms = s.timestamp - reader.getStartMicroseconds();
-				int i = (int)((s.timestamp - reader.getStartMicroseconds())/interval_us);
-				if(i > 0 && (msg_old == null || ( !msg.text.equals(msg_old.text) && (msg.tms - msg_old.tms) > 5 ))) {
-					AnalysisDataModel model = list.get(i);
-					model.msg = msg;
-					msg_old = msg;
+	/*
+	 * Collects the ULog fields read by the keyfigures with a ULog source and binds the sources
+	 * to their index in the snapshot, using the field types of the formats in the header.
+	 */
+	private void bindFields() {
+		if(listener == null)
+			kfs = meta.getSourceKeyFigures(KeyFigureMetaData.ULG_SOURCE);
+		final Map<String,Integer> index = new LinkedHashMap<String,Integer>();
+		for(KeyFigureMetaData kf : kfs) {
+			final KeyFigureMetaData.DataSource source = kf.sources.get(KeyFigureMetaData.ULG_SOURCE);
+			if(source.field != null)
+				index.putIfAbsent(source.field, index.size());
+			final SourceConverter c = source.converter;
+			if(c != null) {
+				for(String f : c.getInputs()) {
+					if(f != null)
+						index.putIfAbsent(f, index.size());
 				}
-			});
+			}
+		}
+		field_index = index;
+		fields = index.keySet().toArray(new String[index.size()]);
+		field_types = new FieldFormat[fields.length];
+
+		final Map<String,FieldFormat> elements = new HashMap<String,FieldFormat>();
+		for(MessageFormat format : reader.getMessageFormats().values()) {
+			for(int e = 0; e < format.getElementCount(); e++)
+				elements.put(format.name + "." + format.getElementName(e), format.getElementField(e));
+		}
+
+		final boolean[] longs = new boolean[fields.length];
+		for(int i = 0; i < fields.length; i++) {
+			// e.g. vehicle_attitude_0.q[0] -> vehicle_attitude.q[0]
+			final int dot   = fields[i].indexOf('.');
+			final int multi = dot > 0 ? fields[i].lastIndexOf('_', dot) : -1;
+			if(multi > 0) {
+				field_types[i] = elements.get(fields[i].substring(0, multi) + fields[i].substring(dot));
+				longs[i] = field_types[i] != null && field_types[i].isLong();
+			}
+		}
+
+		final ULogFieldBinding binding = new ULogFieldBinding(index, longs);
+		kf_inputs = new ULogFieldBinding.Inputs[kfs.length];
+		for(int k = 0; k < kfs.length; k++)
+			kf_inputs[k] = kfs[k].bindULog(binding);
+	}
 
-			state.getLogULOGProperty().set(true);
-			state.getProgressProperty().set(StateProperties.NO_PROGRESS);
-			System.out.println(list.size()+" entries read. Timespan is "+tms_slot/1e6f+" sec");
+	private void apply(double[] hold, Batch batch, int m) {
+		final MessageFormat format = batch.formats[m];
+		final int[] binding = getBinding(format, batch.multiIDs[m]);
+		final int offset = batch.offsets[m];
+		for(int e = 0; e < binding.length; e++) {
+			if(binding[e] >= 0)
+				hold[binding[e]] = format.getDouble(batch.data, offset, e);
+		}
+	}
 
+	private int[] getBinding(MessageFormat format, int multiID) {
+		int[][] b = bindings.get(format);
+		if(b == null || b.length <= multiID) {
+			b = b == null ? new int[multiID+1][] : Arrays.copyOf(b, multiID+1);
+			bindings.put(format, b);
+		}
+		if(b[multiID] == null) {
+			final String name = format.name + "_" + multiID + ".";
+			final int[] binding = new int[format.getElementCount()];
+			for(int e = 0; e < binding.length; e++) {
+				binding[e] = field_index.getOrDefault(name + format.getElementName(e), -1);
+				if(binding[e] >= 0)
+					field_types[binding[e]] = format.getElementField(e);
+			}
+			b[multiID] = binding;
+		}
+		return b[multiID];
+	}
+
+	private void decode(BlockingQueue<Batch> queue, BlockingQueue<Batch> free) {
+		final Batch[] current = { new Batch() };
+		final ULogDataSink sink = (format, multiID, timestamp, buffer, offset, size) -> {
+			if(!current[0].add(format, multiID, timestamp, buffer, offset, size)) {
+				if(!put(queue, current[0]))
+					return;
+				current[0] = take(free);
+				current[0].add(format, multiID, timestamp, buffer, offset, size);
+			}
+		};
+		try {
+			while(!stopped)
+				reader.readData(sink);
 		} catch(IOException e) {
-			if(errorFlag)
-				System.out.println("WARNING: Some of the key-figures were not available.");
-			System.out.println(list.size()+" entries read. Timespan is "+tms_slot/1e6f+" sec");
+			// End of log
+		} catch(Throwable e) {
+			// Thrown after the resampler has received END
+			decoder_error = e;
 		}
-		
+		if(current[0].count > 0 && !put(queue, current[0]))
+			return;
+		put(queue, END);
+	}
+
+	// Reuses a batch already processed by the resampler
+	private Batch take(BlockingQueue<Batch> free) {
+		final Batch batch = free.poll();
+		if(batch == null)
+			return new Batch();
+		batch.count = 0;
+		return batch;
+	}
+
+	// Gives up if the resampler has finished
+	private boolean put(BlockingQueue<Batch> queue, Batch batch) {
+		try {
+			while(!stopped) {
+				if(queue.offer(batch, 100, TimeUnit.MILLISECONDS))
+					return true;
+			}
+		} catch(InterruptedException e) { }
+		return false;
+	}
+
+	private CompletableFuture<Void> submit(CompletableFuture<Void> previous, Segment segment,
+			AnalysisDataModel model, Semaphore pending, BlockingQueue<Segment> segments) {
+		// Runs also after a failed segment, so that the segment and its permit are returned
+		return previous.handleAsync((v, failure) -> {
+			try {
+				if(failure != null)
+					throw failure instanceof CompletionException ? (CompletionException)failure : new CompletionException(failure);
+				if(listener != null)
+					listener.rows(segment.tms, fill(segment), segment.count);
+				else
+					append(segment, fill(segment), model);
+				return null;
+			} finally {
+				segments.offer(segment);
+				pending.release();
+			}
+		}, ForkJoinPool.commonPool());
+	}
+
+	private double[][] fill(Segment segment) {
+		final double[][] values = new double[kfs.length][];
+		IntStream.range(0, kfs.length).parallel().forEach(k -> {
+			final double[] v = new double[segment.count];
+			final ULogFieldBinding.Inputs inputs = kf_inputs[k];
+			if(inputs != null) {
+				for(int i = 0; i < segment.count; i++) {
+					try {
+						v[i] = kfs[k].getValueFromULogRecord(segment.values, i * segment.width, inputs);
+					} catch(Exception e) {
+						v[i] = Double.NaN;
+					}
+				}
+				values[k] = v;
+				return;
+			}
+			final SnapshotMap snapshot = new SnapshotMap(field_index, field_types);
+			for(int i = 0; i < segment.count; i++) {
+				snapshot.offset = i * segment.width;
+				snapshot.values = segment.values;
+				try {
+					v[i] = kfs[k].getValueFromULogModel(snapshot);
+				} catch(Exception e) {
+					v[i] = Double.NaN;
+				}
+			}
+			values[k] = v;
+		});
+		return values;
 	}
 
+	private void append(Segment segment, double[][] values, AnalysisDataModel model) {
+		for(int i = 0; i < segment.count; i++) {
+			model.tms = segment.tms[i];
+			model.dt_sec = model.tms / 1e6f;
+			for(int k = 0; k < kfs.length; k++)
+				model.setValue(kfs[k], values[k][i]);
+			model.calculateVirtualKeyFigures(meta);
+			list.add(model);
+		}
+	}
 
+	/*
+	 * Raw data message bodies with their format, multi instance and timestamp
+	 */
+	private static class Batch {
 
+		final ByteBuffer      data       = ByteBuffer.allocate(BATCH_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		final MessageFormat[] formats    = new MessageFormat[BATCH_SIZE];
+		final int[]           multiIDs   = new int[BATCH_SIZE];
+		final long[]          timestamps = new long[BATCH_SIZE];
+		final int[]           offsets    = new int[BATCH_SIZE];
+		int                   count      = 0;
+		int                   position   = 0;
+
+		// Returns false if the batch is full
+		boolean add(MessageFormat format, int multiID, long timestamp, ByteBuffer buffer, int offset, int size) {
+			if(count == 0)
+				position = 0;
+			if(count == BATCH_SIZE || (count > 0 && position + size > BATCH_BYTES))
+				return false;
+			if(buffer.hasArray())
+				System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, data.array(), position, size);
+			else {
+				for(int i = 0; i < size; i++)
+					data.put(position + i, buffer.get(offset + i));
+			}
+			formats[count]    = format;
+			multiIDs[count]   = multiID;
+			timestamps[count] = timestamp;
+			offsets[count++]  = position;
+			position += size;
+			return true;
+		}
+	}
+
+	/*
+	 * Snapshots of the hold array, row by row in one recycled array
+	 */
+	private static class Segment {
+
+		final int      width;
+		final long[]   tms   = new long[SEGMENT_SIZE];
+		final double[] values;
+		int            count = 0;
+
+		Segment(int width) {
+			this.width  = width;
+			this.values = new double[SEGMENT_SIZE * width];
+		}
+
+		void add(long t, double[] hold) {
+			tms[count] = t;
+			System.arraycopy(hold, 0, values, count++ * width, width);
+		}
+	}
+
+	/*
+	 * Read only map view of a snapshot for converters which are not record based, as expected
+	 * by getValueFromULogModel(). Values are
+	 * boxed to the type of their field, NaN is not available. A value unchanged since the
+	 * previous snapshot reuses its boxed object.
+	 */
+	private static class SnapshotMap extends AbstractMap<String,Object> {
+
+		private final Map<String,Integer> index;
+		private final FieldFormat[]       types;
+		private final double[]            last;
+		private final Object[]            boxed;
+		double[] values = null;
+		int      offset = 0;
+
+		SnapshotMap(Map<String,Integer> index, FieldFormat[] types) {
+			this.index = index;
+			this.types = types;
+			this.last  = new double[types.length];
+			this.boxed = new Object[types.length];
+		}
+
+		@Override
+		public Object get(Object key) {
+			final Integer i = index.get(key);
+			if(i == null || types[i] == null)
+				return null;
+			final double v = values[offset + i];
+			if(Double.isNaN(v))
+				return null;
+			if(boxed[i] == null || last[i] != v) {
+				last[i]  = v;
+				boxed[i] = types[i].box(v);
+			}
+			return boxed[i];
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Set<Map.Entry<String,Object>> entrySet() {
+			final Map<String,Object> m = new HashMap<String,Object>();
+			index.forEach((k,i) -> { final Object v = get(k); if(v != null) m.put(k, v); });
+			return m.entrySet();
+		}
+	}
 }
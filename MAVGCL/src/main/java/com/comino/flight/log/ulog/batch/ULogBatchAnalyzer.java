@@ -0,0 +1,419 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2018 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log.ulog.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import com.comino.flight.log.ulog.UlogtoModelConverter;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.KeyFigureMetaData;
+
+import me.drton.jmavlib.log.ulog.MessageLog;
+import me.drton.jmavlib.log.ulog.ULogReader;
+
+/*
+ * Headless analysis of all ULogs of a directory into the flight index. Logs are converted
+ * in parallel, each by its own UlogtoModelConverter in batch mode with private copies of the
+ * keyfigures, and reduced to a ULogFlightSummary while the rows are converted; no model store
+ * is filled. Logs already summarized in their current state are skipped, so that an
+ * interrupted analysis continues where it stopped when run again.
+ *
+ * Usage: ULogBatchAnalyzer <directory> [-r] [-t threads] [-i index]
+ *                          [-max key limit] [-min key limit] [-vib fraction] [-errors] [-msg text]
+ */
+
+public class ULogBatchAnalyzer {
+
+	public static final String EXTENSION = ".ulg";
+
+	private static final String NAVSTATE      = "NAVSTATE";
+	private static final String VIBRATION     = "Vibration";
+	private static final int    SAVE_INTERVAL = 25;
+
+	private final ULogFlightIndex     index;
+	private final KeyFigureMetaData[] keyfigures;
+	private final Set<String>         vibration = new HashSet<String>();
+	private final int                 threads;
+
+	private final AtomicInteger done   = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+
+	private volatile int             total    = 0;
+	private volatile ExecutorService executor = null;
+
+
+	/*
+	 * Summarizes all keyfigures with a ULog source
+	 */
+	public ULogBatchAnalyzer(ULogFlightIndex index, int threads) {
+		this(index, Arrays.asList(AnalysisDataModelMetaData.getInstance().getSourceKeyFigures(KeyFigureMetaData.ULG_SOURCE)), threads);
+	}
+
+	public ULogBatchAnalyzer(ULogFlightIndex index, List<KeyFigureMetaData> keyfigures, int threads) {
+		final List<KeyFigureMetaData> kfs = new ArrayList<KeyFigureMetaData>();
+		for(KeyFigureMetaData kf : keyfigures) {
+			if(kf.hasSource(KeyFigureMetaData.ULG_SOURCE))
+				kfs.add(kf);
+		}
+		this.index      = index;
+		this.keyfigures = kfs.toArray(new KeyFigureMetaData[kfs.size()]);
+		this.threads    = Math.max(1, threads);
+
+		final List<KeyFigureMetaData> group = AnalysisDataModelMetaData.getInstance().getGroupMap().get(VIBRATION);
+		if(group != null)
+			group.forEach((kf) -> vibration.add(kf.key));
+	}
+
+	/*
+	 * Analyzes the logs of the directory not yet summarized in the index and returns when all
+	 * logs have been analyzed or the analysis has been cancelled. The index is saved
+	 * regularly and when done.
+	 *
+	 * Returns the number of logs analyzed
+	 */
+	public int analyze(File dir, boolean recursive) throws InterruptedException, IOException {
+
+		final List<File> logs = new ArrayList<File>();
+		collect(dir, recursive, logs);
+
+		done.set(0);
+		failed.set(0);
+		total = logs.size();
+		index.prune(dir);
+
+		final AtomicInteger analyzed = new AtomicInteger();
+		final AtomicInteger count    = new AtomicInteger();
+		final ExecutorService ex = Executors.newFixedThreadPool(threads, r -> {
+			final Thread t = new Thread(r, "ULog batch analyzer "+count.incrementAndGet());
+			t.setDaemon(true);
+			t.setPriority(Thread.NORM_PRIORITY - 1);
+			return t;
+		});
+		executor = ex;
+
+		for(File log : logs) {
+			if(index.isCurrent(log)) {
+				done.incrementAndGet();
+				continue;
+			}
+			try {
+				ex.execute(() -> {
+					final ULogFlightSummary summary = summarize(log);
+					if(Thread.currentThread().isInterrupted())
+						return;
+					if(summary.getFailure() != null)
+						failed.incrementAndGet();
+					index.put(summary);
+					done.incrementAndGet();
+					if(analyzed.incrementAndGet() % SAVE_INTERVAL == 0)
+						save();
+				});
+			} catch(RejectedExecutionException e) {
+				break;
+			}
+		}
+		ex.shutdown();
+		ex.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		index.save();
+		return analyzed.get();
+	}
+
+	public void cancel() {
+		final ExecutorService ex = executor;
+		if(ex != null)
+			ex.shutdownNow();
+	}
+
+	/*
+	 * Fraction of logs analyzed or found in the index, between 0 and 1
+	 */
+	public double getProgress() {
+		return total == 0 ? 0 : (double)done.get() / total;
+	}
+
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/*
+	 * Converts a single log into its summary. A log which cannot be read results in a summary
+	 * with the failure, so that it is not read again as long as it is unchanged.
+	 */
+	public ULogFlightSummary summarize(File log) {
+
+		final ULogFlightSummary summary = new ULogFlightSummary(log.getAbsolutePath(), log.length(), log.lastModified());
+
+		ULogReader reader = null;
+		try {
+			reader = new ULogReader(log.getAbsolutePath());
+
+			final KeyFigureMetaData[] kfs = new KeyFigureMetaData[keyfigures.length];
+			for(int k = 0; k < kfs.length; k++)
+				kfs[k] = keyfigures[k].forkULogSource();
+
+			final Accumulator acc = new Accumulator(kfs, vibration);
+			new UlogtoModelConverter(reader, kfs, acc).doConversion();
+			acc.store(summary);
+
+			summary.setSystem(reader.getSystemName());
+			summary.setDurationMicroseconds(reader.getSizeMicroseconds());
+			for(MessageLog m : reader.loggedMessages)
+				summary.addMessage(m.timestamp - reader.getStartMicroseconds(), m.getLevel(), m.message);
+
+		} catch(Exception e) {
+			summary.setFailure(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+		} finally {
+			if(reader != null) {
+				try { reader.close(); } catch (IOException e) { }
+			}
+		}
+		return summary;
+	}
+
+	private void save() {
+		try {
+			index.save();
+		} catch(IOException e) {
+			System.err.println("Flight index "+index.getFile()+" not written: "+e.getMessage());
+		}
+	}
+
+	private static void collect(File dir, boolean recursive, List<File> logs) {
+		final File[] list = dir.listFiles();
+		if(list == null)
+			return;
+		Arrays.sort(list);
+		for(File f : list) {
+			if(f.isDirectory()) {
+				if(recursive)
+					collect(f, recursive, logs);
+			} else if(f.getName().toLowerCase().endsWith(EXTENSION))
+				logs.add(f);
+		}
+	}
+
+	/*
+	 * Reduces the converted rows of a log to the statistics of each keyfigure (Welford), the
+	 * vibration levels and the duration of the navigation states. Each row accounts for the
+	 * time since the previous row.
+	 */
+	private static class Accumulator implements UlogtoModelConverter.IRowListener {
+
+		private final KeyFigureMetaData[] kfs;
+		private final int[]               count;
+		private final double[]            min;
+		private final double[]            max;
+		private final double[]            mean;
+		private final double[]            m2;
+		private final boolean[]           isVibration;
+		private final long[]              valid_us;
+		private final long[]              above_us;
+		private final Map<Integer,Long>   modes = new HashMap<Integer,Long>();
+		private final int                 navstate;
+
+		private long   tms_last = -1;
+		private long[] dt       = new long[0];
+
+		Accumulator(KeyFigureMetaData[] kfs, Set<String> vibration) {
+			this.kfs         = kfs;
+			this.count       = new int[kfs.length];
+			this.min         = new double[kfs.length];
+			this.max         = new double[kfs.length];
+			this.mean        = new double[kfs.length];
+			this.m2          = new double[kfs.length];
+			this.isVibration = new boolean[kfs.length];
+			this.valid_us    = new long[kfs.length];
+			this.above_us    = new long[kfs.length];
+			Arrays.fill(min, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, Double.NEGATIVE_INFINITY);
+
+			int n = -1;
+			for(int k = 0; k < kfs.length; k++) {
+				if(NAVSTATE.equals(kfs[k].key))
+					n = k;
+				isVibration[k] = vibration.contains(kfs[k].key);
+			}
+			this.navstate = n;
+		}
+
+		@Override
+		public void rows(long[] tms, double[][] values, int rows) {
+			if(dt.length < rows)
+				dt = new long[rows];
+			for(int i = 0; i < rows; i++) {
+				dt[i] = tms_last >= 0 ? tms[i] - tms_last : 0;
+				tms_last = tms[i];
+			}
+
+			for(int k = 0; k < kfs.length; k++) {
+				final double[] v = values[k];
+				if(v == null)
+					continue;
+				final double limit = getLimit(kfs[k]);
+				for(int i = 0; i < rows; i++) {
+					final double x = v[i];
+					if(!Double.isFinite(x))
+						continue;
+					count[k]++;
+					if(x < min[k]) min[k] = x;
+					if(x > max[k]) max[k] = x;
+					final double d = x - mean[k];
+					mean[k] += d / count[k];
+					m2[k]   += d * (x - mean[k]);
+					if(isVibration[k]) {
+						valid_us[k] += dt[i];
+						if(x > limit)
+							above_us[k] += dt[i];
+					}
+				}
+			}
+			if(navstate < 0 || values[navstate] == null)
+				return;
+			for(int i = 0; i < rows; i++) {
+				final double state = values[navstate][i];
+				if(Double.isFinite(state) && dt[i] > 0)
+					modes.merge((int)state, dt[i], Long::sum);
+			}
+		}
+
+		void store(ULogFlightSummary summary) {
+			for(int k = 0; k < kfs.length; k++) {
+				if(count[k] == 0)
+					continue;
+				final ULogFlightSummary.Stats stats = new ULogFlightSummary.Stats(count[k], min[k], max[k], mean[k], m2[k]);
+				summary.putStats(kfs[k].key, stats);
+				if(isVibration[k])
+					summary.putVibration(kfs[k].key, new ULogFlightSummary.Vibration(stats, (float)getLimit(kfs[k]), valid_us[k], above_us[k]));
+			}
+			modes.forEach(summary::addModeDuration);
+		}
+
+		/*
+		 * Upper validity bound of a keyfigure, NaN if it has no bounds
+		 */
+		private static double getLimit(KeyFigureMetaData kf) {
+			return kf.max > kf.min ? kf.max : Double.NaN;
+		}
+	}
+
+
+	public static void main(String[] args) throws Exception {
+
+		if(args.length < 1) {
+			System.out.println("Usage: ULogBatchAnalyzer <directory> [-r] [-t threads] [-i index] "
+					+ "[-max key limit] [-min key limit] [-vib fraction] [-errors] [-msg text]");
+			return;
+		}
+
+		final File dir = new File(args[0]);
+		boolean recursive = false;
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		File file = ULogFlightIndex.getDefaultFile();
+		Predicate<ULogFlightSummary> filter = s -> s.getFailure() == null;
+		final List<String> shown = new ArrayList<String>();
+
+		for(int i = 1; i < args.length; i++) {
+			switch(args[i]) {
+			case "-r":
+				recursive = true;
+				break;
+			case "-t":
+				threads = Integer.parseInt(args[++i]);
+				break;
+			case "-i":
+				file = new File(args[++i]);
+				break;
+			case "-max":
+				shown.add(args[i+1]);
+				filter = filter.and(ULogFlightIndex.maxAbove(args[++i], Float.parseFloat(args[++i])));
+				break;
+			case "-min":
+				shown.add(args[i+1]);
+				filter = filter.and(ULogFlightIndex.minBelow(args[++i], Float.parseFloat(args[++i])));
+				break;
+			case "-vib":
+				filter = filter.and(ULogFlightIndex.vibrationAbove(Float.parseFloat(args[++i])));
+				break;
+			case "-errors":
+				filter = filter.and(ULogFlightIndex.hasErrors());
+				break;
+			case "-msg":
+				filter = filter.and(ULogFlightIndex.hasMessage(args[++i]));
+				break;
+			default:
+				System.err.println("Unknown option "+args[i]);
+				return;
+			}
+		}
+
+		final ULogFlightIndex index = new ULogFlightIndex(file);
+		index.load();
+
+		final long tms = System.currentTimeMillis();
+		final ULogBatchAnalyzer analyzer = new ULogBatchAnalyzer(index, threads);
+		final int analyzed = analyzer.analyze(dir, recursive);
+		System.out.println(analyzed+" logs analyzed ("+analyzer.getFailed()+" failed) in "
+				+(System.currentTimeMillis()-tms)/1000f+" sec, "+index.size()+" flights in "+index.getFile());
+
+		final SimpleDateFormat date = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+		final List<ULogFlightSummary> flights = index.query(filter);
+		flights.sort((a,b) -> Long.compare(a.getModified(), b.getModified()));
+		for(ULogFlightSummary s : flights) {
+			final StringBuilder b = new StringBuilder();
+			b.append(date.format(new Date(s.getModified()))).append(String.format(" %6.0fs %3d errors  ",
+					s.getDurationMicroseconds() / 1e6f, s.getErrorCount())).append(s.getPath());
+			for(String key : shown)
+				b.append("  ").append(key).append(": ").append(s.getStats(key));
+			s.getVibration().forEach((key,v) -> b.append("  ").append(key).append(": ").append(v));
+			System.out.println(b);
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2018 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log.ulog.batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Local index of flight summaries, kept in memory and stored as one compressed file
+ * ("ULFI", version, count, summaries). Queries are evaluated on the summaries in memory, so
+ * that the logs do not need to be opened. A summary is current as long as size and
+ * modification time of its log are unchanged.
+ */
+
+public class ULogFlightIndex {
+
+	public static final int VERSION = 2;
+
+	private static final int MAGIC = 0x554c4649;   // "ULFI"
+
+	private final File file;
+	private final Map<String,ULogFlightSummary> flights = new LinkedHashMap<String,ULogFlightSummary>();
+
+
+	public ULogFlightIndex() {
+		this(getDefaultFile());
+	}
+
+	public ULogFlightIndex(File file) {
+		this.file = file;
+	}
+
+	public static File getDefaultFile() {
+		return new File(System.getProperty("user.home")+"/.MAVGCL", "flights.idx");
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/*
+	 * Reads the index file, if there is one. An index of another version is ignored and
+	 * rebuilt by the next analysis.
+	 */
+	public synchronized void load() throws IOException {
+		flights.clear();
+		if(!file.exists())
+			return;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+			if(in.readInt() != MAGIC)
+				throw new IOException("Not a flight index: "+file);
+			if(in.readInt() != VERSION)
+				return;
+			for(int i = in.readInt(); i > 0; i--) {
+				final ULogFlightSummary s = ULogFlightSummary.read(in);
+				flights.put(s.getPath(), s);
+			}
+		}
+	}
+
+	/*
+	 * Writes the index into a temporary file first, so that an interrupted write keeps the
+	 * previous index
+	 */
+	public synchronized void save() throws IOException {
+		if(file.getParentFile() != null)
+			file.getParentFile().mkdirs();
+		final File tmp = new File(file.getPath()+".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(flights.size());
+			for(ULogFlightSummary s : flights.values())
+				s.write(out);
+		} catch(IOException e) {
+			tmp.delete();
+			throw e;
+		}
+		file.delete();
+		if(!tmp.renameTo(file))
+			throw new IOException("Cannot rename "+tmp);
+	}
+
+	public synchronized int size() {
+		return flights.size();
+	}
+
+	public synchronized ULogFlightSummary get(File log) {
+		return flights.get(log.getAbsolutePath());
+	}
+
+	public synchronized void put(ULogFlightSummary summary) {
+		flights.put(summary.getPath(), summary);
+	}
+
+	/*
+	 * True if the index holds a summary of the log in its current state
+	 */
+	public synchronized boolean isCurrent(File log) {
+		final ULogFlightSummary s = flights.get(log.getAbsolutePath());
+		return s != null && s.getSize() == log.length() && s.getModified() == log.lastModified();
+	}
+
+	/*
+	 * Removes the summaries of logs in the directory which do not exist anymore
+	 */
+	public synchronized int prune(File dir) {
+		final String prefix = dir.getAbsolutePath() + File.separator;
+		int count = 0;
+		final Iterator<ULogFlightSummary> i = flights.values().iterator();
+		while(i.hasNext()) {
+			final String path = i.next().getPath();
+			if(path.startsWith(prefix) && !new File(path).exists()) {
+				i.remove();
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public synchronized List<ULogFlightSummary> getFlights() {
+		return new ArrayList<ULogFlightSummary>(flights.values());
+	}
+
+	public synchronized List<ULogFlightSummary> query(Predicate<ULogFlightSummary> filter) {
+		final List<ULogFlightSummary> result = new ArrayList<ULogFlightSummary>();
+		for(ULogFlightSummary s : flights.values()) {
+			if(filter.test(s))
+				result.add(s);
+		}
+		return result;
+	}
+
+	/*
+	 * Flights in which the maximum of a keyfigure exceeded the limit
+	 */
+	public static Predicate<ULogFlightSummary> maxAbove(String key, float limit) {
+		return s -> {
+			final ULogFlightSummary.Stats st = s.getStats(key);
+			return st != null && st.max > limit;
+		};
+	}
+
+	/*
+	 * Flights in which the minimum of a keyfigure fell below the limit
+	 */
+	public static Predicate<ULogFlightSummary> minBelow(String key, float limit) {
+		return s -> {
+			final ULogFlightSummary.Stats st = s.getStats(key);
+			return st != null && st.min < limit;
+		};
+	}
+
+	/*
+	 * Flights in which a vibration keyfigure exceeded its limit for more than the fraction
+	 * of the time
+	 */
+	public static Predicate<ULogFlightSummary> vibrationAbove(float fraction) {
+		return s -> s.getVibrationExceeded() > fraction;
+	}
+
+	public static Predicate<ULogFlightSummary> hasErrors() {
+		return s -> s.getErrorCount() > 0;
+	}
+
+	public static Predicate<ULogFlightSummary> hasMessage(String text) {
+		return s -> s.hasMessage(text);
+	}
+}
@@ -0,0 +1,408 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2018 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log.ulog.batch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Summary of a single flight log as kept in the flight index: statistics of the keyfigures
+ * found in the log, the vibration levels, the time spent in each navigation state and the
+ * warning and error messages logged.
+ */
+
+public class ULogFlightSummary {
+
+	public static final int   MAX_MESSAGES = 64;
+
+	// ULog log levels, ASCII '0'..'7'
+	public static final int   LEVEL_ERROR   = 3;
+	public static final int   LEVEL_WARNING = 4;
+
+	private String path;
+	private long   size;
+	private long   modified;
+
+	private String system      = "";
+	private long   duration_us = 0;
+	private String failure     = null;
+
+	private int    errors      = 0;
+	private int    warnings    = 0;
+
+	private final Map<String,Stats>     stats     = new LinkedHashMap<String,Stats>();
+	private final Map<String,Vibration> vibration = new LinkedHashMap<String,Vibration>();
+	private final Map<Integer,Long>  modes    = new TreeMap<Integer,Long>();
+	private final List<Message>      messages = new ArrayList<Message>();
+
+
+	public ULogFlightSummary(String path, long size, long modified) {
+		this.path     = path;
+		this.size     = size;
+		this.modified = modified;
+	}
+
+	private ULogFlightSummary() {
+
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getModified() {
+		return modified;
+	}
+
+	public String getSystem() {
+		return system;
+	}
+
+	public void setSystem(String system) {
+		this.system = system != null ? system : "";
+	}
+
+	public long getDurationMicroseconds() {
+		return duration_us;
+	}
+
+	public void setDurationMicroseconds(long duration_us) {
+		this.duration_us = duration_us;
+	}
+
+	/*
+	 * Reason the log could not be analyzed, null if analyzed
+	 */
+	public String getFailure() {
+		return failure;
+	}
+
+	public void setFailure(String failure) {
+		this.failure = failure;
+	}
+
+	public int getErrorCount() {
+		return errors;
+	}
+
+	public int getWarningCount() {
+		return warnings;
+	}
+
+	/*
+	 * Statistics of a keyfigure by its key, null if the keyfigure is not available in the log
+	 */
+	public Stats getStats(String key) {
+		return stats.get(key);
+	}
+
+	public Map<String,Stats> getStats() {
+		return Collections.unmodifiableMap(stats);
+	}
+
+	public void putStats(String key, Stats s) {
+		stats.put(key, s);
+	}
+
+	/*
+	 * Vibration level of a keyfigure of the vibration group by its key, null if the
+	 * keyfigure is not available in the log
+	 */
+	public Vibration getVibration(String key) {
+		return vibration.get(key);
+	}
+
+	public Map<String,Vibration> getVibration() {
+		return Collections.unmodifiableMap(vibration);
+	}
+
+	public void putVibration(String key, Vibration v) {
+		vibration.put(key, v);
+	}
+
+	/*
+	 * Highest fraction of time any vibration keyfigure exceeded its limit, 0 if no limit
+	 * is defined
+	 */
+	public float getVibrationExceeded() {
+		float fraction = 0;
+		for(Vibration v : vibration.values())
+			fraction = Math.max(fraction, v.getFractionAbove());
+		return fraction;
+	}
+
+	/*
+	 * Time spent in each navigation state in us
+	 */
+	public Map<Integer,Long> getModes() {
+		return Collections.unmodifiableMap(modes);
+	}
+
+	public long getModeDurationMicroseconds(int nav_state) {
+		return modes.getOrDefault(nav_state, 0L);
+	}
+
+	public void addModeDuration(int nav_state, long duration_us) {
+		modes.merge(nav_state, duration_us, Long::sum);
+	}
+
+	public List<Message> getMessages() {
+		return Collections.unmodifiableList(messages);
+	}
+
+	/*
+	 * Counts warnings and errors, the first MAX_MESSAGES are kept
+	 */
+	public void addMessage(long tms_us, int level, String text) {
+		if(level > LEVEL_WARNING)
+			return;
+		if(level <= LEVEL_ERROR)
+			errors++;
+		else
+			warnings++;
+		if(messages.size() < MAX_MESSAGES)
+			messages.add(new Message(tms_us, level, text));
+	}
+
+	public boolean hasMessage(String text) {
+		final String t = text.toLowerCase();
+		for(Message m : messages) {
+			if(m.text.toLowerCase().contains(t))
+				return true;
+		}
+		return false;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeUTF(path);
+		out.writeLong(size);
+		out.writeLong(modified);
+		out.writeUTF(system);
+		out.writeLong(duration_us);
+		out.writeBoolean(failure != null);
+		if(failure != null)
+			out.writeUTF(failure);
+		out.writeInt(errors);
+		out.writeInt(warnings);
+
+		out.writeInt(stats.size());
+		for(Map.Entry<String,Stats> e : stats.entrySet()) {
+			out.writeUTF(e.getKey());
+			e.getValue().write(out);
+		}
+		out.writeInt(modes.size());
+		for(Map.Entry<Integer,Long> e : modes.entrySet()) {
+			out.writeShort(e.getKey());
+			out.writeLong(e.getValue());
+		}
+		out.writeInt(messages.size());
+		for(Message m : messages) {
+			out.writeLong(m.tms_us);
+			out.writeByte(m.level);
+			out.writeUTF(m.text);
+		}
+		out.writeInt(vibration.size());
+		for(Map.Entry<String,Vibration> e : vibration.entrySet()) {
+			out.writeUTF(e.getKey());
+			e.getValue().write(out);
+		}
+	}
+
+	public static ULogFlightSummary read(DataInput in) throws IOException {
+		final ULogFlightSummary s = new ULogFlightSummary();
+		s.path        = in.readUTF();
+		s.size        = in.readLong();
+		s.modified    = in.readLong();
+		s.system      = in.readUTF();
+		s.duration_us = in.readLong();
+		if(in.readBoolean())
+			s.failure = in.readUTF();
+		s.errors      = in.readInt();
+		s.warnings    = in.readInt();
+
+		for(int i = in.readInt(); i > 0; i--)
+			s.stats.put(in.readUTF(), Stats.read(in));
+		for(int i = in.readInt(); i > 0; i--)
+			s.modes.put((int)in.readShort(), in.readLong());
+		for(int i = in.readInt(); i > 0; i--)
+			s.messages.add(new Message(in.readLong(), in.readByte(), in.readUTF()));
+		for(int i = in.readInt(); i > 0; i--)
+			s.vibration.put(in.readUTF(), Vibration.read(in));
+		return s;
+	}
+
+	public String toString() {
+		return path+" ("+duration_us/1000000+"s, "+errors+" errors, "+warnings+" warnings)";
+	}
+
+	/*
+	 * Statistics of the valid samples of a keyfigure. Mean and the sum of squared deviations
+	 * (m2) are accumulated by Welford's method, std is bias corrected (n-1).
+	 */
+	public static class Stats {
+
+		public int   count = 0;
+		public float min   = Float.NaN;
+		public float max   = Float.NaN;
+		public float mean  = Float.NaN;
+		public float rms   = Float.NaN;
+		public float std   = Float.NaN;
+
+		public Stats() {
+
+		}
+
+		public Stats(int count, double min, double max, double mean, double m2) {
+			this.count = count;
+			this.min   = (float)min;
+			this.max   = (float)max;
+			if(count > 0) {
+				final double m2n = Math.max(0, m2) / count;
+				this.mean = (float)mean;
+				this.rms  = (float)Math.sqrt(m2n + mean * mean);
+				this.std  = count > 1 ? (float)Math.sqrt(Math.max(0, m2) / (count - 1)) : 0;
+			}
+		}
+
+		void write(DataOutput out) throws IOException {
+			out.writeInt(count);
+			out.writeFloat(min);
+			out.writeFloat(max);
+			out.writeFloat(mean);
+			out.writeFloat(rms);
+			out.writeFloat(std);
+		}
+
+		static Stats read(DataInput in) throws IOException {
+			final Stats s = new Stats();
+			s.count = in.readInt();
+			s.min   = in.readFloat();
+			s.max   = in.readFloat();
+			s.mean  = in.readFloat();
+			s.rms   = in.readFloat();
+			s.std   = in.readFloat();
+			return s;
+		}
+
+		public String toString() {
+			return "n="+count+" min="+min+" max="+max+" mean="+mean+" rms="+rms;
+		}
+	}
+
+	/*
+	 * Vibration level of a keyfigure: mean, rms and maximum of the valid samples and the time
+	 * the level exceeded the limit (validity bound of the keyfigure, NaN if none) in relation
+	 * to the time with valid samples.
+	 */
+	public static class Vibration {
+
+		public float limit    = Float.NaN;
+		public float mean     = Float.NaN;
+		public float rms      = Float.NaN;
+		public float max      = Float.NaN;
+		public long  valid_us = 0;
+		public long  above_us = 0;
+
+		public Vibration() {
+
+		}
+
+		public Vibration(Stats stats, float limit, long valid_us, long above_us) {
+			this.limit    = limit;
+			this.mean     = stats.mean;
+			this.rms      = stats.rms;
+			this.max      = stats.max;
+			this.valid_us = valid_us;
+			this.above_us = above_us;
+		}
+
+		public float getFractionAbove() {
+			return valid_us > 0 && Float.isFinite(limit) ? (float)above_us / valid_us : 0;
+		}
+
+		void write(DataOutput out) throws IOException {
+			out.writeFloat(limit);
+			out.writeFloat(mean);
+			out.writeFloat(rms);
+			out.writeFloat(max);
+			out.writeLong(valid_us);
+			out.writeLong(above_us);
+		}
+
+		static Vibration read(DataInput in) throws IOException {
+			final Vibration v = new Vibration();
+			v.limit    = in.readFloat();
+			v.mean     = in.readFloat();
+			v.rms      = in.readFloat();
+			v.max      = in.readFloat();
+			v.valid_us = in.readLong();
+			v.above_us = in.readLong();
+			return v;
+		}
+
+		public String toString() {
+			final String s = String.format("mean=%.2f rms=%.2f max=%.2f", mean, rms, max);
+			return Float.isFinite(limit) ? s + String.format(" >%.2f: %.1f%%", limit, getFractionAbove() * 100) : s;
+		}
+	}
+
+	public static class Message {
+
+		public final long   tms_us;
+		public final int    level;
+		public final String text;
+
+		public Message(long tms_us, int level, String text) {
+			this.tms_us = tms_us;
+			this.level  = level;
+			this.text   = text != null ? text : "";
+		}
+
+		public String toString() {
+			return String.format("%8.2fs [%d] %s", tms_us / 1e6f, level, text);
+		}
+	}
+}
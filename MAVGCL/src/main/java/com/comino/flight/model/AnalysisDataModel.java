@@ -34,7 +34,7 @@
 package com.comino.flight.model;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -51,24 +51,45 @@ public class AnalysisDataModel implements Cloneable {
 	public float          dt_sec = 0;
 	public float        sync_fps = 0;
 
-	private volatile Map<Integer,Double> data = null;
+	// Values indexed by KeyFigureMetaData.slot, NaN if not available
+	private volatile double[] data = null;
 	private static List<Long> grid = new ArrayList<Long>();
 
+	// Rows of a AnalysisDataModelStore keep their values in the store columns
+	private transient AnalysisDataModelStore store = null;
+	private transient int                    row   = 0;
+
 	public AnalysisDataModel() {
-		this.data = new HashMap<Integer,Double>();
+		this.data = createData(AnalysisDataModelMetaData.getInstance().getSlotCount());
 		//		this.grid = new ArrayList<Long>();
 	}
 
-	private AnalysisDataModel(Map<Integer,Double> d, List<Long> grid) {
-		this.data = new HashMap<Integer,Double>();
-		this.data.putAll(d);
+	private AnalysisDataModel(double[] d, List<Long> grid) {
+		this.data = d;
 		//		this.grid = new ArrayList<Long>();
 		//		this.grid.addAll(grid);
 	}
 
+	AnalysisDataModel(AnalysisDataModelStore store, int row, AnalysisDataModel model) {
+		this.store    = store;
+		this.row      = row;
+		this.tms      = model.tms;
+		this.msg      = model.msg;
+		this.status   = model.status;
+		this.dt_sec   = model.dt_sec;
+		this.sync_fps = model.sync_fps;
+	}
+
+	AnalysisDataModel(AnalysisDataModelStore store, int row, long tms) {
+		this.store    = store;
+		this.row      = row;
+		this.tms      = tms;
+		this.dt_sec   = tms / 1e6f;
+	}
+
 
 	public Object clone() {
-		AnalysisDataModel d = new AnalysisDataModel(data, grid);
+		AnalysisDataModel d = new AnalysisDataModel(copyData(), grid);
 		d.tms       = tms;
 		d.sync_fps  = sync_fps;
 		if(msg!=null)
@@ -79,8 +100,10 @@ public class AnalysisDataModel implements Cloneable {
 	}
 
 	public void set(AnalysisDataModel model) {
-		this.data.clear();
-		this.data.putAll(model.data);
+		if(store!=null)
+			return;
+
+		this.data = model.copyData();
 
 		this.dt_sec   = model.dt_sec;
 		this.tms      = model.tms;
@@ -88,7 +111,10 @@ public class AnalysisDataModel implements Cloneable {
 	}
 
 	public void clear()  {
-		data.clear();
+		if(store!=null)
+			store.clearRow(row);
+		else
+			Arrays.fill(data, Double.NaN);
 		grid.clear();
 		tms = 0;
 		sync_fps = 0;
@@ -101,83 +127,125 @@ public class AnalysisDataModel implements Cloneable {
 	}
 
 	public double getValue(String kf) {
-		int hash = kf.toLowerCase().hashCode();
-		if(data!=null && data.containsKey(hash) && data.get(hash)!=null)
-			return data.get(hash);
-		else
+		final KeyFigureMetaData m = AnalysisDataModelMetaData.getInstance().getMetaData(kf);
+		if(m==null)
 			return 0;
+		return getValue(m.slot);
 	}
 
 	public double getValue(KeyFigureMetaData m) {
-		if(data != null && m!=null && data.containsKey(m.hash) && data.get(m.hash)!=null)
-			return data.get(m.hash);
-		else
+		if(m==null)
 			return Double.NaN;
+		if(m.slot >= 0)
+			return getValue(m.slot);
+		return getValue(AnalysisDataModelMetaData.getInstance().getSlot(m));
 	}
 
 	public boolean isValid(String kf) {
-		int hash = kf.toLowerCase().hashCode();
-		if(data!=null && data.containsKey(hash) && data.get(hash)!=null)
-			return Double.isFinite(data.get(hash));
-		else
-			return false;
+		final KeyFigureMetaData m = AnalysisDataModelMetaData.getInstance().getMetaData(kf);
+		return m!=null && Double.isFinite(getValue(m.slot));
 	}
 
 	public boolean isValid(KeyFigureMetaData m) {
-		if(data != null && m!=null && data.containsKey(m.hash) && data.get(m.hash)!=null) 
-			return Double.isFinite(data.get(m.hash));
-		else
-			return false;
+		return Double.isFinite(getValue(m));
 	}
 
 	public void setValue(String kf,double value) {
-		if(data!=null)
-			data.put(kf.toLowerCase().hashCode(), value);
+		final KeyFigureMetaData m = AnalysisDataModelMetaData.getInstance().getMetaData(kf);
+		if(m!=null)
+			put(m.slot, value);
+	}
+
+	public void setValue(KeyFigureMetaData m, double value) {
+		if(m!=null)
+			put(AnalysisDataModelMetaData.getInstance().getSlot(m), value);
 	}
 
 	public void reset(AnalysisDataModelMetaData md) {
-		if(data==null)
-			return;
 		md.getKeyFigureMap().forEach((i,e) -> {
-			data.put(e.hash,Double.valueOf(0));
+			put(e.slot,0);
 		});
 	}
 
 	public  void  setValues(int type, Object source, AnalysisDataModelMetaData md ) {
 
-		md.getKeyFigureMap().forEach((i,e) -> {
-			Double val = Double.NaN;
-			try {
-				if(!e.isVirtual) {
-					if(!e.hasSource(type))
-						return;
-
-					if( type == KeyFigureMetaData.MSP_SOURCE)
-						val = e.getValueFromMSPModel((DataModel)source);
-					if( type == KeyFigureMetaData.ULG_SOURCE)
-						val = e.getValueFromULogModel((Map<String,Object>)source);
-
-					if(val!=null)
-						data.put(e.hash,val);
+		final KeyFigureMetaData[] kfs = md.getSourceKeyFigures(type);
+
+		switch(type) {
+		case KeyFigureMetaData.MSP_SOURCE:
+			final DataModel model = (DataModel)source;
+			for(int i = 0; i < kfs.length; i++)
+				put(kfs[i].slot, kfs[i].getValueFromMSPModel(model));
+			break;
+		case KeyFigureMetaData.ULG_SOURCE:
+			final Map<String,Object> ulog = (Map<String,Object>)source;
+			for(int i = 0; i < kfs.length; i++) {
+				try {
+					put(kfs[i].slot, kfs[i].getValueFromULogModel(ulog));
+				} catch (Exception e1) {
+					e1.printStackTrace();
 				}
-			} catch (Exception e1) {
-				e1.printStackTrace();
-				//				data.put(e.hash, Double.NaN);
 			}
-		});
-
+			break;
+		}
 	}
 
 	public void calculateVirtualKeyFigures(AnalysisDataModelMetaData md) {
-		md.getVirtualKeyFigureMap().forEach((i,e) -> {
-			try {
-				if(e.isVirtual) {
-					data.put(e.hash,e.calculateVirtualValue(this));
-				}
-			} catch (Exception e1) {
-				data.put(e.hash, Double.NaN);
-			}
-		});
+		VirtualKeyFigureEngine.getInstance().evaluate(this);
+	}
+
+	/*
+	 * As above; history dependent keyfigures are only calculated if the sample is recorded
+	 */
+	public void calculateVirtualKeyFigures(AnalysisDataModelMetaData md, boolean recorded) {
+		VirtualKeyFigureEngine.getInstance().evaluate(this, recorded);
+	}
+
+	void copyTo(AnalysisDataModelStore target, int index) {
+		final double[] d = store!=null ? copyData() : data;
+		for(int slot = 0; slot < d.length; slot++) {
+			if(!Double.isNaN(d[slot]))
+				target.put(index, slot, d[slot]);
+		}
+	}
+
+	private double getValue(int slot) {
+		if(store!=null)
+			return store.getValue(row, slot);
+		final double[] d = data;
+		if(slot < 0 || slot >= d.length)
+			return Double.NaN;
+		return d[slot];
+	}
+
+	private double[] copyData() {
+		if(store==null)
+			return data.clone();
+		final double[] d = createData(AnalysisDataModelMetaData.getInstance().getSlotCount());
+		store.copyRow(row, d);
+		return d;
+	}
+
+	private void put(int slot, double value) {
+		if(slot < 0)
+			return;
+		if(store!=null) {
+			store.setValue(row, slot, value);
+			return;
+		}
+		if(slot >= data.length) {
+			final int length = data.length;
+			final double[] d = Arrays.copyOf(data, Math.max(slot + 1, AnalysisDataModelMetaData.getInstance().getSlotCount()));
+			Arrays.fill(d, length, d.length, Double.NaN);
+			data = d;
+		}
+		data[slot] = value;
+	}
+
+	private static double[] createData(int size) {
+		final double[] d = new double[size];
+		Arrays.fill(d, Double.NaN);
+		return d;
 	}
 
 
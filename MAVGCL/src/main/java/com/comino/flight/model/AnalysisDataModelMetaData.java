@@ -41,6 +41,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -50,6 +51,8 @@ import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import com.comino.mavcom.model.DataModel;
+
 public class AnalysisDataModelMetaData extends Observable {
 
 	private static AnalysisDataModelMetaData instance = null;
@@ -58,6 +61,14 @@ public class AnalysisDataModelMetaData extends Observable {
 	private Map<Integer,KeyFigureMetaData>               virt   = null;
 	private Map<String,List<KeyFigureMetaData>> groups   = null;
 	private List<KeyFigureMetaData>            sortedMetaList   = null;
+	private Map<String,KeyFigureMetaData>      lookup   = null;
+
+	private volatile KeyFigureMetaData[]       msp_sources = new KeyFigureMetaData[0];
+	private volatile KeyFigureMetaData[]       ulg_sources = new KeyFigureMetaData[0];
+
+	// Slots by keyfigure hash, kept across reloads so that stores and keyfigures remain bound
+	private final Map<Integer,Integer>         assigned = new HashMap<Integer,Integer>(500);
+	private volatile int slots = 0;
 
 	private int count = 0;
 	private String version = "0.0";
@@ -73,6 +84,7 @@ public class AnalysisDataModelMetaData extends Observable {
 		this.meta       = new HashMap<Integer,KeyFigureMetaData>(500);
 		this.virt       = new HashMap<Integer,KeyFigureMetaData>(500);
 		this.groups     = new HashMap<String,List<KeyFigureMetaData>>(100);
+		this.lookup     = new ConcurrentHashMap<String,KeyFigureMetaData>(500);
 
 		loadModelMetaData(null, false);
 	}
@@ -84,6 +96,7 @@ public class AnalysisDataModelMetaData extends Observable {
 		if(!add) {
 		  meta.clear(); groups.clear(); virt.clear();
 		}
+		lookup.clear();
 
 		if(is!=null) {
 			buildDocument(is);
@@ -96,6 +109,7 @@ public class AnalysisDataModelMetaData extends Observable {
 			buildDocument(is);
 		}
 		sortedMetaList = buildSortedList();
+		bindSources();
 		setChanged(); notifyObservers(null);
 
 	}
@@ -131,13 +145,56 @@ public class AnalysisDataModelMetaData extends Observable {
 
 
 	public void add(KeyFigureMetaData m) {
+		assignSlot(m);
 		this.meta.put(m.hash, m);
+		lookup.clear();
+		bindSources();
+	}
+
+	/*
+	 * Non-virtual keyfigures providing a source of the given type.
+	 */
+	public KeyFigureMetaData[] getSourceKeyFigures(int type) {
+		switch(type) {
+		case KeyFigureMetaData.MSP_SOURCE:
+			return msp_sources;
+		case KeyFigureMetaData.ULG_SOURCE:
+			return ulg_sources;
+		default:
+			return new KeyFigureMetaData[0];
+		}
 	}
 
 	public KeyFigureMetaData getMetaData(String kf) {
-		if(kf!=null)
-			return meta.get(kf.toLowerCase().hashCode());
-		return null;
+		if(kf==null)
+			return null;
+		KeyFigureMetaData m = lookup.get(kf);
+		if(m==null) {
+			m = meta.get(kf.toLowerCase().hashCode());
+			if(m!=null)
+				lookup.put(kf, m);
+		}
+		return m;
+	}
+
+	/*
+	 * Number of slots currently assigned; all slots are below this value.
+	 */
+	public int getSlotCount() {
+		return slots;
+	}
+
+	/*
+	 * Returns the slot of a keyfigure, also for instances not registered here
+	 * (e.g. deserialized from preferences), or -1 if unknown.
+	 */
+	public int getSlot(KeyFigureMetaData m) {
+		if(m==null)
+			return -1;
+		if(m.slot >= 0)
+			return m.slot;
+		final KeyFigureMetaData r = meta.get(m.hash);
+		return r != null ? r.slot : -1;
 	}
 
 	public List<KeyFigureMetaData> getKeyFigures() {
@@ -203,6 +260,7 @@ public class AnalysisDataModelMetaData extends Observable {
 		for (count = 0; count < keyfigures.getLength(); count++) {
 			
 			KeyFigureMetaData keyfigure = buildKeyFigure(keyfigures.item(count));
+			assignSlot(keyfigure);
 			meta.put(keyfigure.hash,keyfigure);
 			if(keyfigure.isVirtual)
 				virt.put(keyfigure.hash,keyfigure);
@@ -210,6 +268,33 @@ public class AnalysisDataModelMetaData extends Observable {
 		System.out.println(description+" (version "+version+") with "+count+" keyfigures ");
 	}
 
+	private void bindSources() {
+		final List<KeyFigureMetaData> msp = new ArrayList<KeyFigureMetaData>();
+		final List<KeyFigureMetaData> ulg = new ArrayList<KeyFigureMetaData>();
+		meta.forEach((i,k) -> {
+			if(k.isVirtual)
+				return;
+			if(k.hasSource(KeyFigureMetaData.MSP_SOURCE)) {
+				k.bindMSPSource(DataModel.class, null);
+				msp.add(k);
+			}
+			if(k.hasSource(KeyFigureMetaData.ULG_SOURCE))
+				ulg.add(k);
+		});
+		msp_sources = msp.toArray(new KeyFigureMetaData[msp.size()]);
+		ulg_sources = ulg.toArray(new KeyFigureMetaData[ulg.size()]);
+	}
+
+	private void assignSlot(KeyFigureMetaData keyfigure) {
+		// Keyfigures redefined by custom definitions or reloaded keep their slot
+		Integer slot = assigned.get(keyfigure.hash);
+		if(slot==null) {
+			slot = slots++;
+			assigned.put(keyfigure.hash, slot);
+		}
+		keyfigure.slot = slot;
+	}
+
 	private KeyFigureMetaData buildKeyFigure(Node kf_node) {
 		KeyFigureMetaData keyfigure = new KeyFigureMetaData(
 				
@@ -0,0 +1,371 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2018 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+package com.comino.flight.model;
+
+import java.nio.DoubleBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.comino.mavcom.model.segment.LogMessage;
+
+/*
+ * Columnar storage of recorded samples. Each keyfigure is kept in its own growable
+ * double[] column indexed by KeyFigureMetaData.slot, timestamps in a shared long[] column.
+ * The list elements are thin rows which read their values from the columns.
+ *
+ * Single writer (collector or log converter), multiple readers. Readers must not access
+ * indices beyond size(), which is published after all columns of a row are written.
+ *
+ * Loaded recordings may provide their columns as (memory mapped) buffers, which are
+ * copied into a column on first access.
+ *
+ * Min/max queries over ranges use a MinMaxPyramid per column, created on first query and
+ * following the column incrementally afterwards.
+ */
+
+public class AnalysisDataModelStore extends AbstractList<AnalysisDataModel> implements RandomAccess {
+
+	private static final int DEFAULT_CAPACITY = 50000;
+
+	private volatile double[][]          columns    = null;
+	private volatile long[]              tms_column = null;
+	private volatile AnalysisDataModel[] rows       = null;
+	private volatile DoubleBuffer[]      mapped     = null;
+	private volatile MinMaxPyramid[]     pyramids   = null;
+
+	private volatile int size     = 0;
+	// Log file the samples were converted from, null if not converted from a log
+	private volatile String source = null;
+	// Incremented whenever the content is replaced or cleared
+	private volatile int generation = 0;
+	private int          capacity = 0;
+
+	private final int initial_capacity;
+
+	public AnalysisDataModelStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public AnalysisDataModelStore(int initial_capacity) {
+		this.initial_capacity = initial_capacity > 0 ? initial_capacity : DEFAULT_CAPACITY;
+		allocate();
+	}
+
+	@Override
+	public AnalysisDataModel get(int index) {
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);
+		final AnalysisDataModel row = rows[index];
+		return row != null ? row : createRow(index);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public synchronized boolean add(AnalysisDataModel model) {
+		final int index = size;
+
+		if(index >= capacity)
+			grow(index + 1);
+
+		tms_column[index] = model.tms;
+		model.copyTo(this, index);
+		rows[index] = new AnalysisDataModel(this, index, model);
+
+		size = index + 1;
+		modCount++;
+		return true;
+	}
+
+	/*
+	 * Replaces the content by count loaded samples. Keyfigure columns are provided as buffers
+	 * with the value of sample i at position i and copied when accessed first.
+	 */
+	public synchronized void load(long[] tms, int count, Map<KeyFigureMetaData,DoubleBuffer> buffers) {
+		final AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
+
+		capacity   = Math.max(count, initial_capacity);
+		columns    = new double[meta.getSlotCount()][];
+		tms_column = Arrays.copyOf(tms, capacity);
+		rows       = new AnalysisDataModel[capacity];
+
+		final DoubleBuffer[] m = new DoubleBuffer[meta.getSlotCount()];
+		buffers.forEach((kf,buffer) -> {
+			final int slot = meta.getSlot(kf);
+			if(slot >= 0 && slot < m.length)
+				m[slot] = buffer;
+		});
+		mapped = m;
+		pyramids = new MinMaxPyramid[meta.getSlotCount()];
+
+		size = count;
+		source = null;
+		generation++;
+		modCount++;
+	}
+
+	/*
+	 * Copies all columns still mapped from a loaded file into the store, so that the file can
+	 * be replaced or deleted.
+	 */
+	public synchronized void detach() {
+		final DoubleBuffer[] b = mapped;
+		if(b == null)
+			return;
+		for(int slot = 0; slot < b.length; slot++) {
+			if(b[slot] != null)
+				loadColumn(slot);
+		}
+		mapped = null;
+	}
+
+	@Override
+	public synchronized void clear() {
+		allocate();
+		source = null;
+		generation++;
+		modCount++;
+	}
+
+	/*
+	 * Log file the samples were converted from, e.g. to read data at a higher rate than
+	 * kept in the store. Reset when the content is replaced or cleared.
+	 */
+	public void setSource(String path) {
+		this.source = path;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	/*
+	 * Changes whenever the samples are replaced or cleared, so that state derived from
+	 * previous samples can be discarded.
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/*
+	 * Direct access to the timestamp column. Only indices below size() are valid.
+	 */
+	public long[] getTimestamps() {
+		return tms_column;
+	}
+
+	/*
+	 * Message of a sample without creating its row, null if none.
+	 */
+	public LogMessage getMessage(int index) {
+		if(index < 0 || index >= size)
+			return null;
+		final AnalysisDataModel row = rows[index];
+		return row != null ? row.msg : null;
+	}
+
+	public long getTimestamp(int index) {
+		if(index < 0 || index >= size)
+			return 0;
+		return tms_column[index];
+	}
+
+	/*
+	 * Direct access to the column of a keyfigure or null if the keyfigure has never been recorded.
+	 * Only indices below size() are valid; read size() before the column.
+	 */
+	public double[] getColumn(KeyFigureMetaData m) {
+		return getColumn(AnalysisDataModelMetaData.getInstance().getSlot(m));
+	}
+
+	/*
+	 * True if values of the keyfigure are available, without copying a loaded column.
+	 */
+	public boolean hasColumn(KeyFigureMetaData m) {
+		final int slot = AnalysisDataModelMetaData.getInstance().getSlot(m);
+		if(slot < 0)
+			return false;
+		final double[][] c = columns;
+		final DoubleBuffer[] b = mapped;
+		return (slot < c.length && c[slot] != null) || (b != null && slot < b.length && b[slot] != null);
+	}
+
+	public double getValue(int index, KeyFigureMetaData m) {
+		if(m == null)
+			return Double.NaN;
+		return getValue(index, m.slot >= 0 ? m.slot : AnalysisDataModelMetaData.getInstance().getSlot(m));
+	}
+
+	/*
+	 * Min and max of a keyfigure over length samples starting at from into result[0] and
+	 * result[1], NaN if no value is available.
+	 */
+	public void getMinMax(KeyFigureMetaData m, int from, int length, double[] result) {
+		final int slot = AnalysisDataModelMetaData.getInstance().getSlot(m);
+		final int count = size;
+		final double[] column = getColumn(slot);
+		if(column == null) {
+			result[0] = Double.NaN; result[1] = Double.NaN;
+			return;
+		}
+		final MinMaxPyramid pyramid = getPyramid(slot);
+		pyramid.update(column, count);
+		pyramid.getMinMax(column, from, Math.min(length, count - from), result);
+	}
+
+	double[] getColumn(int slot) {
+		final double[][] c = columns;
+		if(slot < 0)
+			return null;
+		if(slot < c.length && c[slot] != null)
+			return c[slot];
+		final DoubleBuffer[] b = mapped;
+		if(b != null && slot < b.length && b[slot] != null)
+			return loadColumn(slot);
+		return null;
+	}
+
+	double getValue(int index, int slot) {
+		final double[] column = getColumn(slot);
+		if(column == null || index < 0 || index >= column.length)
+			return Double.NaN;
+		return column[index];
+	}
+
+	synchronized void setValue(int index, int slot, double value) {
+		put(index, slot, value);
+	}
+
+	// Caller holds the lock
+	void put(int index, int slot, double value) {
+		if(index < 0 || index >= capacity || slot < 0)
+			return;
+		double[] column = getColumn(slot);
+		if(column == null) {
+			if(Double.isNaN(value))
+				return;
+			column = createColumn(slot);
+		}
+		column[index] = value;
+		final MinMaxPyramid[] p = pyramids;
+		if(slot < p.length && p[slot] != null)
+			p[slot].invalidate(index);
+	}
+
+	void copyRow(int index, double[] target) {
+		final double[][] c = columns;
+		final DoubleBuffer[] b = mapped;
+		for(int slot = 0; slot < target.length; slot++) {
+			if(slot < c.length && c[slot] != null) {
+				if(index < c[slot].length)
+					target[slot] = c[slot][index];
+			} else if(b != null && slot < b.length && b[slot] != null && index < b[slot].limit())
+				target[slot] = b[slot].get(index);
+		}
+	}
+
+	synchronized void clearRow(int index) {
+		final int slots = Math.max(columns.length, mapped != null ? mapped.length : 0);
+		for(int slot = 0; slot < slots; slot++) {
+			final double[] column = getColumn(slot);
+			if(column != null && index < column.length)
+				column[index] = Double.NaN;
+		}
+	}
+
+	private synchronized AnalysisDataModel createRow(int index) {
+		if(rows[index] == null)
+			rows[index] = new AnalysisDataModel(this, index, tms_column[index]);
+		return rows[index];
+	}
+
+	private synchronized MinMaxPyramid getPyramid(int slot) {
+		if(slot >= pyramids.length)
+			pyramids = Arrays.copyOf(pyramids, Math.max(slot + 1, AnalysisDataModelMetaData.getInstance().getSlotCount()));
+		if(pyramids[slot] == null)
+			pyramids[slot] = new MinMaxPyramid();
+		return pyramids[slot];
+	}
+
+	private synchronized double[] loadColumn(int slot) {
+		if(slot < columns.length && columns[slot] != null)
+			return columns[slot];
+		final DoubleBuffer buffer = mapped[slot].duplicate();
+		buffer.rewind();
+		final double[] column = createColumn(slot);
+		buffer.get(column, 0, Math.min(buffer.remaining(), size));
+		return column;
+	}
+
+	private double[] createColumn(int slot) {
+		final double[] column = new double[capacity];
+		Arrays.fill(column, Double.NaN);
+		if(slot >= columns.length)
+			columns = Arrays.copyOf(columns, Math.max(slot + 1, AnalysisDataModelMetaData.getInstance().getSlotCount()));
+		columns[slot] = column;
+		return column;
+	}
+
+	private void allocate() {
+		capacity   = initial_capacity;
+		columns    = new double[AnalysisDataModelMetaData.getInstance().getSlotCount()][];
+		tms_column = new long[capacity];
+		rows       = new AnalysisDataModel[capacity];
+		mapped     = null;
+		pyramids   = new MinMaxPyramid[AnalysisDataModelMetaData.getInstance().getSlotCount()];
+		size       = 0;
+	}
+
+	private void grow(int min_capacity) {
+		final int new_capacity = Math.max(capacity + (capacity >> 1), min_capacity);
+
+		final double[][] c = columns.clone();
+		for(int slot = 0; slot < c.length; slot++) {
+			if(c[slot] != null) {
+				c[slot] = Arrays.copyOf(c[slot], new_capacity);
+				Arrays.fill(c[slot], capacity, new_capacity, Double.NaN);
+			}
+		}
+		columns    = c;
+		tms_column = Arrays.copyOf(tms_column, new_capacity);
+		rows       = Arrays.copyOf(rows, new_capacity);
+		capacity   = new_capacity;
+	}
+
+}
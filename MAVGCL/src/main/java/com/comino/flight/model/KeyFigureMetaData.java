@@ -33,6 +33,9 @@
 
 package com.comino.flight.model;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
@@ -67,6 +70,8 @@ public class KeyFigureMetaData {
 	public String uom;
 	//	public String mask;
 	public int    hash;
+	// Dense index assigned by AnalysisDataModelMetaData, -1 if not registered
+	public transient int slot = -1;
 	public float  min=0;
 	public float  max=0;
 	public double range_min = Double.NaN;
@@ -74,10 +79,13 @@ public class KeyFigureMetaData {
 
 	private DecimalFormat formatting = null;
 
-	private static final HashMap<String,Object> msp_class_cache = new HashMap<String,Object>();
+	private static final MethodType MSP_ACCESSOR_TYPE = MethodType.methodType(double.class, DataModel.class);
 
-	private double value = 0;
-	private DataSource source = null;
+
+	// Precompiled (DataModel)double accessor of the MSP source and the model class it is bound to,
+	// published together as one immutable binding
+	private transient DataSource          msp_source  = null;
+	private transient volatile MSPBinding msp_binding = null;
 
 	public boolean isVirtual = false;
 	public boolean isMSP     = false;
@@ -149,38 +157,97 @@ public class KeyFigureMetaData {
 
 		if(class_c!=null) {
 			try {
-				SourceConverter conv = null;
-				Class<?> clazz = Class.forName(this.getClass().getPackage().getName()+".converter."+class_c);
-				conv = (SourceConverter) clazz.newInstance();
-				conv.setParameter(key,params);
-				sources.put(type, new DataSource(class_n,field,conv));
+				final DataSource s = new DataSource(class_n,field,createConverter(class_c,params));
+				s.class_c = class_c;
+				s.params  = params;
+				sources.put(type, s);
 			} catch(Exception e) {
 				System.err.println(this.getClass().getPackage().getName()+".converter."+type+" : "+e.getMessage());
 			}
 		} else
 			sources.put(type, new DataSource(class_n,field,null));
+
+		if(type==MSP_SOURCE) {
+			msp_source  = sources.get(MSP_SOURCE);
+			msp_binding = null;
+		}
+	}
+
+	/*
+	 * Copy of the keyfigure with the ULog source only, for conversions running in parallel to
+	 * others: the copy gets its own converter instance, as converters may keep state between
+	 * samples.
+	 */
+	public KeyFigureMetaData forkULogSource() {
+		final KeyFigureMetaData k = new KeyFigureMetaData();
+		k.desc1 = desc1; k.desc2 = desc2; k.uom = uom; k.key = key; k.hash = hash; k.slot = slot;
+		k.min = min; k.max = max; k.range_min = range_min; k.range_max = range_max;
+		k.formatting = formatting;
+		k.isULOG = isULOG;
+
+		final DataSource s = sources.get(ULG_SOURCE);
+		if(s==null)
+			return k;
+		SourceConverter conv = s.converter;
+		if(s.class_c!=null) {
+			try {
+				conv = createConverter(s.class_c, s.params);
+			} catch(Exception e) {
+				System.err.println(this.getClass().getPackage().getName()+".converter."+s.class_c+" : "+e.getMessage());
+			}
+		}
+		final DataSource f = k.new DataSource(s.class_n, s.field, conv);
+		f.class_c = s.class_c;
+		f.params  = s.params;
+		k.sources.put(ULG_SOURCE, f);
+		return k;
+	}
+
+	private SourceConverter createConverter(String class_c, String[] params) throws Exception {
+		Class<?> clazz = Class.forName(this.getClass().getPackage().getName()+".converter."+class_c);
+		SourceConverter conv = (SourceConverter) clazz.newInstance();
+		conv.setParameter(key,params);
+		return conv;
 	}
 
 	public boolean hasSource(int type) {
 		return sources.containsKey(type);
 	}
 
-	public Double getValueFromMSPModel(DataModel m) throws Exception {
-		value = Double.NaN;
-		source = sources.get(MSP_SOURCE);
+	public SourceConverter getConverter(int type) {
+		final DataSource s = sources.get(type);
+		return s != null ? s.converter : null;
+	}
+
+	/*
+	 * Resolves the MSP source once into a precompiled accessor. Without a model instance,
+	 * a segment or field declared in a subclass of the declared type cannot be resolved;
+	 * the binding is then deferred to the first model passed to getValueFromMSPModel().
+	 */
+	public boolean bindMSPSource(Class<? extends DataModel> model_class, DataModel model) {
+		final MSPBinding binding = resolveMSPSource(model_class, model);
+		msp_binding = binding;
+		return binding != null && binding.accessor != null;
+	}
+
+	public double getValueFromMSPModel(DataModel m) {
+		double value = Double.NaN;
+		final DataSource source = msp_source;
+		if(source==null)
+			return value;
 		if(source.field!=null) {
-			Object mclass = msp_class_cache.get(source.class_n);
-			if(mclass == null) {
-				Field mclass_field = m.getClass().getField(source.class_n);
-				mclass = mclass_field.get(m);
-				msp_class_cache.put(source.class_n, mclass);
+			MSPBinding binding = msp_binding;
+			if(binding == null || binding.model_class != m.getClass()) {
+				binding = resolveMSPSource(m.getClass(), m);
+				if(binding == null)
+					return value;
+				msp_binding = binding;
 			}
-			try {
-				Field mfield_field = mclass.getClass().getField(source.field);
-				value = mfield_field.getDouble(mclass);
-			} catch(NoSuchFieldException e) {
+			if(binding.accessor==null)
 				return value;
-			} catch(Exception e) {
+			try {
+				value = (double)binding.accessor.invokeExact(m);
+			} catch(Throwable e) {
 				return value;
 			}
 		}
@@ -207,9 +274,62 @@ public class KeyFigureMetaData {
 	//		return checkClipping(value);
 	//	}
 
-	public Double getValueFromULogModel(Map<String,Object> data) {
-		value = Double.NaN;
-		source = sources.get(ULG_SOURCE);
+	/*
+	 * Returns the binding of the MSP source to the model class, its accessor null if the
+	 * source cannot be bound, or null if the binding requires a model instance.
+	 */
+	private MSPBinding resolveMSPSource(Class<?> model_class, DataModel model) {
+		final DataSource source = msp_source;
+		if(source==null || source.field==null || source.class_n==null)
+			return new MSPBinding(model_class, null);
+
+		try {
+			final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			final Field segment = getField(model_class, source.class_n);
+			if(segment == null) {
+				if(model == null)
+					return null;
+				throw new NoSuchFieldException(source.class_n);
+			}
+			MethodHandle segment_getter = lookup.unreflectGetter(segment);
+
+			// Fields of a subclass of the segment type are resolved with the segment instance
+			Class<?> segment_class = segment.getType();
+			Field field = getField(segment_class, source.field);
+			if(field == null) {
+				final Object instance = model != null ? segment.get(model) : null;
+				if(instance == null)
+					return null;
+				segment_class  = instance.getClass();
+				field          = segment_class.getField(source.field);
+				segment_getter = segment_getter.asType(MethodType.methodType(segment_class, segment.getDeclaringClass()));
+			}
+
+			// The field may be declared in a superclass of the segment class
+			final MethodHandle field_getter = lookup.unreflectGetter(field)
+					.asType(MethodType.methodType(field.getType(), segment_class));
+			return new MSPBinding(model_class, MethodHandles.filterArguments(field_getter, 0, segment_getter).asType(MSP_ACCESSOR_TYPE));
+
+		} catch(Exception e) {
+			System.err.println(key+": MSP source "+source+" cannot be bound: "+e.getMessage());
+			return new MSPBinding(model_class, null);
+		}
+	}
+
+	/*
+	 * Public field of the class or one of its superclasses, null if there is none
+	 */
+	private static Field getField(Class<?> c, String name) {
+		try {
+			return c.getField(name);
+		} catch(NoSuchFieldException e) {
+			return null;
+		}
+	}
+
+	public double getValueFromULogModel(Map<String,Object> data) {
+		double value = Double.NaN;
+		final DataSource source = sources.get(ULG_SOURCE);
 
 		if(source!=null && source.field!=null) {  // source field specified
 			Object o = data.get(source.field);
@@ -235,6 +355,36 @@ public class KeyFigureMetaData {
 		return checkClipping(value);
 	}
 
+	/*
+	 * Resolves the ULog source against a record binding: the source field or, for record based
+	 * converters, the converter inputs. Returns null if the value has to be taken from the map
+	 * (see getValueFromULogModel).
+	 */
+	public ULogFieldBinding.Inputs bindULog(ULogFieldBinding binding) {
+		final DataSource source = sources.get(ULG_SOURCE);
+		if(source==null)
+			return null;
+		if(source.field!=null)
+			return binding.resolve(source.field);
+		if(source.converter!=null && source.converter.isRecordBased())
+			return binding.resolve(source.converter.getInputs());
+		return null;
+	}
+
+	public double getValueFromULogRecord(double[] record, int offset, ULogFieldBinding.Inputs inputs) {
+		final DataSource source = sources.get(ULG_SOURCE);
+
+		if(source.field!=null) {
+			if(inputs.index[0] < 0)
+				return checkClipping(Double.NaN);
+			final double value = record[offset + inputs.index[0]];
+			if(!Double.isNaN(value) && source.converter != null)
+				return checkClipping(source.converter.convert(value));
+			return checkClipping(value);
+		}
+		return checkClipping(source.converter.convert(record, offset, inputs));
+	}
+
 	//	public Double getValueFromMAVLinkMessage(Object mavlink_message) throws Exception {
 	//		value = Double.NaN;
 	//		source = sources.get(MAV_SOURCE);
@@ -251,7 +401,7 @@ public class KeyFigureMetaData {
 	//	}
 
 	public double calculateVirtualValue(AnalysisDataModel data) {
-		source = sources.get(VIR_SOURCE);
+		final DataSource source = sources.get(VIR_SOURCE);
 		if(source.converter != null)
 			return checkClipping(source.converter.convert(data));
 		return 0;
@@ -265,7 +415,7 @@ public class KeyFigureMetaData {
 		return desc1+": "+key+"("+hash+")";
 	}
 
-	private Double checkClipping(double v) {
+	private double checkClipping(double v) {
 		if(Double.isFinite(range_max) && Double.isFinite(range_min)) {
 			if(v > range_max) v = Double.NaN;
 			if(v < range_min) v = Double.NaN;
@@ -285,10 +435,25 @@ public class KeyFigureMetaData {
 		public String field;
 		public SourceConverter converter;
 
+		// Converter class and parameters the converter was created from
+		String   class_c = null;
+		String[] params  = null;
+
 		public String toString() {
 			if(class_n!=null)
 				return class_n+"."+field;
 			return field;
 		}
 	}
+
+	private static final class MSPBinding {
+
+		final Class<?>     model_class;
+		final MethodHandle accessor;
+
+		MSPBinding(Class<?> model_class, MethodHandle accessor) {
+			this.model_class = model_class;
+			this.accessor    = accessor;
+		}
+	}
 }
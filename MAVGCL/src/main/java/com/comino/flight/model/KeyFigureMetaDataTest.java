@@ -0,0 +1,89 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2018 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model;
+
+import com.comino.mavcom.model.DataModel;
+
+/*
+ * Binds MSP sources to fields declared in a superclass of the segment class, once by the
+ * declared segment type and once by the runtime type of the segment.
+ */
+
+public class KeyFigureMetaDataTest {
+
+	public static class BaseSegment {
+		public float base_value = 1.5f;
+	}
+
+	public static class DerivedSegment extends BaseSegment {
+		public float derived_value = 2.5f;
+	}
+
+	public static class RuntimeSegment extends DerivedSegment {
+	}
+
+	public static class TestModel extends DataModel {
+		public DerivedSegment derived = new DerivedSegment();
+		public BaseSegment    runtime = new RuntimeSegment();
+	}
+
+	public static void main(String[] args) {
+
+		final TestModel m = new TestModel();
+
+		// Field of the declared segment type's superclass, bound without instance
+		final KeyFigureMetaData k1 = new KeyFigureMetaData("TEST1", "Inherited field", "", "#0.0");
+		k1.setSource(KeyFigureMetaData.MSP_SOURCE, "derived", "base_value", null, null);
+		check(k1.bindMSPSource(TestModel.class, null), "binding of inherited field");
+		check(k1.getValueFromMSPModel(m) == 1.5, "value of inherited field");
+
+		// Field declared in a superclass of the runtime segment class only
+		final KeyFigureMetaData k2 = new KeyFigureMetaData("TEST2", "Runtime field", "", "#0.0");
+		k2.setSource(KeyFigureMetaData.MSP_SOURCE, "runtime", "derived_value", null, null);
+		check(!k2.bindMSPSource(TestModel.class, null), "binding deferred without instance");
+		check(k2.getValueFromMSPModel(m) == 2.5, "value of inherited runtime field");
+
+		m.derived.base_value = 3.5f;
+		check(k1.getValueFromMSPModel(m) == 3.5, "value after update");
+
+		System.out.println("KeyFigureMetaData OK");
+	}
+
+	private static void check(boolean condition, String what) {
+		if(!condition)
+			throw new IllegalStateException("KeyFigureMetaData check failed: " + what);
+	}
+
+}
@@ -0,0 +1,157 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2018 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+package com.comino.flight.model;
+
+import java.util.Arrays;
+
+/*
+ * Multi-resolution min/max of a keyfigure column. Level 0 summarizes BASE samples per bucket,
+ * each further level two buckets of the level below. NaN values are ignored, a bucket without
+ * values is NaN.
+ *
+ * The pyramid follows the column lazily: update() summarizes the samples added since the last
+ * call, invalidate() discards the buckets of a sample changed afterwards.
+ */
+
+public class MinMaxPyramid {
+
+	public static final int BASE = 8;
+
+	private double[][] min   = new double[0][];
+	private double[][] max   = new double[0][];
+	private int        built = 0;
+
+	/*
+	 * Summarizes the column up to size. Buckets covering the previous end are recalculated, as
+	 * they may have been incomplete.
+	 */
+	public synchronized void update(double[] column, int size) {
+		if(column == null || size <= built)
+			return;
+
+		int from = built / BASE;
+		int to   = (size + BASE - 1) / BASE;
+
+		ensure(0, to);
+		for(int b = from; b < to; b++) {
+			double mn = Double.NaN, mx = Double.NaN;
+			final int end = Math.min((b + 1) * BASE, size);
+			for(int i = b * BASE; i < end; i++) {
+				final double v = column[i];
+				if(v < mn || Double.isNaN(mn)) mn = v;
+				if(v > mx || Double.isNaN(mx)) mx = v;
+			}
+			min[0][b] = mn; max[0][b] = mx;
+		}
+
+		for(int level = 1; to > 1; level++) {
+			from = from >> 1; to = (to + 1) >> 1;
+			ensure(level, to);
+			final double[] lmin = min[level-1], lmax = max[level-1];
+			final int      lto  = (size + (BASE << (level-1)) - 1) / (BASE << (level-1));
+			for(int b = from; b < to; b++) {
+				final int l = b << 1;
+				min[level][b] = l + 1 < lto ? nanMin(lmin[l], lmin[l+1]) : lmin[l];
+				max[level][b] = l + 1 < lto ? nanMax(lmax[l], lmax[l+1]) : lmax[l];
+			}
+		}
+		built = size;
+	}
+
+	public synchronized void invalidate(int index) {
+		if(index < built)
+			built = index;
+	}
+
+	public synchronized void clear() {
+		built = 0;
+	}
+
+	/*
+	 * Min and max of length samples starting at from into result[0] and result[1]. Ranges aligned
+	 * to a bucket of size BASE * 2^n are answered by a single bucket, other ranges are combined
+	 * from the largest aligned buckets and the column. Only samples summarized by update() are
+	 * taken from the pyramid.
+	 */
+	public synchronized void getMinMax(double[] column, int from, int length, double[] result) {
+		double mn = Double.NaN, mx = Double.NaN;
+		final int to = Math.min(from + length, built);
+		int i = Math.max(from, 0);
+		while(i < to) {
+			int level = -1;
+			if(i % BASE == 0) {
+				level = 0;
+				while(level + 1 < min.length && i % (BASE << (level+1)) == 0 && i + (BASE << (level+1)) <= to)
+					level++;
+				if(i + (BASE << level) > to)
+					level = -1;
+			}
+			if(level < 0) {
+				final double v = column[i++];
+				if(v < mn || Double.isNaN(mn)) mn = v;
+				if(v > mx || Double.isNaN(mx)) mx = v;
+			} else {
+				final int b = i / (BASE << level);
+				mn = nanMin(mn, min[level][b]);
+				mx = nanMax(mx, max[level][b]);
+				i += BASE << level;
+			}
+		}
+		result[0] = mn; result[1] = mx;
+	}
+
+	private void ensure(int level, int buckets) {
+		if(level >= min.length) {
+			min = Arrays.copyOf(min, level + 1);
+			max = Arrays.copyOf(max, level + 1);
+		}
+		if(min[level] == null || min[level].length < buckets) {
+			final int capacity = Math.max(buckets, min[level] == null ? 0 : min[level].length + (min[level].length >> 1));
+			min[level] = min[level] == null ? new double[capacity] : Arrays.copyOf(min[level], capacity);
+			max[level] = max[level] == null ? new double[capacity] : Arrays.copyOf(max[level], capacity);
+		}
+	}
+
+	private static double nanMin(double a, double b) {
+		if(Double.isNaN(a)) return b;
+		if(Double.isNaN(b)) return a;
+		return a < b ? a : b;
+	}
+
+	private static double nanMax(double a, double b) {
+		if(Double.isNaN(a)) return b;
+		if(Double.isNaN(b)) return a;
+		return a > b ? a : b;
+	}
+}
@@ -0,0 +1,89 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2018 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model;
+
+import java.util.Map;
+
+/*
+ * Index of each ULog field in a primitive sample record, resolved once per log when the
+ * formats are known. Keyfigures and converters resolve their inputs against the binding and
+ * then read values by index: a record holds one double per field, NaN if not yet logged.
+ */
+public class ULogFieldBinding {
+
+	private final Map<String,Integer> index;
+	private final boolean[]           longs;
+
+	/*
+	 * @param index the record index of each field name, e.g. "vehicle_attitude_0.q[0]"
+	 * @param longs true for fields read as Long by the map based conversion (uint32, int64)
+	 */
+	public ULogFieldBinding(Map<String,Integer> index, boolean[] longs) {
+		this.index = index;
+		this.longs = longs;
+	}
+
+	public int size() {
+		return longs.length;
+	}
+
+	public int indexOf(String field) {
+		final Integer i = field != null ? index.get(field) : null;
+		return i != null ? i : -1;
+	}
+
+	public Inputs resolve(String... fields) {
+		final Inputs inputs = new Inputs(fields.length);
+		for(int i = 0; i < fields.length; i++) {
+			inputs.index[i] = indexOf(fields[i]);
+			inputs.isLong[i] = inputs.index[i] >= 0 && longs[inputs.index[i]];
+		}
+		return inputs;
+	}
+
+	/*
+	 * Resolved inputs in the order of their names: index -1 if the field is not logged
+	 */
+	public static class Inputs {
+
+		public final int[]     index;
+		public final boolean[] isLong;
+
+		Inputs(int count) {
+			this.index  = new int[count];
+			this.isLong = new boolean[count];
+		}
+	}
+}
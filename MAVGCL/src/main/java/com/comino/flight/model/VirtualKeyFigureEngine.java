@@ -0,0 +1,255 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2021 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+package com.comino.flight.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+
+import com.comino.flight.model.converter.SourceConverter;
+
+/*
+ * Evaluates virtual keyfigures in dependency order. Only keyfigures required by a
+ * consumer (chart, details, recording) and their virtual inputs are calculated per sample.
+ * History dependent converters are always evaluated, as they cannot be recomputed later.
+ */
+
+public class VirtualKeyFigureEngine implements Observer {
+
+	// samples recalculated while holding the lock, so that the collector is not blocked
+	private static final int CHUNK = 2048;
+
+	private static volatile VirtualKeyFigureEngine instance = null;
+
+	private final AnalysisDataModelMetaData  meta;
+
+	private final Map<Object,Set<Integer>>   demand = new HashMap<Object,Set<Integer>>();
+
+	private List<KeyFigureMetaData>          sorted = new ArrayList<KeyFigureMetaData>();
+	private volatile KeyFigureMetaData[]     active = new KeyFigureMetaData[0];
+
+	public static VirtualKeyFigureEngine getInstance() {
+		if(instance==null) {
+			synchronized(VirtualKeyFigureEngine.class) {
+				if(instance==null)
+					instance = new VirtualKeyFigureEngine();
+			}
+		}
+		return instance;
+	}
+
+	private VirtualKeyFigureEngine() {
+		this.meta = AnalysisDataModelMetaData.getInstance();
+		meta.addObserver(this);
+	}
+
+	@Override
+	public void update(Observable o, Object arg) {
+		if(arg==null)
+			rebuild();
+	}
+
+	/*
+	 * Calculates all active virtual keyfigures of one sample in dependency order.
+	 */
+	public void evaluate(AnalysisDataModel model) {
+		evaluate(model, true);
+	}
+
+	/*
+	 * Calculates the active virtual keyfigures of one sample. History dependent keyfigures
+	 * are only calculated for samples which are recorded, as each call feeds their state;
+	 * otherwise they are NaN.
+	 */
+	public synchronized void evaluate(AnalysisDataModel model, boolean recorded) {
+		final KeyFigureMetaData[] kfs = active;
+		for(int i = 0; i < kfs.length; i++) {
+			if(!recorded && isHistoryDependent(kfs[i])) {
+				model.setValue(kfs[i], Double.NaN);
+				continue;
+			}
+			try {
+				model.setValue(kfs[i], kfs[i].calculateVirtualValue(model));
+			} catch(Exception e) {
+				model.setValue(kfs[i], Double.NaN);
+			}
+		}
+	}
+
+	/*
+	 * Recalculates the given keyfigures for already recorded samples [from,to), chunk by
+	 * chunk. Samples added meanwhile are evaluated by the collector.
+	 */
+	public void evaluate(AnalysisDataModelStore store, List<KeyFigureMetaData> kfs, int from, int to) {
+		for(int first = from; first < to; first += CHUNK) {
+			synchronized(this) {
+				final int end = Math.min(Math.min(to, first + CHUNK), store.size());
+				if(first >= end)
+					return;
+				for(KeyFigureMetaData kf : kfs) {
+					final int slot = meta.getSlot(kf);
+					for(int i = first; i < end; i++) {
+						try {
+							store.setValue(i, slot, kf.calculateVirtualValue(store.get(i)));
+						} catch(Exception e) {
+							store.setValue(i, slot, Double.NaN);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * Replaces the keyfigures required by the consumer. Returns the virtual keyfigures
+	 * which were not evaluated before, in evaluation order.
+	 */
+	public synchronized List<KeyFigureMetaData> require(Object consumer, KeyFigureMetaData... kfs) {
+		final Set<Integer> required = new HashSet<Integer>();
+		for(KeyFigureMetaData kf : kfs) {
+			if(kf!=null && kf.isVirtual)
+				required.add(kf.hash);
+		}
+		if(required.isEmpty())
+			demand.remove(consumer);
+		else
+			demand.put(consumer, required);
+
+		final Set<KeyFigureMetaData> previous = new HashSet<KeyFigureMetaData>();
+		for(KeyFigureMetaData kf : active)
+			previous.add(kf);
+
+		activate();
+
+		final List<KeyFigureMetaData> added = new ArrayList<KeyFigureMetaData>();
+		for(KeyFigureMetaData kf : active) {
+			if(!previous.contains(kf))
+				added.add(kf);
+		}
+		return added;
+	}
+
+	public synchronized void release(Object consumer) {
+		if(demand.remove(consumer)!=null)
+			activate();
+	}
+
+	private static boolean isHistoryDependent(KeyFigureMetaData kf) {
+		final SourceConverter c = kf.getConverter(KeyFigureMetaData.VIR_SOURCE);
+		return c!=null && c.isHistoryDependent();
+	}
+
+	public KeyFigureMetaData[] getActive() {
+		return active;
+	}
+
+	private synchronized void rebuild() {
+		final Map<Integer,KeyFigureMetaData> virt = meta.getVirtualKeyFigureMap();
+		final List<KeyFigureMetaData> nodes = new ArrayList<KeyFigureMetaData>(virt.values());
+		nodes.sort(Comparator.comparing((KeyFigureMetaData k) -> k.key));
+
+		final List<KeyFigureMetaData> order = new ArrayList<KeyFigureMetaData>(nodes.size());
+		final Set<KeyFigureMetaData> visited = new HashSet<KeyFigureMetaData>();
+		final Set<KeyFigureMetaData> path    = new HashSet<KeyFigureMetaData>();
+		for(KeyFigureMetaData kf : nodes)
+			visit(kf, visited, path, order);
+
+		sorted = order;
+		activate();
+	}
+
+	private void visit(KeyFigureMetaData kf, Set<KeyFigureMetaData> visited, Set<KeyFigureMetaData> path,
+			List<KeyFigureMetaData> order) {
+		if(visited.contains(kf))
+			return;
+		if(!path.add(kf)) {
+			System.err.println(kf.key+": Cyclic dependency of virtual keyfigure");
+			return;
+		}
+		for(KeyFigureMetaData input : getVirtualInputs(kf))
+			visit(input, visited, path, order);
+		path.remove(kf);
+		visited.add(kf);
+		order.add(kf);
+	}
+
+	private void activate() {
+		final Set<KeyFigureMetaData> needed = new HashSet<KeyFigureMetaData>();
+		for(KeyFigureMetaData kf : sorted) {
+			final SourceConverter c = kf.getConverter(KeyFigureMetaData.VIR_SOURCE);
+			if(c!=null && c.isHistoryDependent())
+				addWithInputs(kf, needed);
+		}
+		demand.forEach((consumer,hashes) -> {
+			hashes.forEach((hash) -> {
+				final KeyFigureMetaData kf = meta.getVirtualKeyFigureMap().get(hash);
+				if(kf!=null)
+					addWithInputs(kf, needed);
+			});
+		});
+
+		final List<KeyFigureMetaData> list = new ArrayList<KeyFigureMetaData>(needed.size());
+		for(KeyFigureMetaData kf : sorted) {
+			if(needed.contains(kf))
+				list.add(kf);
+		}
+		active = list.toArray(new KeyFigureMetaData[list.size()]);
+	}
+
+	private void addWithInputs(KeyFigureMetaData kf, Set<KeyFigureMetaData> needed) {
+		if(!needed.add(kf))
+			return;
+		for(KeyFigureMetaData input : getVirtualInputs(kf))
+			addWithInputs(input, needed);
+	}
+
+	private List<KeyFigureMetaData> getVirtualInputs(KeyFigureMetaData kf) {
+		final List<KeyFigureMetaData> inputs = new ArrayList<KeyFigureMetaData>();
+		final SourceConverter c = kf.getConverter(KeyFigureMetaData.VIR_SOURCE);
+		if(c==null)
+			return inputs;
+		for(String name : c.getInputs()) {
+			final KeyFigureMetaData input = meta.getMetaData(name);
+			if(input!=null && input.isVirtual && input!=kf)
+				inputs.add(input);
+		}
+		return inputs;
+	}
+}
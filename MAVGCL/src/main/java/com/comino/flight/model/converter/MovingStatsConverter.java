@@ -0,0 +1,99 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2018 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.converter;
+
+import com.comino.flight.model.AnalysisDataModel;
+
+/*
+ * Moving statistics of a keyfigure over the last frame samples
+ * params: keyfigure, function (MEAN, STD, VAR, RMS), frame
+ */
+public class MovingStatsConverter extends WindowedConverter {
+
+	private static final int MEAN = 0;
+	private static final int STD  = 1;
+	private static final int VAR  = 2;
+	private static final int RMS  = 3;
+
+	String kf_val   = null;
+	String function = null;
+	int    type     = MEAN;
+	int    frame    = 0;
+
+	@Override
+	public void setParameter(String kfname, String[] params) {
+		this.kf_val   = params[0];
+		this.function = params[1].trim().toUpperCase();
+		this.frame    = Integer.parseInt(params[2]);
+		switch(function) {
+		case "STD": type = STD; break;
+		case "VAR": type = VAR; break;
+		case "RMS": type = RMS; break;
+		default:    type = MEAN;
+		}
+		setWindow(frame);
+	}
+
+	@Override
+	public double convert(AnalysisDataModel data) {
+
+		synchronize();
+
+		final double val = data.getValue(kf_val);
+		if(!Double.isNaN(val))
+			stats.add(val);
+
+		switch(type) {
+		case STD: return stats.getStdDev();
+		case VAR: return stats.getVariance();
+		case RMS: return stats.getRMS();
+		default:  return stats.getMean();
+		}
+	}
+
+	public MovingStatsConverter() {
+		super();
+	}
+
+	@Override
+	public String[] getInputs() {
+		return new String[] { kf_val };
+	}
+
+	@Override
+	public String toString() {
+		return function+": "+ kf_val +" ("+frame+")";
+	}
+}
@@ -35,11 +35,13 @@ package com.comino.flight.model.converter;
 
 import java.util.Map;
 
+import com.comino.flight.model.ULogFieldBinding;
 import com.comino.mavutils.MSPMathUtils;
 
 public class QuaternionConverter extends SourceConverter {
 
 	private String ulogKeyFigure = null;
+	private String[] inputs      = new String[4];
 	private int    index;
 	private float euler[] = new float[3];
 	private float q[]     = new float[4];
@@ -48,19 +50,45 @@ public class QuaternionConverter extends SourceConverter {
 	public void setParameter(String kfname, String[] params) {
 		this.ulogKeyFigure = params[0];
 		this.index = Integer.parseInt(params[1]);
+		for(int i = 0; i < inputs.length; i++)
+			inputs[i] = ulogKeyFigure+"["+i+"]";
 	}
 
 	public QuaternionConverter() {
 		super();
 	}
 
+	@Override
+	public String[] getInputs() {
+		return inputs.clone();
+	}
+
+	@Override
+	public boolean isRecordBased() {
+		return true;
+	}
+
+	@Override
+	public double convert(double[] record, int offset, ULogFieldBinding.Inputs bound) {
+		for(int i = 0; i < q.length; i++) {
+			if(bound.index[i] < 0)
+				return euler[index];
+			final double v = record[offset + bound.index[i]];
+			if(Double.isNaN(v))
+				return euler[index];
+			q[i] = (float)v;
+		}
+		MSPMathUtils.eulerAnglesByQuaternion(euler, q);
+		return euler[index];
+	}
+
 	@Override
 	public double convert(Map<String,Object> ulogdata) {
 		try {
-			q[0] = (float)(Float)ulogdata.get(ulogKeyFigure+"[0]");
-			q[1] = (float)(Float)ulogdata.get(ulogKeyFigure+"[1]");
-			q[2] = (float)(Float)ulogdata.get(ulogKeyFigure+"[2]");
-			q[3] = (float)(Float)ulogdata.get(ulogKeyFigure+"[3]");
+			q[0] = (float)(Float)ulogdata.get(inputs[0]);
+			q[1] = (float)(Float)ulogdata.get(inputs[1]);
+			q[2] = (float)(Float)ulogdata.get(inputs[2]);
+			q[3] = (float)(Float)ulogdata.get(inputs[3]);
 		} catch(Exception e) {
 			return euler[index];
 		}
@@ -33,12 +33,13 @@
 
 package com.comino.flight.model.converter;
 
-import java.util.List;
-
 import com.comino.flight.model.AnalysisDataModel;
-import com.comino.flight.model.service.AnalysisModelService;
 
-public class RMSEConverter2 extends SourceConverter {
+/*
+ * Root mean square of the deviation of a keyfigure from its setpoint over the last frame samples
+ * params: keyfigure, setpoint, frame
+ */
+public class RMSEConverter2 extends WindowedConverter {
 
 	String kf_val = null;
 	String kf_sp  = null;
@@ -52,49 +53,35 @@ public class RMSEConverter2 extends SourceConverter {
 		this.kf_val = params[0];
 		this.kf_sp  = params[1];
 		this.frame  = Integer.parseInt(params[2]);
+		setWindow(frame);
 	}
 
 
 	@Override
 	public double convert(AnalysisDataModel data) {
 
-		double rmse = 0; double kf = 0; double sp = 0;
-		
-		List<AnalysisDataModel> list = AnalysisModelService.getInstance().getModelList();
+		synchronize();
+
+		final double kf = data.getValue(kf_val);
+		final double sp = data.getValue(kf_sp);
+		if(Double.isNaN(kf) || Double.isNaN(sp))
+			return 0;
 
-		if(list.size()<frame) {
+		stats.add(kf - sp);
+		if(!stats.isFull())
 			return 0;
-		}
-
-		if(list.get(list.size()-1).getValue(kf_name)!=0) {
-			kf = data.getValue(kf_val);
-			sp = data.getValue(kf_sp);
-			if(Double.isNaN(kf) || Double.isNaN(sp))
-				return 0;
-			rmse = list.get(list.size()-1).getValue(kf_name);
-			rmse = rmse * rmse * frame;
-			rmse = rmse + ((kf - sp ) * (kf - sp ));
-			kf = list.get(list.size()-frame).getValue(kf_val);
-			sp = list.get(list.size()-frame).getValue(kf_sp);
-			rmse = rmse - ((kf - sp ) * (kf - sp ));
-			return Math.sqrt(rmse/frame);
-		} else {
-
-		for(int i=list.size()-frame;i<list.size();i++) {
-			kf = list.get(i).getValue(kf_val);
-			sp = list.get(i).getValue(kf_sp);
-			if(Double.isNaN(kf) || Double.isNaN(sp))
-				return 0;
-			rmse = rmse + ((kf - sp ) * (kf - sp ));
-		}
-		return Math.sqrt(rmse/frame);
-		}
+
+		return stats.getRMS();
 	}
 
 	public RMSEConverter2() {
 		super();
 	}
 
+	@Override
+	public String[] getInputs() {
+		return new String[] { kf_val, kf_sp };
+	}
 
 	@Override
 	public String toString() {
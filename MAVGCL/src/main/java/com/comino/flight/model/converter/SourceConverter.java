@@ -36,6 +36,7 @@ package com.comino.flight.model.converter;
 import java.util.Map;
 
 import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.ULogFieldBinding;
 
 public abstract class SourceConverter {
 	public SourceConverter() {
@@ -59,6 +60,38 @@ public abstract class SourceConverter {
 		return 0;
 	}
 
+	/*
+	 * ULog sample as primitive record: input i (see getInputs()) is record[offset+inputs.index[i]],
+	 * NaN if not available. Only called if isRecordBased() is true.
+	 */
+	public double convert(double[] record, int offset, ULogFieldBinding.Inputs inputs) {
+		return 0;
+	}
+
+	/*
+	 * True if convert(double[],int,Inputs) is implemented, so that the inputs are bound to a
+	 * record once per log instead of being looked up by name in convert(Map).
+	 */
+	public boolean isRecordBased() {
+		return false;
+	}
+
+	/*
+	 * Keyfigures read by convert(AnalysisDataModel) resp. ULog fields read by convert(Map);
+	 * used to order virtual keyfigures and to select the ULog fields of a conversion.
+	 */
+	public String[] getInputs() {
+		return new String[0];
+	}
+
+	/*
+	 * True if the result depends on previously recorded samples, i.e. it can only
+	 * be calculated while the samples are added in sequence.
+	 */
+	public boolean isHistoryDependent() {
+		return false;
+	}
+
 	public abstract String toString();
 
 
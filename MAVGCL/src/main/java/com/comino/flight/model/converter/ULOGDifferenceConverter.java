@@ -35,6 +35,8 @@ package com.comino.flight.model.converter;
 
 import java.util.Map;
 
+import com.comino.flight.model.ULogFieldBinding;
+
 public class ULOGDifferenceConverter extends SourceConverter {
 
 	private String ulogKeyFigure1 = null;
@@ -55,6 +57,23 @@ public class ULOGDifferenceConverter extends SourceConverter {
 		super();
 	}
 
+	@Override
+	public String[] getInputs() {
+		return new String[] { ulogKeyFigure1, ulogKeyFigure2 };
+	}
+
+	@Override
+	public boolean isRecordBased() {
+		return true;
+	}
+
+	@Override
+	public double convert(double[] record, int offset, ULogFieldBinding.Inputs inputs) {
+		v1 = value(record, offset, inputs, 0, v1);
+		v2 = value(record, offset, inputs, 1, v2);
+		return v1 - v2;
+	}
+
 	@Override
 	public double convert(Map<String,Object> ulogdata) {
 
@@ -95,6 +114,16 @@ public class ULOGDifferenceConverter extends SourceConverter {
 		}
 	}
 
+	// Keeps the previous value if not available; Long values (timestamps in us) are converted to ms
+	static double value(double[] record, int offset, ULogFieldBinding.Inputs inputs, int i, double previous) {
+		if(inputs.index[i] < 0)
+			return previous;
+		final double v = record[offset + inputs.index[i]];
+		if(Double.isNaN(v))
+			return previous;
+		return inputs.isLong[i] ? v / 1000.0d : v;
+	}
+
 	@Override
 	public String toString() {
 		return ulogKeyFigure1+"-"+ulogKeyFigure2;
@@ -35,6 +35,8 @@ package com.comino.flight.model.converter;
 
 import java.util.Map;
 
+import com.comino.flight.model.ULogFieldBinding;
+
 public class ULOGSumConverter extends SourceConverter {
 
 	private String[] ulogKeyFigures = null;
@@ -50,6 +52,24 @@ public class ULOGSumConverter extends SourceConverter {
 		super();
 	}
 
+	@Override
+	public String[] getInputs() {
+		return ulogKeyFigures != null ? ulogKeyFigures : new String[0];
+	}
+
+	@Override
+	public boolean isRecordBased() {
+		return true;
+	}
+
+	@Override
+	public double convert(double[] record, int offset, ULogFieldBinding.Inputs inputs) {
+		double sum = 0;
+		for(int i=0; i<inputs.index.length;i++)
+			sum += ULOGDifferenceConverter.value(record, offset, inputs, i, 0);
+		return sum;
+	}
+
 	@Override
 	public double convert(Map<String,Object> ulogdata) {
 
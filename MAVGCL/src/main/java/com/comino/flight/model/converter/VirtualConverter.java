@@ -33,6 +33,8 @@
 
 package com.comino.flight.model.converter;
 
+import java.util.Arrays;
+
 import com.comino.flight.model.AnalysisDataModel;
 
 import net.objecthunter.exp4j.Expression;
@@ -77,6 +79,14 @@ public class VirtualConverter extends SourceConverter {
 	}
 
 
+	@Override
+	public String[] getInputs() {
+		if(params==null || params.length < 2)
+			return new String[0];
+		return Arrays.copyOfRange(params, 1, params.length);
+	}
+
+
 	@Override
 	public String toString() {
 		return calc.toString();
@@ -0,0 +1,74 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2018 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.converter;
+
+import com.comino.flight.model.AnalysisDataModelStore;
+import com.comino.flight.model.service.AnalysisModelService;
+
+/*
+ * Base of converters calculating statistics over the last samples. The samples are fed into
+ * a WindowedStatistics by convert(); the window is cleared when the recorded samples have been
+ * cleared or replaced since the last call, e.g. for a new recording or when a log is loaded.
+ * Only samples which are recorded must be fed, see VirtualKeyFigureEngine.evaluate().
+ */
+public abstract class WindowedConverter extends SourceConverter {
+
+	protected WindowedStatistics stats = new WindowedStatistics(1);
+
+	private int last_size       = 0;
+	private int last_generation = -1;
+
+	protected void setWindow(int length) {
+		if(length != stats.getLength())
+			stats = new WindowedStatistics(length);
+		else
+			stats.clear();
+	}
+
+	protected void synchronize() {
+		final AnalysisDataModelStore list = AnalysisModelService.getInstance().getModelList();
+		final int size = list.size();
+		final int generation = list.getGeneration();
+		if(size < last_size || generation != last_generation)
+			stats.clear();
+		last_size = size;
+		last_generation = generation;
+	}
+
+	@Override
+	public boolean isHistoryDependent() {
+		return true;
+	}
+}
@@ -0,0 +1,163 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2018 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.converter;
+
+/*
+ * Mean, variance, covariance and RMS of the last n samples of one or two signals. Samples are
+ * kept in a ring; adding a sample to a full window removes the oldest one, and the moments are
+ * updated incrementally (Welford), so each sample costs O(1) independent of the window length.
+ * Once per window length the moments are recomputed from the ring to bound rounding drift.
+ */
+public class WindowedStatistics {
+
+	private final double[] x;
+	private final double[] y;
+
+	private int    count = 0;
+	private int    head  = 0;
+	private int    updates = 0;
+
+	private double meanX, meanY;
+	private double m2X, m2Y, cXY;
+
+	public WindowedStatistics(int length) {
+		this.x = new double[Math.max(1, length)];
+		this.y = new double[x.length];
+	}
+
+	public void add(double v) {
+		add(v, 0);
+	}
+
+	public void add(double vx, double vy) {
+		if(count == x.length) {
+			remove(x[head], y[head]);
+		}
+		x[head] = vx; y[head] = vy;
+		head = (head + 1) % x.length;
+
+		count++;
+		final double dx = vx - meanX;
+		final double dy = vy - meanY;
+		meanX += dx / count;
+		meanY += dy / count;
+		m2X += dx * (vx - meanX);
+		m2Y += dy * (vy - meanY);
+		cXY += dx * (vy - meanY);
+
+		if(++updates >= x.length) {
+			updates = 0;
+			recompute();
+		}
+	}
+
+	public void clear() {
+		count = 0; head = 0; updates = 0;
+		meanX = 0; meanY = 0; m2X = 0; m2Y = 0; cXY = 0;
+	}
+
+	public boolean isFull() {
+		return count == x.length;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public int getLength() {
+		return x.length;
+	}
+
+	public double getMean() {
+		return count > 0 ? meanX : Double.NaN;
+	}
+
+	public double getMeanY() {
+		return count > 0 ? meanY : Double.NaN;
+	}
+
+	/* Bias corrected variance (n-1) */
+	public double getVariance() {
+		return count > 1 ? Math.max(0, m2X) / (count - 1) : Double.NaN;
+	}
+
+	public double getVarianceY() {
+		return count > 1 ? Math.max(0, m2Y) / (count - 1) : Double.NaN;
+	}
+
+	public double getStdDev() {
+		return Math.sqrt(getVariance());
+	}
+
+	/* Bias corrected covariance (n-1), as commons-math Covariance */
+	public double getCovariance() {
+		return count > 1 ? cXY / (count - 1) : Double.NaN;
+	}
+
+	/* Root of the mean square: sqrt(var + mean^2) with the population variance */
+	public double getRMS() {
+		return count > 0 ? Math.sqrt(Math.max(0, m2X) / count + meanX * meanX) : Double.NaN;
+	}
+
+	private void remove(double vx, double vy) {
+		if(count == 1) {
+			count = 0; meanX = 0; meanY = 0; m2X = 0; m2Y = 0; cXY = 0;
+			return;
+		}
+		final double oldX = meanX;
+		final double oldY = meanY;
+		count--;
+		meanX = oldX + (oldX - vx) / count;
+		meanY = oldY + (oldY - vy) / count;
+		m2X -= (vx - meanX) * (vx - oldX);
+		m2Y -= (vy - meanY) * (vy - oldY);
+		cXY -= (vx - meanX) * (vy - oldY);
+	}
+
+	private void recompute() {
+		double sx = 0, sy = 0;
+		for(int i = 0; i < count; i++) {
+			sx += x[i]; sy += y[i];
+		}
+		meanX = sx / count; meanY = sy / count;
+		double mx = 0, my = 0, cxy = 0;
+		for(int i = 0; i < count; i++) {
+			final double dx = x[i] - meanX;
+			final double dy = y[i] - meanY;
+			mx += dx * dx; my += dy * dy; cxy += dx * dy;
+		}
+		m2X = mx; m2Y = my; cXY = cxy;
+	}
+}
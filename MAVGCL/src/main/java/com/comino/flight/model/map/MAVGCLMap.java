@@ -19,7 +19,6 @@ import com.comino.mavmap.map.map3D.Map3DSpacialInfo;
 import bubo.maps.d3.grid.CellProbability_F64;
 import georegression.struct.point.Point3D_F64;
 import javafx.application.Platform;
-import javafx.scene.shape.Box;
 
 public class MAVGCLMap  {
 	
@@ -36,7 +35,7 @@ public class MAVGCLMap  {
 
 	private final HashSet<Long>        set    = new HashSet<Long>();
 	private final BlockingQueue<Long>  list   = new ArrayBlockingQueue<Long>(MAXMAPPOINTS);
-	private final Map<Long,Box>       boxes   = new HashMap<Long,Box>();
+	private final Map<Long,Double>    cells   = new HashMap<Long,Double>();   // occupied cells and their probability
 	private final Point3D_F64        origin   = new Point3D_F64();
 
 	private long  last_update = - 1;
@@ -90,8 +89,8 @@ public class MAVGCLMap  {
 		return list;
 	}
 
-	public Map<Long,Box> getMap() {
-		return boxes;
+	public Map<Long,Double> getMap() {
+		return cells;
 	}
 
 
@@ -127,7 +126,7 @@ public class MAVGCLMap  {
 	}
 
 	public int size() {
-		return boxes.size();
+		return cells.size();
 	}
 
 	public Iterator<CellProbability_F64> getMapLevelItems(float current_altitude) {
@@ -155,7 +154,7 @@ public class MAVGCLMap  {
 		Comparable<Integer> zfilter = null;
 		boolean has_next = true;
 
-		Iterator<Long> m = boxes.keySet().iterator();
+		Iterator<Long> m = cells.keySet().iterator();
 
 		CellProbability_F64 storage = new CellProbability_F64();
 
@@ -180,13 +179,13 @@ public class MAVGCLMap  {
 
 		protected void searchNext() {
 
-			if(boxes.isEmpty()) {
+			if(cells.isEmpty()) {
 				has_next = false;
 			}
 
 			while(m.hasNext()) {
 				long h = m.next(); 
-				if(!boxes.containsKey(h))
+				if(!cells.containsKey(h))
 					continue;
 				info.decodeMapPoint(h, storage);
 				if (zfilter.compareTo(storage.z) == 0) {
@@ -1,5 +1,11 @@
 package com.comino.flight.model.map;
 
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
 import org.mavlink.messages.lquac.msg_msp_micro_grid;
 
 import com.comino.mavcom.control.IMAVController;
@@ -9,12 +15,35 @@ import com.comino.mavmap.map.map3D.impl.octomap.MAVOctoMap3D;
 
 import us.ihmc.jOctoMap.key.OcTreeKey;
 
+/*
+ * Grid messages are copied into recycled batches by the link reader and applied to the tree
+ * by a map worker. The worker coalesces all updates of a cell within WINDOW_MS and applies a
+ * window while holding the map lock, so that the view picks up the changed keys of complete
+ * windows only (see hasChanged()).
+ */
+
 public class MAVGCLOctoMap extends MAVOctoMap3D {
 
+	private static final int WINDOW_MS  = 50;
+	private static final int BATCHES    = 64;
+	private static final int BATCH_SIZE = 256;
+
+	private static final int DATA       = 0;
+	private static final int CLEAR      = 1;
+	private static final int RESOLUTION = 2;
+
 	private final DataModel model;
 
 	private static MAVGCLOctoMap instance = null;
-	private int count;
+
+	private final BlockingQueue<Batch> queue = new LinkedBlockingQueue<Batch>();
+	private final BlockingQueue<Batch> free  = new ArrayBlockingQueue<Batch>(BATCHES);
+	private final CellBuffer           cells = new CellBuffer();
+	private final OcTreeKey            key   = new OcTreeKey();
+
+	private float         resolution;
+	private volatile int  version   = 0;
+	private int           consumed  = 0;
 
 	public static MAVGCLOctoMap getInstance(IMAVController control) {
 		if(instance==null)
@@ -25,14 +54,18 @@ public class MAVGCLOctoMap extends MAVOctoMap3D {
 
 	public MAVGCLOctoMap(IMAVController control) {
 		super();
-		
+
 		super.enableRemoveOutdated(true);
 
 		this.model = control.getCurrentModel();
+		this.resolution = getResolution();
+
+		for(int i = 0; i < BATCHES; i++)
+			free.offer(new Batch());
 
 		//		control.getStatusManager().addListener(StatusManager.TYPE_MSP_STATUS, Status.MSP_CONNECTED, StatusManager.EDGE_RISING, (a) -> {
 		//			if(!model.sys.isStatus(Status.MSP_ARMED)) {
-		//				clear(); 
+		//				clear();
 		//				model.grid.count = -1;
 		//			}
 		//		});
@@ -43,29 +76,52 @@ public class MAVGCLOctoMap extends MAVOctoMap3D {
 				msg_msp_micro_grid grid = (msg_msp_micro_grid) o;
 
 				if(grid.count < 0) {
-					clear(); 
+					queue.offer(obtain(CLEAR));
 					model.grid.count = -1;
 					return;
 				}
-				
-				if(grid.resolution != this.getResolution()) {
-					clearAndChangeResolution(grid.resolution);
+
+				if(grid.resolution != resolution) {
+					resolution = grid.resolution;
+					Batch b = obtain(RESOLUTION);
+					b.resolution = grid.resolution;
+					queue.offer(b);
 				}
 
+				Batch b = obtain(DATA);
 				for(int i=0;i< grid.data.length;i++) {
 					if(grid.data[i] > 0) {
-						insertBoolean(grid.data[i]);
+						b.add(grid.data[i]);
 					}
 				}
+				if(b.count > 0)
+					queue.offer(b);
+				else
+					free.offer(b);
 			}
-			
+
 		//	removeOutdatedNodes(1000);
 
-		});	
+		});
+
+		Thread worker = new Thread(this::process, "map worker");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/*
+	 * Returns true once per window applied since the last call. The caller reads getChanged()
+	 * and resets the change detection while synchronized on the map.
+	 */
+	public boolean hasChanged() {
+		final int v = version;
+		if(v == consumed)
+			return false;
+		consumed = v;
+		return true;
 	}
 
-	public void insertBoolean(long encoded) {
-		OcTreeKey key = new OcTreeKey ();
+	private void insertBoolean(long encoded) {
 		int value = decode(encoded,key);
 		if(value >= 0.5) {
 			this.getTree().updateNode(key, true);
@@ -74,11 +130,150 @@ public class MAVGCLOctoMap extends MAVOctoMap3D {
 			MAVOccupancyOcTreeNode node = this.getTree().search(key);
 			if(node!=null) {
 				node.clear();
-				this.getTree().getChangedKeys().put(key, (byte)1);
+				this.getTree().getChangedKeys().put(new OcTreeKey(key), (byte)1);
 			}
-		
+
 		}
 	}
 
+	private void process() {
+		while(true) {
+			try {
+				Batch b = queue.take();
+				final long window_end = System.currentTimeMillis() + WINDOW_MS;
+				do {
+					handle(b);
+					final long wait = window_end - System.currentTimeMillis();
+					b = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : null;
+				} while(b != null);
+				apply();
+			} catch(InterruptedException e) {
+				return;
+			} catch(Exception e) {
+				cells.clear();
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void handle(Batch b) {
+		switch(b.type) {
+		case CLEAR:
+			cells.clear();
+			synchronized(this) {
+				clear();
+			}
+			version++;
+			break;
+		case RESOLUTION:
+			cells.clear();
+			synchronized(this) {
+				clearAndChangeResolution(b.resolution);
+			}
+			version++;
+			break;
+		default:
+			for(int i = 0; i < b.count; i++) {
+				decode(b.data[i], key);
+				cells.put(((long)key.getKey(0) << 32) | ((long)key.getKey(1) << 16) | key.getKey(2), b.data[i]);
+			}
+		}
+		free.offer(b);
+	}
+
+	private void apply() {
+		if(cells.size() == 0)
+			return;
+		synchronized(this) {
+			for(int i = 0; i < cells.size(); i++)
+				insertBoolean(cells.get(i));
+		}
+		cells.clear();
+		version++;
+	}
 
+	private Batch obtain(int type) {
+		Batch b = free.poll();
+		if(b == null)
+			b = new Batch();
+		b.type = type;
+		b.count = 0;
+		return b;
+	}
+
+	private static class Batch {
+		int    type;
+		float  resolution;
+		int    count;
+		long[] data = new long[BATCH_SIZE];
+
+		void add(long encoded) {
+			if(count == data.length)
+				data = Arrays.copyOf(data, count * 2);
+			data[count++] = encoded;
+		}
+	}
+
+	/*
+	 * Latest encoded value per cell in order of first occurrence (open addressing, no boxing)
+	 */
+	private static class CellBuffer {
+
+		private long[] keys   = new long[1024];
+		private int[]  slots  = new int[2048];
+		private long[] values = new long[1024];
+		private int    count  = 0;
+
+		void put(long cell, long encoded) {
+			int mask = slots.length - 1;
+			int h = hash(cell) & mask;
+			while(slots[h] != 0) {
+				final int i = slots[h] - 1;
+				if(keys[i] == cell) {
+					values[i] = encoded;
+					return;
+				}
+				h = (h + 1) & mask;
+			}
+			if(count == keys.length) {
+				keys   = Arrays.copyOf(keys, count * 2);
+				values = Arrays.copyOf(values, count * 2);
+			}
+			keys[count] = cell;
+			values[count++] = encoded;
+			slots[h] = count;
+			if(count * 2 > slots.length)
+				rehash();
+		}
+
+		long get(int i) {
+			return values[i];
+		}
+
+		int size() {
+			return count;
+		}
+
+		void clear() {
+			if(count > 0)
+				Arrays.fill(slots, 0);
+			count = 0;
+		}
+
+		private void rehash() {
+			slots = new int[slots.length * 2];
+			final int mask = slots.length - 1;
+			for(int i = 0; i < count; i++) {
+				int h = hash(keys[i]) & mask;
+				while(slots[h] != 0)
+					h = (h + 1) & mask;
+				slots[h] = i + 1;
+			}
+		}
+
+		private static int hash(long cell) {
+			final long h = cell * 0x9E3779B97F4A7C15L;
+			return (int)(h ^ (h >>> 32));
+		}
+	}
 }
@@ -36,8 +36,9 @@ package com.comino.flight.model.service;
 
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.locks.LockSupport;
 
 import org.mavlink.messages.MAV_CMD;
@@ -46,9 +47,13 @@ import com.comino.flight.file.FileHandler;
 import com.comino.flight.log.ulog.ULogFromMAVLinkReader;
 import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.AnalysisDataModelStore;
 import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.flight.model.VirtualKeyFigureEngine;
+import com.comino.flight.model.converter.SourceConverter;
 import com.comino.flight.observables.StateProperties;
 import com.comino.flight.param.MAVGCLPX4Parameters;
+import com.comino.flight.prefs.MAVPreferences;
 import com.comino.mavcom.control.IMAVController;
 import com.comino.mavcom.model.DataModel;
 import com.comino.mavcom.model.segment.Status;
@@ -60,7 +65,7 @@ import javafx.application.Platform;
 
 public class AnalysisModelService  {
 
-	private static AnalysisModelService instance = null;
+	private static volatile AnalysisModelService instance = null;
 
 	public static final int DEFAULT_INTERVAL_US  = 20000;
 	public static final int MAVHIRES_INTERVAL_US = 10000;
@@ -72,7 +77,7 @@ public class AnalysisModelService  {
 	public static  final int POST_COLLECTING    = 3;
 	public static  final int READING_HEADER     = 4;
 
-	private volatile List<AnalysisDataModel>      modelList   = null;
+	private volatile AnalysisDataModelStore       modelList   = null;
 
 	private DataModel								  model   = null;
 	private ULogFromMAVLinkReader                   ulogger   = null;
@@ -99,11 +104,21 @@ public class AnalysisModelService  {
 
 	private final WorkQueue wq = WorkQueue.getInstance();
 
+	// Recalculates keyfigures required later for the samples already available
+	private final ExecutorService recompute = Executors.newSingleThreadExecutor(r -> {
+		final Thread t = new Thread(r, "Keyfigure recompute");
+		t.setDaemon(true);
+		return t;
+	});
+
 	private AnimationTimer task = null;
 
 	public static AnalysisModelService getInstance(IMAVController control) {
 		if(instance==null) {
-			instance = new AnalysisModelService(control);
+			synchronized(AnalysisModelService.class) {
+				if(instance==null)
+					instance = new AnalysisModelService(control);
+			}
 		}
 		return instance;
 	}
@@ -121,7 +136,7 @@ public class AnalysisModelService  {
 		this.meta = AnalysisDataModelMetaData.getInstance();
 		this.listener = new ArrayList<ICollectorRecordingListener>();
 
-		this.modelList     = new ArrayList<AnalysisDataModel>(50000);
+		this.modelList     = new AnalysisDataModelStore(50000);
 		this.model         = control.getCurrentModel();
 		this.current       =  new AnalysisDataModel();
 		this.record        =  new AnalysisDataModel();
@@ -184,7 +199,7 @@ public class AnalysisModelService  {
 	}
 
 	public AnalysisModelService(DataModel model) {
-		this.modelList     = new LinkedList<AnalysisDataModel>();
+		this.modelList     = new AnalysisDataModelStore();
 		this.model         =  model;
 		this.current       =  new AnalysisDataModel();
 		this.state         = StateProperties.getInstance();
@@ -218,7 +233,7 @@ public class AnalysisModelService  {
 		setCollectorInterval(DEFAULT_INTERVAL_US);
 	}
 
-	public List<AnalysisDataModel> getModelList() {
+	public AnalysisDataModelStore getModelList() {
 		return modelList;
 	}
 
@@ -303,6 +318,39 @@ public class AnalysisModelService  {
 		}
 	}
 
+	/*
+	 * Registers the keyfigures shown by a consumer, replacing those registered before.
+	 */
+	public void requireKeyFigures(Object consumer, KeyFigureMetaData... kfs) {
+		requireKeyFigures(consumer, null, kfs);
+	}
+
+	/*
+	 * Registers the keyfigures shown by a consumer. Virtual keyfigures not evaluated so far
+	 * are recalculated for the samples already available off the FX thread; ready is then
+	 * run on the FX thread to redraw them.
+	 */
+	public void requireKeyFigures(Object consumer, Runnable ready, KeyFigureMetaData... kfs) {
+		final VirtualKeyFigureEngine engine = VirtualKeyFigureEngine.getInstance();
+		final List<KeyFigureMetaData> added = engine.require(consumer, kfs);
+		final AnalysisDataModelStore store = modelList;
+		final int size = store.size();
+		if(added.isEmpty() || size == 0)
+			return;
+		recompute.execute(() -> {
+			engine.evaluate(store, added, 0, size);
+			if(ready != null)
+				Platform.runLater(ready);
+		});
+	}
+
+	/*
+	 * Removes the keyfigures of a consumer no longer shown, e.g. a disabled chart.
+	 */
+	public void releaseKeyFigures(Object consumer) {
+		VirtualKeyFigureEngine.getInstance().release(consumer);
+	}
+
 	public void setModelList(List<AnalysisDataModel> list) {
 		mode = STOPPED;
 		clear();
@@ -313,6 +361,32 @@ public class AnalysisModelService  {
 		setCurrent(0);
 	}
 
+	/*
+	 * Prepares the store to be filled directly by a reader, e.g. of a mapped model file.
+	 */
+	public AnalysisDataModelStore prepareModelList() {
+		mode = STOPPED;
+		clear();
+		return modelList;
+	}
+
+	/*
+	 * Completes a direct load: Calculates required virtual keyfigures not contained in the
+	 * loaded data. History dependent keyfigures can not be recalculated afterwards.
+	 */
+	public void completeModelList() {
+		final VirtualKeyFigureEngine engine = VirtualKeyFigureEngine.getInstance();
+		final List<KeyFigureMetaData> missing = new ArrayList<KeyFigureMetaData>();
+		for(KeyFigureMetaData kf : engine.getActive()) {
+			final SourceConverter c = kf.getConverter(KeyFigureMetaData.VIR_SOURCE);
+			if(!modelList.hasColumn(kf) && (c==null || !c.isHistoryDependent()))
+				missing.add(kf);
+		}
+		if(!missing.isEmpty())
+			engine.evaluate(modelList, missing, 0, modelList.size());
+		setCurrent(0);
+	}
+
 	public void reset() {
 		//setDefaultCollectorInterval();
 		mode = STOPPED;
@@ -466,11 +540,25 @@ public class AnalysisModelService  {
 				current.setValue("MAVGCLNET", control.getTransferRate()/1024f);
 
 				if(mode!=STOPPED && old_mode == STOPPED && model.sys.isStatus(Status.MSP_CONNECTED)) {
-					Platform.runLater(()->{
-						state.getRecordingProperty().set(READING_HEADER);
-						state.getLogLoadedProperty().set(false);
-						state.getRecordingProperty().set(COLLECTING);
-					});
+					if(MAVPreferences.getInstance().getBoolean(MAVPreferences.ULOGGER, false)) {
+						Platform.runLater(()->{
+							state.getRecordingProperty().set(READING_HEADER);
+							state.getLogLoadedProperty().set(false);
+						});
+						// ULog header streams in while collecting continues via MAVLink
+						ulogger.enableLogging(true).thenAccept((ulog) -> {
+							Platform.runLater(()->{
+								if(mode!=STOPPED)
+									state.getRecordingProperty().set(COLLECTING);
+							});
+						});
+					} else {
+						Platform.runLater(()->{
+							state.getRecordingProperty().set(READING_HEADER);
+							state.getLogLoadedProperty().set(false);
+							state.getRecordingProperty().set(COLLECTING);
+						});
+					}
 					tms_start = System.currentTimeMillis() * 1000;
 				}
 
@@ -494,7 +582,8 @@ public class AnalysisModelService  {
 				if(state.getCurrentUpToDate().getValue() && !state.getLogLoadedProperty().get()) {
 					try {
 						current.setValues(KeyFigureMetaData.MSP_SOURCE,model,meta);
-						current.calculateVirtualKeyFigures(meta);
+						// Only fed into history dependent keyfigures if current is the recorded sample
+						current.calculateVirtualKeyFigures(meta, mode!=STOPPED && !ulogger.isLogging());
 					} catch(ConcurrentModificationException c) { }
 				}
 
@@ -502,7 +591,7 @@ public class AnalysisModelService  {
 				if(ulogger.isLogging()) {
 					//	record.setValues(KeyFigureMetaData.MSP_SOURCE,model,meta);
 					record.setValues(KeyFigureMetaData.ULG_SOURCE,ulogger.getData(), meta);
-					record.calculateVirtualKeyFigures(meta);
+					record.calculateVirtualKeyFigures(meta, mode!=STOPPED);
 				}
 
 				if(model.msg != null && model.msg.text!=null) {
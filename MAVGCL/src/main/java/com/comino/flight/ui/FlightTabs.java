@@ -46,6 +46,7 @@ import com.comino.flight.ui.tabs.FlightXtAnalysisTab;
 import com.comino.flight.ui.tabs.MAV3DViewTab;
 import com.comino.flight.ui.tabs.MAVInspectorTab;
 import com.comino.flight.ui.tabs.MAVOpenMapTab;
+import com.comino.flight.ui.tabs.MAVSpectrogramTab;
 import com.comino.flight.ui.tabs.MAVTuningTab;
 import com.comino.flight.ui.tabs.MavLinkShellTab;
 import com.comino.flight.ui.widgets.alert.Alert;
@@ -107,6 +108,9 @@ public class FlightTabs extends Pane {
 	@FXML
 	private MavLinkShellTab mavlinkshelltab;
 
+	@FXML
+	private MAVSpectrogramTab mavspectrogramtab;
+
 	private List<Pane> tabs = new ArrayList<Pane>();
 
 
@@ -119,6 +123,7 @@ public class FlightTabs extends Pane {
 		tabs.add(mavmaptab);
 		tabs.add(mavinspectortab);
 		tabs.add(mavlinkshelltab);
+		tabs.add(mavspectrogramtab);
 
 	}
 
@@ -141,6 +146,7 @@ public class FlightTabs extends Pane {
 		mavmaptab.setDisable(true);
 		mav3dviewtab.setDisable(true);
 		mavlinkshelltab.setDisable(true);
+		mavspectrogramtab.setDisable(true);
 
 
 		if(camera!=null) {
@@ -168,6 +174,7 @@ public class FlightTabs extends Pane {
 		xyanalysistab.setup(control);
 		alert.setup(control);
 		mavlinkshelltab.setup(control);
+		mavspectrogramtab.setup(control);
 
 //		this.tabpane.getTabs().get(5).setDisable(true);
 //		this.tabpane.getTabs().get(6).setDisable(true);
@@ -230,6 +230,7 @@ public class DetailsWidget extends ChartControlPane {
 				figures.add(new KeyFigure(grid, k, i));
 				i++;
 			}
+			requireKeyFigures();
 			prefs.putInt(MAVPreferences.VIEW, n.intValue());
 			//			state.getGPSAvailableProperty().addListener((e, op, np) -> {
 			//				setBlockVisibility("RGPSNO",np.booleanValue());		  
@@ -258,6 +259,7 @@ public class DetailsWidget extends ChartControlPane {
 			figures.add(new KeyFigure(grid, k, i));
 			i++;
 		}
+		requireKeyFigures();
 
 		state.getCurrentUpToDate().addListener((e, o, n) -> {
 			Platform.runLater(() -> {
@@ -289,6 +291,13 @@ public class DetailsWidget extends ChartControlPane {
 			this.setDisable(!state.getConnectedProperty().get() && !n.booleanValue());
 		});
 
+		this.disabledProperty().addListener((e, o, n) -> {
+			if(n.booleanValue())
+				AnalysisModelService.getInstance().releaseKeyFigures(this);
+			else
+				requireKeyFigures();
+		});
+
 //		state.getArmedProperty().addListener((e, o, n) -> {
 //			if(n.booleanValue()) {
 //				last_view = view.getSelectionModel().getSelectedIndex();
@@ -306,6 +315,13 @@ public class DetailsWidget extends ChartControlPane {
 
 
 
+	private void requireKeyFigures() {
+		final KeyFigureMetaData[] kfs = new KeyFigureMetaData[figures.size()];
+		for(int i = 0; i < kfs.length; i++)
+			kfs[i] = figures.get(i).kf;
+		AnalysisModelService.getInstance().requireKeyFigures(this, kfs);
+	}
+
 	private class KeyFigure {
 		String  key = null;
 		int row = 0;
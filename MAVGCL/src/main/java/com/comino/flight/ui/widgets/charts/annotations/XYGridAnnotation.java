@@ -121,7 +121,10 @@ public class XYGridAnnotation  implements XYAnnotation {
 	
 		mapo.setTo(xp,yp,zp,0);
 		boundingBox.set(mapo,scale*2.0f,0.25f);
-		List<Long> set = map.getLeafsInBoundingBoxEncoded(boundingBox);
+		final List<Long> set;
+		synchronized(map) {
+			set = map.getLeafsInBoundingBoxEncoded(boundingBox);
+		}
 		
 		blocks.keySet().retainAll(set);
 
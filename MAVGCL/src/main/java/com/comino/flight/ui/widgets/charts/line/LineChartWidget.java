@@ -35,7 +35,9 @@ package com.comino.flight.ui.widgets.charts.line;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.locks.LockSupport;
 import java.util.prefs.Preferences;
@@ -45,8 +47,8 @@ import javax.imageio.ImageIO;
 import com.comino.flight.FXMLLoadHelper;
 import com.comino.flight.MainApp;
 import com.comino.flight.file.KeyFigurePreset;
-import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.AnalysisDataModelStore;
 import com.comino.flight.model.KeyFigureMetaData;
 import com.comino.flight.model.service.AnalysisModelService;
 import com.comino.flight.model.service.ICollectorRecordingListener;
@@ -57,6 +59,7 @@ import com.comino.flight.ui.widgets.charts.IChartSyncControl;
 import com.comino.flight.ui.widgets.charts.annotations.DashBoardAnnotation;
 import com.comino.flight.ui.widgets.charts.annotations.LineMessageAnnotation;
 import com.comino.flight.ui.widgets.charts.annotations.ModeAnnotation;
+import com.comino.flight.ui.widgets.charts.utils.ChartWorkers;
 import com.comino.flight.ui.widgets.charts.utils.XYCollections;
 import com.comino.flight.ui.widgets.charts.utils.XYDataPool;
 import com.comino.flight.ui.widgets.charts.utils.XYObservableListWrapper;
@@ -64,6 +67,7 @@ import com.comino.jfx.extensions.MovingAxis;
 import com.comino.jfx.extensions.SectionLineChart;
 import com.comino.jfx.extensions.XYAnnotations.Layer;
 import com.comino.mavcom.control.IMAVController;
+import com.comino.mavcom.model.segment.LogMessage;
 import com.comino.mavutils.workqueue.WorkQueue;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -77,6 +81,7 @@ import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleFloatProperty;
 import javafx.beans.property.SimpleIntegerProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
@@ -113,6 +118,7 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 	private final static int REFRESH_SLOT   = 20;
 
 	private final static int DEFAULT_TIME_FRAME = 30;
+	private final static int DEFAULT_WIDTH      = 1000;
 
 	private final static String[] BCKGMODES = { "No mode annotation ", "PX4 Flight Mode","EKF2 Status", "Position Estimation", 
 			"GPS Fixtype", "Offboard Phases", "Vision Subsystem", "EKF2 Height mode" };
@@ -172,6 +178,8 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 	private final BooleanProperty isScrolling  = new SimpleBooleanProperty(false);
 
 	private int resolution_ms 	  = 100;
+	private int bucket_pt         = 1;
+	private final double[] minmax = new double[2];
 
 	private int current_x_pt      = 0;
 	private int current_x0_pt     = 0;
@@ -207,11 +215,20 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 	private final List<IChartSyncControl> syncCharts;
 
 	private XYDataPool pool = null;
+
+	// Number of points added by each bucket shown in a series, oldest first
+	private final ArrayDeque<Integer> buckets1 = new ArrayDeque<Integer>();
+	private final ArrayDeque<Integer> buckets2 = new ArrayDeque<Integer>();
+	private final ArrayDeque<Integer> buckets3 = new ArrayDeque<Integer>();
 	private Group chartArea = null;
 
 	private boolean refreshRequest = false;
 	private boolean isRunning = false;
 
+	// Refreshes prepared by ChartWorkers, only the result of the latest one is swapped in
+	private int     prepare_generation = 0;
+	private boolean isPreparing        = false;
+
 	private long dashboard_update_tms = 0;
 	private long scroll_event_tms = 0; 
 
@@ -571,6 +588,7 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 					series1.setName(nv.desc1+"   ");
 				}
 				type1 = nv;
+				dataService.requireKeyFigures(this, this::updateRequest, type1, type2, type3);
 				prefs.putInt(MAVPreferences.LINECHART_FIG_1+id,nv.hash);
 				updateRequest();
 				//	updateRequest();
@@ -590,6 +608,7 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 					series2.setName(nv.desc1+"   ");
 				}
 				type2 = nv;
+				dataService.requireKeyFigures(this, this::updateRequest, type1, type2, type3);
 				prefs.putInt(MAVPreferences.LINECHART_FIG_2+id,nv.hash);
 				updateRequest();
 			}
@@ -608,6 +627,7 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 					series3.setName(nv.desc1+"   ");
 				}
 				type3 = nv;
+				dataService.requireKeyFigures(this, this::updateRequest, type1, type2, type3);
 				prefs.putInt(MAVPreferences.LINECHART_FIG_3+id,nv.hash);
 				updateRequest();
 				//updateGraph(true,0);
@@ -701,6 +721,7 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 			type1 = setKeyFigure(cseries1,preset.getKeyFigure(0));
 			type2 = setKeyFigure(cseries2,preset.getKeyFigure(1));
 			type3 = setKeyFigure(cseries3,preset.getKeyFigure(2));
+			dataService.requireKeyFigures(this, this::updateRequest, type1, type2, type3);
 			group.getSelectionModel().select(preset.getGroup());
 			bckgmode.getSelectionModel().select(preset.getAnnotation());
 			replay.set(0); updateRequest();
@@ -855,6 +876,7 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 		if(k2!=null) type2 = k2;
 		KeyFigureMetaData k3 = meta.getKeyFigureMap().get(prefs.getInt(MAVPreferences.LINECHART_FIG_3+id,0));
 		if(k3!=null) type3 = k3;
+		dataService.requireKeyFigures(this, this::updateRequest, type1, type2, type3);
 
 		meta.addObserver((o,e) -> {
 
@@ -885,19 +907,22 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 		});
 
 		this.getParent().disabledProperty().addListener((l,o,n) -> {
-			if(!n.booleanValue()) {
-				if(!state.getReplayingProperty().get()) {
-					if(state.getRecordingProperty().getValue().intValue() != AnalysisModelService.COLLECTING) {
-						int x1 =  dataService.calculateIndexByFactor(scroll.get());	
-						current_x0_pt = dataService.calculateX0Index(x1);
-					}
-					Platform.runLater(() -> {
-						refreshRequest = true;
-						updateGraph(refreshRequest,0);
-					});
-				} else {
-					updateGraph(true,replay.intValue());
+			if(n.booleanValue()) {
+				dataService.releaseKeyFigures(this);
+				return;
+			}
+			dataService.requireKeyFigures(this, this::updateRequest, type1, type2, type3);
+			if(!state.getReplayingProperty().get()) {
+				if(state.getRecordingProperty().getValue().intValue() != AnalysisModelService.COLLECTING) {
+					int x1 =  dataService.calculateIndexByFactor(scroll.get());	
+					current_x0_pt = dataService.calculateX0Index(x1);
 				}
+				Platform.runLater(() -> {
+					refreshRequest = true;
+					updateGraph(refreshRequest,0);
+				});
+			} else {
+				updateGraph(true,replay.intValue());
 			}
 		});
 
@@ -968,31 +993,27 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 		storeRecentList();
 	}
 
+	/*
+	 * One min/max bucket per pixel column (every second column while collecting, replaying or
+	 * scrolling). Bucket sizes are powers of two, so that each bucket is answered by a single
+	 * level of the min/max pyramid of the store.
+	 */
 	private void setXResolution(float frame) {
 
 		final int interval = dataService.getCollectorInterval_ms();
 		final boolean increaseResolution = dataService.isCollecting() || state.getReplayingProperty().get() || isScrolling.get();
 
-		if(frame >= 200) {
-			resolution_ms =  500;
-		}
-		else if(frame >= 100) {
-			resolution_ms = increaseResolution ? 200 : 2 * interval;
-			if(resolution_ms < 50)
-				resolution_ms = 50;
-		}
-		else if(frame >= 60) {
-			resolution_ms = increaseResolution ? 100 : interval;
-			if(resolution_ms < 20)
-				resolution_ms = 20;
-		}
-		else if(frame >= 30) { 
-			resolution_ms = increaseResolution ? 50  : interval;
-			if(resolution_ms < 20)
-				resolution_ms = 20;
-		}
-		else 
-			resolution_ms = increaseResolution ? 50  : interval;
+		double columns = linechart.getWidth() > 0 ? linechart.getWidth() : DEFAULT_WIDTH;
+		if(increaseResolution)
+			columns = columns / 2;
+
+		final float samples = frame * 1000f / interval;
+		int bucket = 1;
+		while(bucket * columns < samples)
+			bucket = bucket << 1;
+
+		bucket_pt     = bucket;
+		resolution_ms = bucket * interval;
 
 		timeframe = frame;
 
@@ -1024,17 +1045,23 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 	}
 
 	private void updateGraph(boolean refresh, int max_x0) {
-		float dt_sec = 0; AnalysisDataModel m =null; boolean set_bounds = false; double v1 ; double v2; double v3;
+		float dt_sec = 0; boolean set_bounds = false;
 		int max_x = 0; long slot_tms = 0;  
 
 		final int size               = dataService.getModelList().size();
 		final int collector_interval = dataService.getCollectorInterval_ms();
-		final int set_length         = resolution_ms/collector_interval;
+		final AnalysisDataModelStore store = dataService.getModelList();
 
 		if(isDisabled()) {
 			return;
 		}
 
+		// A full refresh of a recording not growing anymore is prepared off the FX thread
+		final boolean prepare = refresh && size > 0 && !dataService.isCollecting();
+
+		if(!refresh && isPreparing)
+			return;
+
 		if(refresh) {
 
 			if(dataService.size()==0 || (type1.hash == 0 && type2.hash == 0 && type3.hash == 0) ) {
@@ -1062,10 +1089,12 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 				series1.getData().remove(0,series1.getData().size()-1);
 				series2.getData().remove(0,series2.getData().size()-1);
 				series3.getData().remove(0,series3.getData().size()-1);
-			} else {
-				series1.getData().clear();
-				series2.getData().clear();
-				series3.getData().clear();
+				buckets1.clear(); buckets2.clear(); buckets3.clear();
+			} else if(!prepare) {
+				pool.clear(series1.getData());
+				pool.clear(series2.getData());
+				pool.clear(series3.getData());
+				buckets1.clear(); buckets2.clear(); buckets3.clear();
 			}
 
 			linechart.getAnnotations().clearAnnotations(Layer.FOREGROUND);
@@ -1117,6 +1146,12 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 				setDashboardData(dashboard3,type3, current_x0_pt,current_x1_pt);
 			}
 
+			if(prepare && max_x <= current_x1_pt + 1) {
+				prepareGraph(current_x_pt, max_x);
+				refreshRequest = false;
+				return;
+			}
+
 			slot_tms = System.currentTimeMillis();
 
 			if(type1.hash!=0) ((XYObservableListWrapper<?>)series1.getData()).begin();
@@ -1130,50 +1165,22 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 				if(current_x_pt >= dataService.getModelList().size())
 					continue;
 
-				m = dataService.getModelList().get(current_x_pt);
 				dt_sec = current_x_pt *  collector_interval / 1000f;
+				addAnnotation(store.getMessage(current_x_pt), current_x_pt, dt_sec);
 
-				if(m.msg!=null && current_x_pt > 0 && m.msg!=null && m.msg.text!=null
-						&& ( type1.hash!=0 || type2.hash!=0 || type3.hash!=0)
-						&& display_annotations) {
-
-					if((current_x_pt - last_annotation_pos) > 400 || yoffset > 12)
-						yoffset=0;
-
-					linechart.getAnnotations().add(new LineMessageAnnotation(this,dt_sec,yoffset++, m.msg,
-							(resolution_ms<300) && annotations.isSelected()),
-							Layer.FOREGROUND);
-					last_annotation_pos = current_x_pt;
-				}
-
-				if(((current_x_pt * collector_interval) % resolution_ms) == 0 && current_x_pt > 0) {
+				if((current_x_pt % bucket_pt) == 0 && current_x_pt > 0) {
 
 
 					if( (type1.hash!=0 || type2.hash!=0 || type3.hash!=0)) {
-						mode.updateModeData(dt_sec, m);
+						mode.updateModeData(dt_sec, store.get(current_x_pt));
 					}
 
-					if(type1.hash!=0)  {						
-						v1 = determineValueFromRange(current_x_pt,set_length,type1,false);
-						if(current_x_pt > current_x1_pt && series1.getData().size()>0 )
-							series1.getData().remove(0);
-						series1.getData().add(pool.checkOut(dt_sec,v1));
-
-					} 
-					if(type2.hash!=0)  {
-
-						v2 = determineValueFromRange(current_x_pt,set_length,type2,false);
-						if(current_x_pt > current_x1_pt && series2.getData().size()>0 )
-							series2.getData().remove(0);
-						series2.getData().add(pool.checkOut(dt_sec,v2));
-
-					}
-					if(type3.hash!=0)  {
-						v3 = determineValueFromRange(current_x_pt,set_length,type3,false);
-						if(current_x_pt > current_x1_pt && series3.getData().size()>0 )
-							series3.getData().remove(0);
-						series3.getData().add(pool.checkOut(dt_sec,v3));
-					}
+					if(type1.hash!=0)
+						addBucket(series1, buckets1, type1, current_x_pt, dt_sec);
+					if(type2.hash!=0)
+						addBucket(series2, buckets2, type2, current_x_pt, dt_sec);
+					if(type3.hash!=0)
+						addBucket(series3, buckets3, type3, current_x_pt, dt_sec);
 				}
 
 
@@ -1211,8 +1218,10 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 
 		d.setKeyFigure(kf);
 
-		for(int i =x0; i < x1 && i< dataService.getModelList().size();i++) {
-			val = dataService.getModelList().get(i).getValue(kf);
+		final AnalysisDataModelStore store = dataService.getModelList();
+
+		for(int i =x0; i < x1 && i< store.size();i++) {
+			val = store.getValue(i, kf);
 			if(!Double.isNaN(val) && !Double.isInfinite(val)) {
 				if(val<_min || Double.isNaN(_min)) _min = val;
 				if(val>_max || Double.isNaN(_max)) _max = val;
@@ -1223,8 +1232,8 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 		d.setMinMax(_min, _max);
 		if(count>0) {
 			mean = _avg / count; std = 0;
-			for(int i = x0; i < x1 && i< dataService.getModelList().size();i++) {
-				val = dataService.getModelList().get(i).getValue(kf);
+			for(int i = x0; i < x1 && i< store.size();i++) {
+				val = store.getValue(i, kf);
 				std = std + (val - mean) * (val - mean);
 			}
 			std = (float)Math.sqrt(std / count);
@@ -1337,47 +1346,202 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 		if(recent==null)
 			recent = new ArrayList<KeyFigureMetaData>();
 
+		// Use the registered instances to have their slots assigned
+		for(int i=0; i<recent.size();i++) {
+			final KeyFigureMetaData k = meta.getKeyFigureMap().get(recent.get(i).hash);
+			if(k!=null)
+				recent.set(i, k);
+		}
+
 	}
 
 	/*
-	 * Determines spikes or average, if not all datapoints are reported.
+	 * Builds the coordinates of all series from x0 to max_x on a chart worker and swaps them
+	 * into the series at once on the FX thread. Incremental updates wait for the swap and continue
+	 * at max_x. The worker does not touch chart data, points are checked out of the pool on the
+	 * FX thread only.
 	 */
-	private double determineValueFromRange(int current_x, int length, KeyFigureMetaData m, boolean average) {
+	private void prepareGraph(int x0, int max_x) {
 
-		try {
+		final AnalysisDataModelStore store = dataService.getModelList();
+		final KeyFigureMetaData[] types = { type1, type2, type3 };
+		final int bucket   = bucket_pt;
+		final int interval = dataService.getCollectorInterval_ms();
+		final int generation = ++prepare_generation;
+
+		isPreparing = true;
+
+		ChartWorkers.prepare(() -> {
+			final double[] mm = new double[2];
+			final List<Points> points = new ArrayList<Points>(types.length);
+			for(KeyFigureMetaData type : types) {
+				final Points data = new Points(type.hash!=0 ? 2 * (max_x - x0) / bucket + 2 : 0);
+				if(type.hash!=0) {
+					for(int x = Math.max(x0, 1); x < max_x; x++) {
+						if(x % bucket == 0)
+							addBucket(store, data, type, x, bucket, x * interval / 1000f, mm);
+					}
+				}
+				points.add(data);
+			}
+			return points;
+		}, (points) -> {
+			if(generation != prepare_generation)
+				return;
+			isPreparing = false;
+			if(points == null || isDisabled())
+				return;
 
-			final double v_current_x = dataService.getModelList().get(current_x).getValue(m);
+			swap(series1, buckets1, type1, points.get(0));
+			swap(series2, buckets2, type2, points.get(1));
+			swap(series3, buckets3, type3, points.get(2));
 
+			for(int x = x0; x < max_x && x < store.size(); x++) {
+				final float dt_sec = x * interval / 1000f;
+				if(x > 0 && x % bucket == 0 && (type1.hash!=0 || type2.hash!=0 || type3.hash!=0))
+					mode.updateModeData(dt_sec, store.get(x));
+				addAnnotation(store.getMessage(x), x, dt_sec);
+			}
+			current_x_pt = Math.max(current_x_pt, max_x);
+		});
+	}
 
-			if(dataService.getModelList().size() < length || Double.isNaN(v_current_x))
-				return Double.NaN;
+	private void swap(XYChart.Series<Number,Number> series, ArrayDeque<Integer> buckets, KeyFigureMetaData type, Points points) {
+		buckets.clear();
+		if(type.hash==0) {
+			pool.clear(series.getData());
+			return;
+		}
+		final List<Data<Number,Number>> data = new ArrayList<Data<Number,Number>>(points.size);
+		for(int i = 0; i < points.size; i++)
+			data.add(pool.checkOut(points.x[i], points.y[i]));
+		for(int i = 0; i < points.buckets; i++)
+			buckets.addLast(points.counts[i]);
+		pool.replace(series.getData(), data);
+	}
 
-			if(length < 3)
-				return v_current_x;
+	private void addAnnotation(LogMessage msg, int x, float dt_sec) {
 
-			double a = 0; double v;
+		if(msg!=null && x > 0 && msg.text!=null
+				&& ( type1.hash!=0 || type2.hash!=0 || type3.hash!=0)
+				&& display_annotations) {
 
-			if(average) {
-				a = v_current_x;
-				for(int i=current_x-length+1;i<current_x;i++)
-					a = a + dataService.getModelList().get(i).getValue(m);
-				return a / length;
+			if((x - last_annotation_pos) > 400 || yoffset > 12)
+				yoffset=0;
 
-			} else {
+			linechart.getAnnotations().add(new LineMessageAnnotation(this,dt_sec,yoffset++, msg,
+					(resolution_ms<300) && annotations.isSelected()),
+					Layer.FOREGROUND);
+			last_annotation_pos = x;
+		}
+	}
 
-				int peak_index=current_x;
-				double max = Math.abs(v_current_x);
+	/*
+	 * Adds min and max of the bucket ending at current_x, so that no spike is lost if not all
+	 * datapoints are reported. The extreme closer to the previous point is added first.
+	 * When scrolling, the points of the oldest bucket are removed at the start.
+	 */
+	private void addBucket(XYChart.Series<Number,Number> series, ArrayDeque<Integer> buckets, KeyFigureMetaData m,
+			int current_x, float dt_sec) {
 
-				for(int i=current_x-length+1;i<current_x;i++) {
-					v = Math.abs(dataService.getModelList().get(i).getValue(m));
-					if(v>max && v != Float.NaN)
-						max = v; peak_index = i;
-				}
-				return dataService.getModelList().get(peak_index).getValue(m);
-			}
+		final ObservableList<Data<Number,Number>> data = series.getData();
+
+		if(current_x > current_x1_pt && !buckets.isEmpty()) {
+			final int count = buckets.pollFirst();
+			for(int i = 0; i < count && data.size() > 0; i++)
+				pool.invalidate(data.remove(0));
+		}
+		buckets.addLast(addBucket(dataService.getModelList(), data, m, current_x, bucket_pt, dt_sec, minmax));
+	}
+
+	/*
+	 * Returns the number of points added
+	 */
+	private int addBucket(AnalysisDataModelStore store, List<Data<Number,Number>> data, KeyFigureMetaData m,
+			int current_x, int bucket, float dt_sec, double[] mm) {
+
+		if(getBucket(store, m, current_x, bucket, mm) == 1) {
+			data.add(pool.checkOut(dt_sec,mm[0]));
+			return 1;
+		}
+
+		final double last = data.isEmpty() ? Double.NaN : data.get(data.size()-1).getYValue().doubleValue();
+		if(Math.abs(last - mm[1]) < Math.abs(last - mm[0])) {
+			data.add(pool.checkOut(dt_sec,mm[1]));
+			data.add(pool.checkOut(dt_sec,mm[0]));
+		} else {
+			data.add(pool.checkOut(dt_sec,mm[0]));
+			data.add(pool.checkOut(dt_sec,mm[1]));
+		}
+		return 2;
+	}
+
+	/*
+	 * Same as above for the coordinates prepared by a chart worker
+	 */
+	private static void addBucket(AnalysisDataModelStore store, Points data, KeyFigureMetaData m,
+			int current_x, int bucket, float dt_sec, double[] mm) {
+
+		if(getBucket(store, m, current_x, bucket, mm) == 1) {
+			data.add(dt_sec,mm[0]);
+			data.endBucket(1);
+			return;
+		}
+
+		final double last = data.size == 0 ? Double.NaN : data.y[data.size-1];
+		if(Math.abs(last - mm[1]) < Math.abs(last - mm[0])) {
+			data.add(dt_sec,mm[1]);
+			data.add(dt_sec,mm[0]);
+		} else {
+			data.add(dt_sec,mm[0]);
+			data.add(dt_sec,mm[1]);
+		}
+		data.endBucket(2);
+	}
 
-		} catch(IndexOutOfBoundsException o) {
-			return Double.NaN;
+	/*
+	 * Min and max of the bucket ending at current_x into mm, returns the number of points
+	 */
+	private static int getBucket(AnalysisDataModelStore store, KeyFigureMetaData m, int current_x, int bucket, double[] mm) {
+		if(bucket == 1) {
+			mm[0] = store.getValue(current_x, m);
+			mm[1] = mm[0];
+		} else
+			store.getMinMax(m, current_x - bucket, bucket, mm);
+		return (mm[0] == mm[1] || Double.isNaN(mm[0])) ? 1 : 2;
+	}
+
+	/*
+	 * Coordinates of a series prepared off the FX thread and the number of points of each bucket
+	 */
+	private static final class Points {
+
+		double[] x;
+		double[] y;
+		int      size = 0;
+		int[]    counts;
+		int      buckets = 0;
+
+		Points(int capacity) {
+			x = new double[Math.max(capacity, 2)];
+			y = new double[x.length];
+			counts = new int[x.length / 2 + 1];
+		}
+
+		void endBucket(int count) {
+			if(buckets == counts.length)
+				counts = Arrays.copyOf(counts, buckets * 2);
+			counts[buckets++] = count;
+		}
+
+		void add(double xv, double yv) {
+			if(size == x.length) {
+				x = Arrays.copyOf(x, size * 2);
+				y = Arrays.copyOf(y, size * 2);
+			}
+			x[size] = xv;
+			y[size] = Double.isNaN(yv) ? 0 : yv;
+			size++;
 		}
 	}
 
@@ -0,0 +1,458 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2018 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.ui.widgets.charts.spectrogram;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.comino.analysis.RealFFT;
+import com.comino.analysis.Spectrogram;
+import com.comino.flight.FXMLLoadHelper;
+import com.comino.flight.file.KeyFigurePreset;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.AnalysisDataModelStore;
+import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.flight.model.service.AnalysisModelService;
+import com.comino.flight.observables.StateProperties;
+import com.comino.flight.ui.widgets.charts.IChartControl;
+import com.comino.jfx.extensions.ChartControlPane;
+import com.comino.mavcom.control.IMAVController;
+
+import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.FloatProperty;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.SimpleFloatProperty;
+import javafx.fxml.FXML;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.Label;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.Pane;
+import javafx.scene.shape.Line;
+
+/*
+ * Spectrogram of a keyfigure over the whole recorded or loaded flight. The frames are
+ * transformed in parallel on a dedicated pool, the matrix of a keyfigure is cached until the
+ * data changes and rendered into an image: time from left to right, frequency bottom up.
+ */
+
+public class SpectrogramWidget extends BorderPane implements IChartControl {
+
+	public static final int CHART_ID = 10;
+
+	private static final Integer[] SIZES      = { 128, 256, 512, 1024, 2048 };
+	private static final Integer[] RANGES     = { 40, 60, 80, 100 };
+	private static final int       MAX_FRAMES = 4096;
+	private static final int       CACHED     = 8;
+
+	private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+	private static final AtomicInteger  count = new AtomicInteger();
+	private static final ExecutorService pool = Executors.newFixedThreadPool(THREADS, r -> {
+		final Thread t = new Thread(r, "Spectrogram worker "+count.incrementAndGet());
+		t.setDaemon(true);
+		t.setPriority(Thread.NORM_PRIORITY - 1);
+		return t;
+	});
+
+	// Colormap from black over blue, red and orange to light yellow
+	private static final int[] STOPS    = { 0x000000, 0x201080, 0xb02060, 0xf09020, 0xfff0a0 };
+	private static final int[] COLORMAP = new int[256];
+
+	static {
+		for(int i = 0; i < COLORMAP.length; i++) {
+			final float p = (float)i / (COLORMAP.length - 1) * (STOPS.length - 1);
+			final int   s = Math.min((int)p, STOPS.length - 2);
+			final float f = p - s;
+			int argb = 0xFF000000;
+			for(int shift = 16; shift >= 0; shift -= 8) {
+				final int a = (STOPS[s] >> shift) & 0xFF, b = (STOPS[s+1] >> shift) & 0xFF;
+				argb |= Math.round(a + (b - a) * f) << shift;
+			}
+			COLORMAP[i] = argb;
+		}
+	}
+
+	@FXML
+	private Pane plot;
+
+	@FXML
+	private ImageView image;
+
+	@FXML
+	private Line cursor;
+
+	@FXML
+	private Label fmin;
+
+	@FXML
+	private Label fmax;
+
+	@FXML
+	private ChoiceBox<String> group;
+
+	@FXML
+	private ChoiceBox<KeyFigureMetaData> keyfigure;
+
+	@FXML
+	private ChoiceBox<Integer> fftsize;
+
+	@FXML
+	private ChoiceBox<Integer> range;
+
+	@FXML
+	private Label info;
+
+
+	private FloatProperty   scroll       = new SimpleFloatProperty(0);
+	private FloatProperty   replay       = new SimpleFloatProperty(0);
+
+	// Matrices of the recent keyfigures and FFT sizes
+	private final Map<Long,Spectrogram> cache = new LinkedHashMap<Long,Spectrogram>(CACHED, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long,Spectrogram> eldest) {
+			return size() > CACHED;
+		}
+	};
+
+	private final AtomicInteger generation = new AtomicInteger();
+
+	private AnalysisModelService      dataService = AnalysisModelService.getInstance();
+	private AnalysisDataModelMetaData meta        = AnalysisDataModelMetaData.getInstance();
+	private StateProperties           state       = null;
+
+	private Spectrogram shown       = null;
+	private int         sample_rate = 0;
+
+
+	public SpectrogramWidget() {
+		FXMLLoadHelper.load(this, "SpectrogramWidget.fxml");
+	}
+
+	@FXML
+	private void initialize() {
+
+		image.fitWidthProperty().bind(plot.widthProperty());
+		image.fitHeightProperty().bind(plot.heightProperty());
+		fmin.layoutYProperty().bind(plot.heightProperty().subtract(20));
+
+		cursor.setStartY(0);
+		cursor.endYProperty().bind(plot.heightProperty());
+
+		fftsize.getItems().addAll(SIZES);
+		fftsize.getSelectionModel().select(Integer.valueOf(512));
+
+		range.getItems().addAll(RANGES);
+		range.getSelectionModel().select(Integer.valueOf(60));
+
+		sample_rate = 1000 / dataService.getCollectorInterval_ms();
+
+		group.getSelectionModel().selectedItemProperty().addListener((observable, ov, nv) -> {
+			if(nv==null)
+				return;
+			if(nv.contains("All"))
+				initKeyFigureSelection(meta.getKeyFigures());
+			else
+				initKeyFigureSelection(meta.getGroupMap().get(nv));
+		});
+
+		keyfigure.getSelectionModel().selectedItemProperty().addListener((observable, ov, nv) -> {
+			if(nv!=null && nv.hash!=0)
+				dataService.requireKeyFigures(this, this::refreshChart, nv);
+			updateSpectrogram();
+		});
+
+		fftsize.getSelectionModel().selectedItemProperty().addListener((observable, ov, nv) -> {
+			updateSpectrogram();
+		});
+
+		range.getSelectionModel().selectedItemProperty().addListener((observable, ov, nv) -> {
+			updateSpectrogram();
+		});
+
+	}
+
+	public SpectrogramWidget setup(IMAVController control) {
+
+		state = StateProperties.getInstance();
+
+		group.getItems().add("All");
+		group.getItems().addAll(meta.getGroups());
+		group.getSelectionModel().select(0);
+
+		this.disabledProperty().addListener((v,o,n) -> {
+			if(n.booleanValue()) {
+				dataService.releaseKeyFigures(this);
+				return;
+			}
+			final KeyFigureMetaData kf = keyfigure.getSelectionModel().getSelectedItem();
+			if(kf!=null && kf.hash!=0)
+				dataService.requireKeyFigures(this, this::refreshChart, kf);
+			updateSpectrogram();
+		});
+
+		state.getLogULOGProperty().addListener((e,o,n) -> {
+			final String nv = group.getSelectionModel().getSelectedItem();
+			if(nv==null || nv.contains("All"))
+				initKeyFigureSelection(meta.getKeyFigures());
+			else
+				initKeyFigureSelection(meta.getGroupMap().get(nv));
+		});
+
+		state.getLogLoadedProperty().addListener((p,o,n) -> {
+			if(n.booleanValue())
+				refreshChart();
+		});
+
+		state.getRecordingProperty().addListener((p,o,n) -> {
+			if(n.intValue()==0)
+				refreshChart();
+		});
+
+		scroll.addListener((v, ov, nv) -> {
+			Platform.runLater(() -> {
+				setCursor(dataService.calculateIndexByFactor(nv.floatValue()) - 1);
+			});
+		});
+
+		replay.addListener((v, ov, nv) -> {
+			Platform.runLater(() -> {
+				setCursor(nv.intValue());
+			});
+		});
+
+		ChartControlPane.addChart(CHART_ID,this);
+
+		return this;
+	}
+
+	private void initKeyFigureSelection(List<KeyFigureMetaData> kfl) {
+
+		if(kfl==null)
+			return;
+
+		Platform.runLater(() -> {
+			final boolean ulog = state.getLogULOGProperty().get();
+			final KeyFigureMetaData selected = keyfigure.getSelectionModel().getSelectedItem();
+			keyfigure.getItems().clear();
+			keyfigure.getItems().add(new KeyFigureMetaData());
+			kfl.forEach(k -> {
+				if(ulog  && k.isULOG) keyfigure.getItems().add(k);
+				if(!ulog && k.isMSP)  keyfigure.getItems().add(k);
+			});
+			if(selected!=null && keyfigure.getItems().contains(selected))
+				keyfigure.getSelectionModel().select(selected);
+			else
+				keyfigure.getSelectionModel().select(0);
+		});
+	}
+
+	/*
+	 * Calculates the spectrogram of the selected keyfigure on the spectrogram pool, unless it is
+	 * cached, and renders it there once all frames are transformed. No thread waits for the
+	 * transformation. Results of selections changed meanwhile are dropped.
+	 */
+	private void updateSpectrogram() {
+
+		final KeyFigureMetaData kf  = keyfigure.getSelectionModel().getSelectedItem();
+		final Integer         size  = fftsize.getSelectionModel().getSelectedItem();
+		final Integer           db  = range.getSelectionModel().getSelectedItem();
+		final int              gen  = generation.incrementAndGet();
+
+		if(isDisabled())
+			return;
+
+		final AnalysisDataModelStore list = dataService.getModelList();
+		final double[] column = kf != null && kf.hash != 0 ? list.getColumn(kf) : null;
+		final int samples = list.size();
+
+		if(column == null || size == null || db == null || samples < size) {
+			clear();
+			return;
+		}
+
+		info.setText("Calculating...");
+
+		getSpectrogram(kf, column, samples, size).thenApplyAsync(s -> {
+			if(s.getFrames() == 0 || gen != generation.get())
+				return null;
+			return new Rendered(s, db);
+		}, pool).whenComplete((r, failure) -> {
+			if(failure != null)
+				failure.printStackTrace();
+			Platform.runLater(() -> show(gen, r));
+		});
+	}
+
+	private void show(int gen, Rendered r) {
+		if(gen != generation.get())
+			return;
+		if(r == null) {
+			clear();
+			return;
+		}
+		final WritableImage img = new WritableImage(r.width, r.height);
+		img.getPixelWriter().setPixels(0, 0, r.width, r.height, PixelFormat.getIntArgbInstance(),
+				r.pixels, 0, r.width);
+		image.setImage(img);
+		shown = r.spectrogram;
+		fmin.setText("0 Hz");
+		fmax.setText(String.format("%.1f Hz", sample_rate / 2f));
+		info.setText(String.format("Resolution: %.2f Hz\nFrames: %d\nPeak: %.1f dB",
+				(float)sample_rate / shown.timeSize(), shown.getFrames(), shown.getMax()));
+	}
+
+	private CompletableFuture<Spectrogram> getSpectrogram(KeyFigureMetaData kf, double[] column, int samples, int size) {
+		final Long key = ((long)kf.hash << 32) | size;
+		synchronized(cache) {
+			final Spectrogram s = cache.get(key);
+			if(s != null && s.getLength() == samples)
+				return CompletableFuture.completedFuture(s);
+		}
+
+		// Frames overlap by 75% unless the image would get too wide
+		final int hop = Math.max(size / 4, (samples - size) / (MAX_FRAMES - 1) + 1);
+		return Spectrogram.compute(column, 0, samples, size, hop, RealFFT.HANN, pool, THREADS).thenApply(s -> {
+			synchronized(cache) {
+				cache.put(key, s);
+			}
+			return s;
+		});
+	}
+
+	private void clear() {
+		shown = null;
+		image.setImage(null);
+		cursor.setVisible(false);
+		fmin.setText("");
+		fmax.setText("");
+		info.setText("");
+	}
+
+	private void setCursor(int index) {
+		if(shown == null || index < 0) {
+			cursor.setVisible(false);
+			return;
+		}
+		final double frame = (index - shown.timeSize() / 2.0) / shown.getHop();
+		final double x = plot.getWidth() * Math.max(0, Math.min(1, (frame + 0.5) / shown.getFrames()));
+		cursor.setStartX(x);
+		cursor.setEndX(x);
+		cursor.setVisible(true);
+	}
+
+
+	@Override
+	public IntegerProperty getTimeFrameProperty() {
+		return null;
+	}
+
+	@Override
+	public FloatProperty getScrollProperty() {
+		return scroll;
+	}
+
+	@Override
+	public FloatProperty getReplayProperty() {
+		return replay;
+	}
+
+	@Override
+	public BooleanProperty getIsScrollingProperty() {
+		return null;
+	}
+
+	@Override
+	public void refreshChart() {
+		synchronized(cache) {
+			cache.clear();
+		}
+		Platform.runLater(() -> {
+			sample_rate = 1000 / dataService.getCollectorInterval_ms();
+			updateSpectrogram();
+		});
+	}
+
+	@Override
+	public KeyFigurePreset getKeyFigureSelection() {
+		return null;
+	}
+
+	@Override
+	public void setKeyFigureSelection(KeyFigurePreset preset) {
+
+	}
+
+	/*
+	 * The spectrogram as image pixels, one column per frame
+	 */
+	private static class Rendered {
+
+		final Spectrogram spectrogram;
+		final int         width;
+		final int         height;
+		final int[]       pixels;
+
+		Rendered(Spectrogram s, int db) {
+			this.spectrogram = s;
+			this.width  = s.getFrames();
+			this.height = s.getBins();
+			this.pixels = new int[width * height];
+
+			final float[] data   = s.getData();
+			final float   top    = s.getMax();
+			final float   bottom = Math.max(s.getMin(), top - db);
+			final float   scale  = top > bottom ? (COLORMAP.length - 1) / (top - bottom) : 0;
+
+			for(int frame = 0; frame < width; frame++) {
+				final int row = frame * height;
+				for(int bin = 0; bin < height; bin++) {
+					final int c = (int)((data[row + bin] - bottom) * scale);
+					pixels[(height - 1 - bin) * width + frame] = COLORMAP[c < 0 ? 0 : c >= COLORMAP.length ? COLORMAP.length - 1 : c];
+				}
+			}
+		}
+	}
+}
@@ -34,47 +34,101 @@
 
 package com.comino.flight.ui.widgets.charts.utils;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
-
-import com.comino.flight.observables.StateProperties;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
 
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+import javafx.scene.Node;
 import javafx.scene.chart.XYChart;
 
+/*
+ * Bounded pool of chart data points. Points removed from a series are returned to the pool
+ * and reused by the next checkOut(), so that refreshes do not create new points once the
+ * pool is filled.
+ *
+ * Must be used on the FX thread only: a point keeps a reference to its former series and
+ * changing its values notifies that chart. Points are pooled only after they have been
+ * removed from their series and their node is out of the chart, points still displayed
+ * (e.g. by a removal animation) are dropped. Chart workers prepare plain coordinates and
+ * check out the points in the swap.
+ */
+
 public class XYDataPool {
 
+	private static final int MAX_POOLED = 20000;
 
-	public XYDataPool() {
+	private final ArrayDeque<XYChart.Data<Number,Number>> pooled = new ArrayDeque<XYChart.Data<Number,Number>>();
 
-	    // Preallocate Data objects for JVM
-		for(int i=0;i<50000;i++) {
-			new XYChart.Data<Number,Number>(0,0);
-		}
-	}
-
-	public  XYChart.Data<Number,Number> checkOut(double x, double y)
+	public XYChart.Data<Number,Number> checkOut(double x, double y)
 	{
-		XYChart.Data<Number,Number> o;
-		if(!Double.isNaN(y)) {
-			o = new XYChart.Data<Number,Number>(x,y);
-			return o;
-		}
+		assert Platform.isFxApplicationThread() : "XYDataPool used off the FX thread";
 
-		o = new XYChart.Data<Number,Number>(x,0);
-		return o;
+		final XYChart.Data<Number,Number> o = pooled.poll();
+		if(o == null)
+			return new XYChart.Data<Number,Number>(x, Double.isNaN(y) ? 0 : y);
 
+		o.setXValue(x);
+		o.setYValue(Double.isNaN(y) ? 0 : y);
+		return o;
 	}
 
 	public void invalidate(XYChart.Data<Number,Number> o) {
+		assert Platform.isFxApplicationThread() : "XYDataPool used off the FX thread";
+		recycle(o);
+	}
 
+	public void invalidateAll(Collection<XYChart.Data<Number,Number>> c) {
+		assert Platform.isFxApplicationThread() : "XYDataPool used off the FX thread";
+		for(XYChart.Data<Number,Number> o : c) {
+			if(pooled.size() >= MAX_POOLED)
+				break;
+			recycle(o);
+		}
 	}
 
-	public  void invalidateAll() {
+	/*
+	 * Removes all points from the series data and returns them to the pool
+	 */
+	@SuppressWarnings("unchecked")
+	public void clear(List<XYChart.Data<Number,Number>> data) {
+		assert Platform.isFxApplicationThread() : "XYDataPool used off the FX thread";
+		if(data.isEmpty())
+			return;
+		final Object[] old = data.toArray();
+		data.clear();
+		for(int i = 0; i < old.length && pooled.size() < MAX_POOLED; i++)
+			recycle((XYChart.Data<Number,Number>)old[i]);
+	}
+
+	/*
+	 * Replaces the series data by points in a single change and returns the previous points
+	 * to the pool
+	 */
+	@SuppressWarnings("unchecked")
+	public void replace(ObservableList<XYChart.Data<Number,Number>> data, Collection<XYChart.Data<Number,Number>> points) {
+		assert Platform.isFxApplicationThread() : "XYDataPool used off the FX thread";
+		final Object[] old = data.toArray();
+		data.setAll(points);
+		for(int i = 0; i < old.length && pooled.size() < MAX_POOLED; i++)
+			recycle((XYChart.Data<Number,Number>)old[i]);
+	}
 
+	public int getPooledSize() {
+		return pooled.size();
 	}
 
-	public int getLockedSize() {
-		return 0;
+	/*
+	 * Pools a point removed from its series if it is no longer displayed
+	 */
+	private void recycle(XYChart.Data<Number,Number> o) {
+		if(o == null || pooled.size() >= MAX_POOLED)
+			return;
+		final Node node = o.getNode();
+		if(node != null && node.getParent() != null)
+			return;
+		pooled.push(o);
 	}
 
 }
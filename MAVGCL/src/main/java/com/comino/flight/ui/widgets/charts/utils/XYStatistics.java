@@ -33,9 +33,7 @@
 
 package com.comino.flight.ui.widgets.charts.utils;
 
-import java.util.List;
-
-import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.AnalysisDataModelStore;
 import com.comino.flight.model.KeyFigureMetaData;
 
 public class XYStatistics {
@@ -59,22 +57,34 @@ public class XYStatistics {
 		this.fx = fx; this.fy=fy;
 	}
 
-	public void getStatistics(int x0, int x1, List<AnalysisDataModel> list) {
+	public void getStatistics(int x0, int x1, AnalysisDataModelStore store) {
 		float vx=0; float vy=0; int i=0; double rad=0;
 
-		x1 =  list.size() < x1 ? list.size()-1 : x1-1;
+		final int size = store.size();
+
+		x1 =  size < x1 ? size-1 : x1-1;
 
-		if(list.size() < 20 || fx == null || fy == null || fx.hash==0 || fy.hash==0)
+		if(size < 20 || fx == null || fy == null || fx.hash==0 || fy.hash==0)
 			return;
 
+		final double[] cx = store.getColumn(fx);
+		final double[] cy = store.getColumn(fy);
+
+		if(cx == null || cy == null) {
+			radius = Float.NaN; distance = Float.NaN; stddev_xy = Float.NaN;
+			center_x = Double.NaN;
+			center_y = Double.NaN;
+			return;
+		}
+
 		for(i = x0; i<= x1;i++) {
-			vx += list.get(i).getValue(fx);
-			vy += list.get(i).getValue(fy);
+			vx += cx[i];
+			vy += cy[i];
 		}
 		if(Float.isNaN(vx) || Float.isNaN(vy)) {
 			radius = Float.NaN; distance = Float.NaN; stddev_xy = Float.NaN;
-			center_x = list.get(x1).getValue(fx);
-			center_y = list.get(x1).getValue(fy);
+			center_x = cx[x1];
+			center_y = cy[x1];
 			return;
 		} else {
 			center_x = vx / (i - x0);
@@ -84,12 +94,12 @@ public class XYStatistics {
 		vx = 0; vy = 0;
 		for(i = x1-20; i< x1 ;i++) {
 			if(i>0) {
-				vx += (list.get(i).getValue(fx) - center_x) * (list.get(i).getValue(fx) - center_x);
-				vy += (list.get(i).getValue(fy) - center_y) * (list.get(i).getValue(fy) - center_y);
-				if(Math.abs(list.get(i).getValue(fx)-center_x) > radius)
-					rad = Math.abs(list.get(i).getValue(fx)-center_x);
-				if(Math.abs(list.get(i).getValue(fy)-center_y) > radius)
-					rad = Math.abs(list.get(i).getValue(fy)-center_y);
+				vx += (cx[i] - center_x) * (cx[i] - center_x);
+				vy += (cy[i] - center_y) * (cy[i] - center_y);
+				if(Math.abs(cx[i]-center_x) > radius)
+					rad = Math.abs(cx[i]-center_x);
+				if(Math.abs(cy[i]-center_y) > radius)
+					rad = Math.abs(cy[i]-center_y);
 			}
 
 		}
@@ -99,10 +109,8 @@ public class XYStatistics {
 		stddev_y =Math.sqrt( vy / (i - x0));
 
 		distance =  Math.sqrt(
-				(list.get(0).getValue(fx) - list.get(x1).getValue(fx)) *
-				(list.get(0).getValue(fx) - list.get(x1).getValue(fx)) +
-				(list.get(0).getValue(fy) - list.get(x1).getValue(fy)) *
-				(list.get(0).getValue(fy) - list.get(x1).getValue(fy)));
+				(cx[0] - cx[x1]) * (cx[0] - cx[x1]) +
+				(cy[0] - cy[x1]) * (cy[0] - cy[x1]));
 
 		stddev_xy = Math.sqrt(stddev_x*stddev_x+stddev_y*stddev_y);
 	}
@@ -48,6 +48,7 @@ import com.comino.flight.FXMLLoadHelper;
 import com.comino.flight.file.KeyFigurePreset;
 import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.AnalysisDataModelStore;
 import com.comino.flight.model.KeyFigureMetaData;
 import com.comino.flight.model.service.AnalysisModelService;
 import com.comino.flight.model.service.ICollectorRecordingListener;
@@ -522,6 +523,7 @@ public class XYChartWidget extends BorderPane implements IChartControl, ICollect
 			String x_desc = "";
 			if(nv!=null) {
 				type1_x = nv;
+				dataService.requireKeyFigures(this, this::updateRequest, type1_x, type1_y, type2_x, type2_y);
 
 				if(type1_x.hash!=0)
 					x_desc = x_desc + type1_x.desc1+" ["+type1_x.uom+"] ";
@@ -539,6 +541,7 @@ public class XYChartWidget extends BorderPane implements IChartControl, ICollect
 			String y_desc = "";
 			if(nv!=null) {
 				type1_y = nv;
+				dataService.requireKeyFigures(this, this::updateRequest, type1_x, type1_y, type2_x, type2_y);
 
 				if(type1_y.hash!=0)
 					y_desc = y_desc + type1_y.desc1+" ["+type1_y.uom+"] ";
@@ -554,6 +557,7 @@ public class XYChartWidget extends BorderPane implements IChartControl, ICollect
 			String x_desc = "";
 			if(nv!=null) {
 				type2_x = nv;
+				dataService.requireKeyFigures(this, this::updateRequest, type1_x, type1_y, type2_x, type2_y);
 				if(type1_x.hash!=0)
 					x_desc = x_desc + type1_x.desc1+" ["+type1_x.uom+"] ";
 				if(type2_x.hash!=0)
@@ -571,6 +575,7 @@ public class XYChartWidget extends BorderPane implements IChartControl, ICollect
 			String y_desc = "";
 			if(nv!=null) {
 				type2_y = nv;
+				dataService.requireKeyFigures(this, this::updateRequest, type1_x, type1_y, type2_x, type2_y);
 				if(type1_y.hash!=0)
 					y_desc = y_desc + type1_y.desc1+" ["+type1_y.uom+"] ";
 				if(type2_y.hash!=0)
@@ -860,7 +865,7 @@ public class XYChartWidget extends BorderPane implements IChartControl, ICollect
 			rotation_rad = -control.getCurrentModel().attitude.y;
 		}
 
-		List<AnalysisDataModel> mList = dataService.getModelList();
+		AnalysisDataModelStore mList = dataService.getModelList();
 		if(mList==null) {
 			return;
 		}
@@ -880,10 +885,9 @@ public class XYChartWidget extends BorderPane implements IChartControl, ICollect
 				if(series2.getData().size()>0)
 					series2.getData().remove(0,series2.getData().size()-1);
 			} else {
-				series1.getData().clear();
-				series2.getData().clear();
+				pool.clear(series1.getData());
+				pool.clear(series2.getData());
 			}
-			pool.invalidateAll();
 			synchronized(this) {
 				xychart.getData().clear();
 				xychart.getData().add(series1);
@@ -1078,12 +1082,10 @@ public class XYChartWidget extends BorderPane implements IChartControl, ICollect
 						current_x1_pt += resolution_ms / dataService.getCollectorInterval_ms();
 
 						if(series1.getData().size()>0) {
-							pool.invalidate(series1.getData().get(0));
-							series1.getData().remove(0);
+							pool.invalidate(series1.getData().remove(0));
 						}
 						if(series2.getData().size()>0) {
-							pool.invalidate(series2.getData().get(0));
-							series2.getData().remove(0);
+							pool.invalidate(series2.getData().remove(0));
 						}
 					}
 
@@ -1166,7 +1168,10 @@ public class XYChartWidget extends BorderPane implements IChartControl, ICollect
 		//		}, 0, 1, TimeUnit.SECONDS);
 
 		this.disabledProperty().addListener((l,o,n) -> {
-			if(!n.booleanValue()) {
+			if(n.booleanValue()) {
+				dataService.releaseKeyFigures(this);
+			} else {
+				dataService.requireKeyFigures(this, this::updateRequest, type1_x, type1_y, type2_x, type2_y);
 				wq.addSingleTask("LP",100, () -> {
 					Platform.runLater(() -> {
 						if(!state.getReplayingProperty().get()) {
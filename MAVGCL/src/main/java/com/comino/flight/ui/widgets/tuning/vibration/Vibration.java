@@ -33,16 +33,22 @@
 
 package com.comino.flight.ui.widgets.tuning.vibration;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 
-import com.comino.analysis.FFT;
+import com.comino.analysis.RealFFT;
 import com.comino.flight.FXMLLoadHelper;
 import com.comino.flight.file.KeyFigurePreset;
+import com.comino.flight.log.ulog.ULogRawSamples;
 import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.AnalysisDataModelStore;
+import com.comino.flight.model.KeyFigureMetaData;
 import com.comino.flight.model.service.AnalysisModelService;
 import com.comino.flight.model.service.ICollectorRecordingListener;
 import com.comino.flight.observables.StateProperties;
 import com.comino.flight.ui.widgets.charts.IChartControl;
+import com.comino.flight.ui.widgets.charts.utils.ChartWorkers;
 import com.comino.flight.ui.widgets.charts.utils.XYDataPool;
 import com.comino.jfx.extensions.ChartControlPane;
 import com.comino.mavcom.control.IMAVController;
@@ -77,6 +83,15 @@ public class Vibration extends VBox implements IChartControl  {
 
 	private final static String[] SOURCES = { "Acc.X+Acc.Y ", "Acc.Z", "Raw Gyro Data" , "Act.Roll+Act.Pitch", "Angular Rates"};
 
+	// Keyfigures of series 1..3 per source
+	private final static String[][] SOURCE_KEYFIGURES = {
+			{ "ACCX",    "ACCY",     null    },
+			{ null,      null,       "ACCZ"  },
+			{ "GYROY",   "GYROX",    "GYROZ" },
+			{ "ACTROLL", "ACTPITCH", null    },
+			{ "VEHVX",   "VEHVY",    "VEHVZ" }
+	};
+
 
 	@FXML
 	private HBox hbox;
@@ -109,16 +124,20 @@ public class Vibration extends VBox implements IChartControl  {
 	private  XYChart.Series<Number,Number> series2;
 	private  XYChart.Series<Number,Number> series3;
 
-	private float[]  data1 = new float[POINTS];
-	private float[]  data2 = new float[POINTS];
-	private float[]  data3 = new float[POINTS];
-
+	// The spectra are calculated directly from the keyfigure columns of the store
+	private final RealFFT               engine   = new RealFFT(POINTS);
+	private final float[]               spectrum = new float[POINTS / 2 + 1];
+	private final KeyFigureMetaData[][] keyfigures;
 
-	private FFT fft1 = null;
-	private FFT fft2 = null;
-	private FFT fft3 = null;
+	// Samples of the selected keyfigures at the logged rate, if the store was converted from a ULog.
+	// Spectra of the store columns are limited to half of the collector rate.
+	private ULogRawSamples[] raw            = null;
+	private int              raw_source_id  = -1;
+	private int              raw_generation = -1;
+	private boolean          isLoadingRaw   = false;
 
 	private XYDataPool pool = null;
+	private final List<Data<Number,Number>> points = new ArrayList<Data<Number,Number>>();
 
 	private AnalysisModelService      dataService = AnalysisModelService.getInstance();
 
@@ -150,6 +169,14 @@ public class Vibration extends VBox implements IChartControl  {
 
 		pool = new XYDataPool();
 
+		final AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
+		keyfigures = new KeyFigureMetaData[SOURCE_KEYFIGURES.length][];
+		for(int i = 0; i < SOURCE_KEYFIGURES.length; i++) {
+			keyfigures[i] = new KeyFigureMetaData[SOURCE_KEYFIGURES[i].length];
+			for(int j = 0; j < SOURCE_KEYFIGURES[i].length; j++)
+				keyfigures[i][j] = SOURCE_KEYFIGURES[i][j] != null ? meta.getMetaData(SOURCE_KEYFIGURES[i][j]) : null;
+		}
+
 	}
 
 
@@ -175,10 +202,6 @@ public class Vibration extends VBox implements IChartControl  {
 		yAxis.setAutoRanging(true);
 		yAxis.setPrefWidth(30);
 
-		fft1 = new FFT( POINTS, sample_rate );
-		fft2 = new FFT( POINTS, sample_rate );
-		fft3 = new FFT( POINTS, sample_rate );
-
 
 
 
@@ -208,7 +231,7 @@ public class Vibration extends VBox implements IChartControl  {
 		
 		this.disabledProperty().addListener((v,o,n) -> {
 			if(!n.booleanValue()) {
-				updateGraph();
+				Platform.runLater(() -> updateGraph());
 			}
 		});
 
@@ -267,11 +290,8 @@ public class Vibration extends VBox implements IChartControl  {
 
 		max_pt = max_pt >= dataService.getModelList().size() ? dataService.getModelList().size() -1 : max_pt;
 
-		series1.getData().clear();
-		series2.getData().clear();
-		series3.getData().clear();
-
 		if(dataService.getModelList().size()==0) {
+			clearSeries();
 			vz.setProgress(0);
 			return;
 		}
@@ -290,100 +310,101 @@ public class Vibration extends VBox implements IChartControl  {
 
 
 		if(max_pt <= POINTS) {
+			clearSeries();
 			return;
 		}
 
 
-		for(int i = 0; i < POINTS; i++ ) {
-			m = dataService.getModelList().get(max_pt - POINTS + i);
-			switch(source_id) {
-			case 0:
-				data1[i] = (float)m.getValue("ACCX");	
-				data2[i] = (float)m.getValue("ACCY");	
-				break;
-			case 1:
-				data3[i] = (float)m.getValue("ACCZ")+ 9.81f;	
-				break;
-			case 2:
-				data1[i] = (float)m.getValue("GYROY");	
-				data2[i] = (float)m.getValue("GYROX");	
-				data3[i] = (float)m.getValue("GYROZ");	
-				break;
-			case 3:
-				data1[i] = (float)m.getValue("ACTROLL");	
-				data2[i] = (float)m.getValue("ACTPITCH");	
-				break;
-			case 4:
-				data1[i] = (float)m.getValue("VEHVX");	
-				data2[i] = (float)m.getValue("VEHVY");	
-				data3[i] = (float)m.getValue("VEHVZ");	
-				break;
+		// Samples [max_pt - POINTS, max_pt) of the selected keyfigures, or the last POINTS
+		// samples logged up to the time of max_pt
+		final AnalysisDataModelStore list = dataService.getModelList();
+		final KeyFigureMetaData[] kfs = keyfigures[source_id];
+		final ULogRawSamples[] samples = getRawSamples(list, kfs);
+		final long tms = list.getTimestamps()[max_pt];
 
-			}
-			//				data3[i] = (float)Math.sqrt(m.getValue("ACCX") * m.getValue("ACCX") + m.getValue("ACCY") * m.getValue("ACCY") );	
-		}
-
-
-		switch(source_id) {
+		float rate = 0;
+		rate = Math.max(rate, setSpectrum(series1, list, kfs[0], samples != null ? samples[0] : null, tms));
+		rate = Math.max(rate, setSpectrum(series2, list, kfs[1], samples != null ? samples[1] : null, tms));
+		rate = Math.max(rate, setSpectrum(series3, list, kfs[2], samples != null ? samples[2] : null, tms));
 
-		case 0:
-		case 3:
+		if(rate > 0 && xAxis.getUpperBound() != rate / 2)
+			xAxis.setUpperBound(rate / 2);
 
-			fft1.forward(data1); 
-			series1.getData().add(new Data<Number, Number>(0.0,0.0));
-			for(int i = 1; i < fft1.specSize(); i++ ) {
-				series1.getData().add(pool.checkOut(i * fft1.getBandWidth(),fft1.getSpectrum()[i]));
-			}
+	}
 
-			fft2.forward(data2); 
-			series2.getData().add(new Data<Number, Number>(0.0,0.0));
-			for(int i = 1; i < fft2.specSize(); i++ ) {
-				series2.getData().add(pool.checkOut(i * fft2.getBandWidth(),fft2.getSpectrum()[i]));
+	/*
+	 * Samples of the keyfigures at the logged rate, null while they are read in the background
+	 * or if the store was not converted from a ULog
+	 */
+	private ULogRawSamples[] getRawSamples(AnalysisDataModelStore list, KeyFigureMetaData[] kfs) {
+		final String path = list.getSource();
+		if(path == null)
+			return null;
+		if(raw_source_id == source_id && raw_generation == list.getGeneration())
+			return raw;
+		if(isLoadingRaw)
+			return null;
+
+		final int id = source_id;
+		final int generation = list.getGeneration();
+		isLoadingRaw = true;
+		ChartWorkers.prepare(() -> {
+			try {
+				return ULogRawSamples.read(path, kfs);
+			} catch(Exception e) {
+				System.err.println("Vibration: samples of "+path+" cannot be read: "+e.getMessage());
+				return new ULogRawSamples[kfs.length];
 			}
-			
-			series3.getData().clear();
-
-			break;
-
-		case 1:
+		}, (samples) -> {
+			isLoadingRaw   = false;
+			raw            = samples;
+			raw_source_id  = id;
+			raw_generation = generation;
+			updateGraph();
+		});
+		return null;
+	}
 
-			fft3.forward(data3);
-			series3.getData().add(new Data<Number, Number>(0.0,0.0));
-			for(int i = 1; i < fft3.specSize(); i++ ) {
-				series3.getData().add(pool.checkOut(i * fft3.getBandWidth(),fft3.getSpectrum()[i]));
-			}
-			
-			series2.getData().clear();
-			series1.getData().clear();
-			
-			break;
-			
-		case 2:
-		case 4:
-			
-			fft1.forward(data1); 
-			series1.getData().add(new Data<Number, Number>(0.0,0.0));
-			for(int i = 1; i < fft1.specSize(); i++ ) {
-				series1.getData().add(pool.checkOut(i * fft1.getBandWidth(),fft1.getSpectrum()[i]));
-			}
+	private void clearSeries() {
+		pool.clear(series1.getData());
+		pool.clear(series2.getData());
+		pool.clear(series3.getData());
+	}
 
-			fft2.forward(data2); 
-			series2.getData().add(new Data<Number, Number>(0.0,0.0));
-			for(int i = 1; i < fft2.specSize(); i++ ) {
-				series2.getData().add(pool.checkOut(i * fft2.getBandWidth(),fft2.getSpectrum()[i]));
+	/*
+	 * Replaces the series by the spectrum in a single change, reusing the points of the
+	 * previous spectrum. FX thread only, as the points are taken from the pool.
+	 * Returns the sample rate of the spectrum, 0 if there is none.
+	 */
+	private float setSpectrum(XYChart.Series<Number,Number> series, AnalysisDataModelStore list,
+			KeyFigureMetaData kf, ULogRawSamples samples, long tms) {
+		float rate = sample_rate;
+		if(samples != null) {
+			final int last = samples.indexOf(tms);
+			if(last + 1 < POINTS) {
+				pool.clear(series.getData());
+				return 0;
 			}
-			
-			fft3.forward(data3);
-			series3.getData().add(new Data<Number, Number>(0.0,0.0));
-			for(int i = 1; i < fft3.specSize(); i++ ) {
-				series3.getData().add(pool.checkOut(i * fft3.getBandWidth(),fft3.getSpectrum()[i]));
+			engine.forward(samples.getValues(), last + 1 - POINTS);
+			rate = samples.getSampleRate();
+		} else {
+			final double[] column = kf != null ? list.getColumn(kf) : null;
+			if(column == null) {
+				pool.clear(series.getData());
+				return 0;
 			}
-
-
-			break;
-
+			engine.forward(column, max_pt - POINTS);
 		}
-
+		engine.magnitude(spectrum);
+		final float bandwidth = rate / POINTS;
+		points.clear();
+		points.add(pool.checkOut(0,0));
+		for(int i = 1; i < engine.specSize(); i++ ) {
+			points.add(pool.checkOut(i * bandwidth,spectrum[i]));
+		}
+		pool.replace(series.getData(), points);
+		points.clear();
+		return rate;
 	}
 
 	private void refresh(int max) {
@@ -410,10 +431,6 @@ public class Vibration extends VBox implements IChartControl  {
 
 		yAxis.setAutoRanging(true);
 
-		fft1 = new FFT( POINTS, sample_rate );
-		fft2 = new FFT( POINTS, sample_rate );
-		fft3 = new FFT( POINTS, sample_rate );
-
 		refresh(dataService.getModelList().size() - 1);
 
 		return null;
@@ -441,12 +458,11 @@ public class Vibration extends VBox implements IChartControl  {
 	@Override
 	public void refreshChart() {
 		if(dataService.getModelList().isEmpty()) {
-			Arrays.fill(data1, 0f); Arrays.fill(data2, 0f); Arrays.fill(data3, 0f);
 			Platform.runLater(() -> {
 				getTimeFrameProperty();
-				series1.getData().clear();
-				series2.getData().clear();
-				series3.getData().clear();
+				pool.clear(series1.getData());
+				pool.clear(series2.getData());
+				pool.clear(series3.getData());
 				fft.getData().clear();
 				fft.getData().add(series1);
 				fft.getData().add(series2);
@@ -0,0 +1,279 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2018 Eike Mansfeld ecm@gmx.de.
+ *   All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+package com.comino.flight.ui.widgets.view3D.objects;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javafx.application.Platform;
+import javafx.scene.Group;
+import javafx.scene.paint.Material;
+import javafx.scene.shape.CullFace;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
+
+/*
+ * Renders equally sized blocks as spatially chunked triangle meshes, one MeshView per chunk of
+ * CHUNK x CHUNK x CHUNK blocks. Changes mark their chunk dirty; update() rebuilds the dirty
+ * chunks on a worker thread and swaps the new geometry into the meshes on the FX thread.
+ * Faces between two blocks of a chunk are omitted.
+ *
+ * Blocks are added and removed on the FX thread, positions are integer cell indices. The
+ * center of cell (ix,iy,iz) is at (ix,iy,iz) * size + offset in the scene, the offset is
+ * applied once as translation of the group.
+ */
+
+public class BlockMesh extends Group {
+
+	private static final int CHUNK = 16;
+
+	private static final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+		final Thread t = new Thread(r, "Block mesh worker");
+		t.setDaemon(true);
+		return t;
+	});
+
+	// Cube corners and faces as two triangles each: -x, +x, -y, +y, -z, +z
+	private static final int[][] CORNERS = {
+			{ -1, -1, -1 }, { 1, -1, -1 }, { 1, 1, -1 }, { -1, 1, -1 },
+			{ -1, -1,  1 }, { 1, -1,  1 }, { 1, 1,  1 }, { -1, 1,  1 } };
+	private static final int[][] FACES = {
+			{ 0, 4, 7, 0, 7, 3 }, { 1, 2, 6, 1, 6, 5 }, { 0, 1, 5, 0, 5, 4 },
+			{ 3, 7, 6, 3, 6, 2 }, { 0, 3, 2, 0, 2, 1 }, { 4, 5, 6, 4, 6, 7 } };
+	private static final int[][] NEIGHBOURS = {
+			{ -1, 0, 0 }, { 1, 0, 0 }, { 0, -1, 0 }, { 0, 1, 0 }, { 0, 0, -1 }, { 0, 0, 1 } };
+
+	private final Map<Long,Chunk> chunks = new HashMap<Long,Chunk>();
+	private final Map<Long,Chunk> blocks = new HashMap<Long,Chunk>();
+	private final Set<Chunk>      dirty  = new HashSet<Chunk>();
+
+	private final Material material;
+	private double         size;
+
+	public BlockMesh(double size, Material material) {
+		this.size     = size;
+		this.material = material;
+	}
+
+	public boolean contains(long id) {
+		return blocks.containsKey(id);
+	}
+
+	public int size() {
+		return blocks.size();
+	}
+
+	public void add(long id, int ix, int iy, int iz) {
+		final Chunk old = blocks.get(id);
+		if(old != null) {
+			final int[] c = old.cells.get(id);
+			if(c[0] == ix && c[1] == iy && c[2] == iz)
+				return;
+			remove(id);
+		}
+
+		final long key = pack(Math.floorDiv(ix, CHUNK), Math.floorDiv(iy, CHUNK), Math.floorDiv(iz, CHUNK));
+		Chunk chunk = chunks.get(key);
+		if(chunk == null) {
+			chunk = new Chunk();
+			chunks.put(key, chunk);
+		}
+		chunk.cells.put(id, new int[] { ix, iy, iz });
+		chunk.version++;
+		blocks.put(id, chunk);
+		dirty.add(chunk);
+	}
+
+	public void remove(long id) {
+		final Chunk chunk = blocks.remove(id);
+		if(chunk == null)
+			return;
+		chunk.cells.remove(id);
+		chunk.version++;
+		dirty.add(chunk);
+	}
+
+	public void clear() {
+		chunks.values().forEach((chunk) -> { chunk.version++; });
+		chunks.clear();
+		blocks.clear();
+		dirty.clear();
+		getChildren().clear();
+	}
+
+	/*
+	 * Scene position of the center of cell (0,0,0)
+	 */
+	public void setOffset(double x, double y, double z) {
+		setTranslateX(x);
+		setTranslateY(y);
+		setTranslateZ(z);
+	}
+
+	/*
+	 * Changes the block size, all blocks are removed.
+	 */
+	public void setSize(double size) {
+		if(this.size == size)
+			return;
+		clear();
+		this.size = size;
+	}
+
+	/*
+	 * Starts rebuilding the dirty chunks. Chunks still being built are rebuilt when their
+	 * outdated result arrives, also if no further update() follows.
+	 */
+	public void update() {
+		if(dirty.isEmpty())
+			return;
+
+		final Iterator<Chunk> i = dirty.iterator();
+		while(i.hasNext()) {
+			final Chunk chunk = i.next();
+			if(chunk.building)
+				continue;
+			i.remove();
+
+			if(chunk.cells.isEmpty()) {
+				getChildren().remove(chunk.view);
+				chunks.values().remove(chunk);
+				continue;
+			}
+
+			final int[][] cells = chunk.cells.values().toArray(new int[chunk.cells.size()][]);
+			final int version = chunk.version;
+			final float half = (float)(size / 2);
+			final float scale = (float)size;
+			chunk.building = true;
+
+			worker.execute(() -> {
+				final Geometry g = build(cells, scale, half);
+				Platform.runLater(() -> {
+					chunk.building = false;
+					if(chunk.version != version) {
+						update();
+						return;
+					}
+					chunk.mesh.getPoints().setAll(g.points);
+					chunk.mesh.getFaces().setAll(g.faces);
+					if(chunk.view.getParent() == null && chunks.containsValue(chunk))
+						getChildren().add(chunk.view);
+				});
+			});
+		}
+	}
+
+	private static Geometry build(int[][] cells, float scale, float half) {
+		final Set<Long> occupied = new HashSet<Long>(cells.length * 2);
+		for(int[] c : cells)
+			occupied.add(pack(c[0], c[1], c[2]));
+
+		final Geometry g = new Geometry(cells.length);
+		for(int[] c : cells) {
+			final float cx = c[0] * scale, cy = c[1] * scale, cz = c[2] * scale;
+			int base = -1;
+			for(int f = 0; f < FACES.length; f++) {
+				if(occupied.contains(pack(c[0] + NEIGHBOURS[f][0], c[1] + NEIGHBOURS[f][1], c[2] + NEIGHBOURS[f][2])))
+					continue;
+				if(base < 0) {
+					base = g.pointCount;
+					for(int[] corner : CORNERS)
+						g.addPoint(cx + corner[0] * half, cy + corner[1] * half, cz + corner[2] * half);
+				}
+				for(int v = 0; v < 6; v += 3)
+					g.addFace(base + FACES[f][v], base + FACES[f][v+1], base + FACES[f][v+2]);
+			}
+		}
+		g.trim();
+		return g;
+	}
+
+	private static long pack(int x, int y, int z) {
+		return ((long)(x & 0x1FFFFF) << 42) | ((long)(y & 0x1FFFFF) << 21) | (z & 0x1FFFFF);
+	}
+
+	private class Chunk {
+
+		final Map<Long,int[]> cells = new HashMap<Long,int[]>();
+		final TriangleMesh    mesh  = new TriangleMesh();
+		final MeshView        view  = new MeshView(mesh);
+
+		int     version  = 0;
+		boolean building = false;
+
+		Chunk() {
+			mesh.getTexCoords().addAll(0,0);
+			view.setMaterial(material);
+			view.setCullFace(CullFace.BACK);
+		}
+	}
+
+	/*
+	 * Points (x,y,z) and faces (p0,t0,p1,t1,p2,t2) of a chunk
+	 */
+	private static class Geometry {
+
+		float[] points;
+		int[]   faces;
+		int     pointCount = 0;
+		int     faceCount  = 0;
+
+		Geometry(int blocks) {
+			points = new float[blocks * 8 * 3];
+			faces  = new int[blocks * 12 * 6];
+		}
+
+		void addPoint(float x, float y, float z) {
+			final int i = pointCount++ * 3;
+			points[i] = x; points[i+1] = y; points[i+2] = z;
+		}
+
+		void addFace(int p0, int p1, int p2) {
+			final int i = faceCount++ * 6;
+			faces[i] = p0; faces[i+2] = p1; faces[i+4] = p2;
+		}
+
+		void trim() {
+			points = Arrays.copyOf(points, pointCount * 3);
+			faces  = Arrays.copyOf(faces, faceCount * 6);
+		}
+	}
+}
@@ -1,8 +1,5 @@
 package com.comino.flight.ui.widgets.view3D.objects;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 
@@ -16,18 +13,18 @@ import georegression.struct.point.Point3D_I32;
 import javafx.animation.AnimationTimer;
 import javafx.scene.Group;
 import javafx.scene.paint.Color;
-import javafx.scene.paint.Material;
 import javafx.scene.paint.PhongMaterial;
 import javafx.scene.shape.Box;
-import javafx.scene.shape.CullFace;
 
 public class Map3DGroup {
 
 	private final Group root;
 
 	private AnimationTimer              task    = null;
-	private final List<PhongMaterial>  	blocked = new ArrayList<PhongMaterial>();
-	private final Map<Long,Box>         boxes;
+	private final PhongMaterial         blocked = new PhongMaterial();
+	private final Map<Long,Double>      cells;
+	private final BlockMesh             mesh;
+	private final Box                   marker;
 
 	private final PhongMaterial markerMaterial  = new PhongMaterial();
 
@@ -36,8 +33,8 @@ public class Map3DGroup {
 	private double                      size = 0;
 
 	private final Point3D_F64           global = new Point3D_F64();
-
-	private Marker currentMarker = new Marker();
+	private final Point3D_I32           local  = new Point3D_I32();
+	private final Point3D_I32           zero   = new Point3D_I32();
 
 	private CellProbability_F64 point = new CellProbability_F64();
 	
@@ -49,19 +46,22 @@ public class Map3DGroup {
 
 		this.root  = root;
 		this.map   = MAVGCLMap.getInstance();
-		this.boxes = map.getMap();
+		this.cells = map.getMap();
 		this.info  = map.getInfo();
 		this.size  = info.getCellSize() * 100;
 
-		for(int i = 0; i < 5; i++) {
-			PhongMaterial m = new PhongMaterial();
-			m.setDiffuseColor(Color.web("DARKCYAN", 1));
-			m.setSpecularColor(Color.WHITE);
-			blocked.add(m);
-		}
+		blocked.setDiffuseColor(Color.web("DARKCYAN", 1));
+		blocked.setSpecularColor(Color.WHITE);
 
 		markerMaterial.setDiffuseColor(Color.RED);
 
+		// Occupied cells are rendered as chunked meshes, the indicator as a single box on top
+		this.mesh   = new BlockMesh(size, blocked);
+		this.marker = new Box(size * 1.01, size * 1.01, size * 1.01);
+		marker.setMaterial(markerMaterial);
+		marker.setVisible(false);
+		root.getChildren().addAll(mesh, marker);
+
 
 		task = new AnimationTimer() {
 			long entry=0; long tms_old;
@@ -76,14 +76,21 @@ public class Map3DGroup {
 
 				if(!list.isEmpty()) {
 					
-					size = info.getCellSize() * 100;
+					if(size != info.getCellSize() * 100) {
+						size = info.getCellSize() * 100;
+						mesh.setSize(size);
+						cells.clear();
+						marker.setWidth(size * 1.01); marker.setHeight(size * 1.01); marker.setDepth(size * 1.01);
+					}
 					
+					updateOffset();
+
 					while(!list.isEmpty()) {
 
 						entry = list.poll();
 						if(entry < 0) {
-							root.getChildren().removeAll(boxes.values());
-							boxes.clear();
+							mesh.clear();
+							cells.clear();
 							list.clear();
 							System.out.println("Clearing");
 							return;
@@ -91,6 +98,7 @@ public class Map3DGroup {
 						info.decodeMapPoint(entry, point);
 						addBlock(point);
 					}
+					mesh.update();
 					setIndicator(map.getIndicator());
 				}
 			//	System.out.println("Added: "+added+" Removed: "+removed+" Total: "+(added+removed));
@@ -110,22 +118,13 @@ public class Map3DGroup {
 		
 		if(pos.probability > 0.5) {
 
-			if(boxes.containsKey(h))
+			if(cells.containsKey(h))
 				return;
-			
-			
-
-			info.mapToGlobal(pos,map.getOrigin(), global);
 
+			// Cell indices in scene axes, the origin is applied by the mesh offset
 			// TODO: Fix rotation
-			final Box box = new Box(size, size, size);
-			box.setTranslateZ(global.x*100);
-			box.setTranslateX(-global.y*100);
-			box.setTranslateY((-global.z+info.getCellSize()/2)*100);
-			box.setMaterial(blocked.get((int)(pos.probability*5)-1));
-			box.setCullFace(CullFace.BACK);
-			root.getChildren().add(box);
-			boxes.put(h, box);
+			mesh.add(h, -pos.y, -pos.z, pos.x);
+			cells.put(h, pos.probability);
 			return;
 
 		} 
@@ -134,22 +133,27 @@ public class Map3DGroup {
 			
 			removed++;
 
-			//	if(pos.probability < 0.1f || pos.probability == 0.5f) {
-			Box box = boxes.remove(h);
-			if(box!=null) {
-				
-				root.getChildren().remove(box);	
-			} 
+			if(cells.remove(h) != null)
+				mesh.remove(h);
 		}
 
 	}
 
 
 
+	/*
+	 * Scene position of map cell (0,0,0), the same transformation as the indicator
+	 */
+	private void updateOffset() {
+		info.mapToGlobal(zero, map.getOrigin(), global);
+		mesh.setOffset(-global.y*100, (-global.z+info.getCellSize()/2)*100, global.x*100);
+	}
+
 	public void clear() {
 		added = 0; removed=0;
-		root.getChildren().clear();
-		boxes.clear();
+		mesh.clear();
+		cells.clear();
+		marker.setVisible(false);
 
 	}
 
@@ -169,38 +173,23 @@ public class Map3DGroup {
 
 		boolean visible = !(Double.isNaN(p.x) || Double.isNaN(p.y) || Double.isNaN(p.z));
 
-		Box box; Point3D_I32 local = new Point3D_I32();
-		info.globalToMap(p, local);
-		long h = info.encodeMapPoint(local, 0);
-		if(boxes.containsKey(h)) {
-			if(currentMarker.compare(h) || !visible) {
-				box = boxes.get(currentMarker.h);
-				if(box!=null) box.setMaterial(currentMarker.material);
-			}
-			if(visible) {
-				box = boxes.get(h);
-				currentMarker.set(h, box.getMaterial());
-				box.setMaterial(markerMaterial);
-			}
+		if(!visible) {
+			marker.setVisible(false);
+			return;
 		}
-	}
 
-
-	private class Marker {
-		public long h;
-		public Material material;
-
-		public void set(long h, Material material) {
-			this.h = h;
-			this.material = material;
+		info.globalToMap(p, local);
+		long h = info.encodeMapPoint(local, 0);
+		if(!cells.containsKey(h)) {
+			marker.setVisible(false);
+			return;
 		}
 
-		public boolean compare(long m) {
-			return h > 0 && h != m;
-		}
+		info.mapToGlobal(local, map.getOrigin(), global);
+		marker.setTranslateZ(global.x*100);
+		marker.setTranslateX(-global.y*100);
+		marker.setTranslateY((-global.z+info.getCellSize()/2)*100);
+		marker.setVisible(true);
 	}
 
-
-
-
 }
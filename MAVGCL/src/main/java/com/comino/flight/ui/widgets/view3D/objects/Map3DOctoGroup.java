@@ -1,11 +1,11 @@
 package com.comino.flight.ui.widgets.view3D.objects;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 
 import com.comino.flight.model.map.MAVGCLOctoMap;
@@ -39,8 +39,9 @@ public class Map3DOctoGroup  {
 	private final int                   size;
 	private final DataModel model;
 
-	private final static Map<Long,OctoMesh>          meshIndex = new HashMap<>();
-	private final static List<OctoMesh>              meshes    = new LinkedList<>();
+	// Mesh of each visible block and the meshes with free slots
+	private final Map<Long,OctoMesh>                 meshIndex = new HashMap<>();
+	private final Deque<OctoMesh>                    available = new ArrayDeque<>();
 
 
 	public Map3DOctoGroup(Group root, IMAVController control) {
@@ -62,11 +63,16 @@ public class Map3DOctoGroup  {
 					return;
 				}
 				
-				map.getChanged().stream().forEach((id) -> {
-					handleBlock(tmp,map.convertTo(id, tmp) & KEYMASK);
-				});
+				if(!map.hasChanged())
+					return;
+
+				synchronized(map) {
+					map.getChanged().stream().forEach((id) -> {
+						handleBlock(tmp,map.convertTo(id, tmp) & KEYMASK);
+					});
 
-				map.resetChangeDetection();
+					map.resetChangeDetection();
+				}
 
 			}
 		};
@@ -76,25 +82,27 @@ public class Map3DOctoGroup  {
 
 	public void handleBlock(Point4D_F32 p, long id) {
 
-		if(meshes.isEmpty())
-			meshes.add(new OctoMesh(root,size));
-
-		OctoMesh mesh =	meshes.get(meshes.size()-1);
+		OctoMesh mesh;
 		if(tmp.w > 0.5) {
 			if(meshIndex.containsKey(id) || tmp.z < 0)
 				return;
-			if(!mesh.hasSpace()) {
+			mesh = available.peekFirst();
+			if(mesh == null) {
 				mesh = new OctoMesh(root,size);
-				meshes.add(mesh);
+				available.addFirst(mesh);
 			}
 			mesh.add(id, -tmp.y*100, tmp.z*100, tmp.x*100);
 			meshIndex.put(id, mesh);
+			if(!mesh.hasSpace())
+				available.removeFirst();
 		} else {
 			mesh = meshIndex.remove(id);
 			if(mesh!=null) {
-				if(mesh.remove(id)) {
-					meshes.remove(mesh);
-				}
+				final boolean full = !mesh.hasSpace();
+				if(mesh.remove(id))
+					available.remove(mesh);
+				else if(full)
+					available.addLast(mesh);
 			}
 		}
 	}
@@ -109,12 +117,9 @@ public class Map3DOctoGroup  {
 
 	public void clear() {
         Platform.runLater(() -> {
-        	meshIndex.forEach((id,mesh) -> { 
-    			if(mesh.remove(id)) { 
-    				meshes.remove(mesh); 
-    			}
-    		});
+        	meshIndex.forEach((id,mesh) -> { mesh.remove(id); });
     		meshIndex.clear();
+    		available.clear();
         });
 	}
 
@@ -3,16 +3,32 @@ package com.comino.flight.ui.widgets.view3D.octomesh;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.fxyz3d.geometry.Point3D;
-import org.fxyz3d.shapes.primitives.MAVScatterMesh;
-
 import javafx.scene.Group;
 import javafx.scene.paint.Color;
+import javafx.scene.paint.PhongMaterial;
+import javafx.scene.shape.CullFace;
 import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
 
+/*
+ * Mesh of up to MESHCOUNT cubes. Each cube owns a fixed slot of 8 points and 12 faces in
+ * preallocated buffers, so adding or removing a cube only updates the points of its slot.
+ * Free slots are collapsed to a single point and not visible.
+ */
 public class OctoMesh extends MeshView {
 	
-	private static final int MESHCOUNT = 25;
+	private static final int MESHCOUNT = 1024;
+
+	private static final int POINTS = 8 * 3;
+	private static final int FACES  = 12 * 6;
+
+	// Cube corners and two triangles per side, outward facing
+	private static final float[] CORNERS = {
+			-1, -1, -1,   1, -1, -1,   1, 1, -1,   -1, 1, -1,
+			-1, -1,  1,   1, -1,  1,   1, 1,  1,   -1, 1,  1 };
+	private static final int[] TRIANGLES = {
+			0, 4, 7,  0, 7, 3,  1, 2, 6,  1, 6, 5,  0, 1, 5,  0, 5, 4,
+			3, 7, 6,  3, 6, 2,  0, 3, 2,  0, 2, 1,  4, 5, 6,  4, 6, 7 };
 	
 	private static Color color = Color.CORNSILK.darker(); //
 	private final static double MIN = 0 ;
@@ -20,17 +36,38 @@ public class OctoMesh extends MeshView {
 	private final static double BLUE_HUE = Color.BLUE.getHue() ;
 	private final static double RED_HUE = Color.RED.getHue() ;
 
-	private Map<Long,Point3D> cubes = new HashMap<>(MESHCOUNT);
+	private final Map<Long,Integer> cubes  = new HashMap<>(MESHCOUNT);
+	private final int[]             free   = new int[MESHCOUNT];
+	private int                     free_count = 0;
+	private int                     used       = 0;
 
-	private MAVScatterMesh    mesh;
+	private final TriangleMesh      mesh   = new TriangleMesh();
+	private final float[]           cube   = new float[POINTS];
+	private final float             half;
 
 	private Group root;
 
 	
 	public OctoMesh(Group root,int size) {
 		this.root   = root;
-		mesh = new MAVScatterMesh(cubes.values(),size);
-		root.getChildren().add(mesh);
+		this.half   = size / 2f;
+
+		final int[] faces = new int[MESHCOUNT * FACES];
+		for(int slot = 0; slot < MESHCOUNT; slot++) {
+			for(int t = 0; t < TRIANGLES.length; t++)
+				faces[slot * FACES + t * 2] = slot * 8 + TRIANGLES[t];
+		}
+		mesh.getTexCoords().addAll(0,0);
+		mesh.getPoints().setAll(new float[MESHCOUNT * POINTS]);
+		mesh.getFaces().setAll(faces);
+
+		final PhongMaterial material = new PhongMaterial();
+		material.setDiffuseColor(color);
+		setMaterial(material);
+		setCullFace(CullFace.BACK);
+		setMesh(mesh);
+
+		root.getChildren().add(this);
 		
 	}
 
@@ -38,22 +75,44 @@ public class OctoMesh extends MeshView {
 		return cubes.size()<MESHCOUNT;
 	}
 
+	public boolean contains(long id) {
+		return cubes.containsKey(id);
+	}
+
 	public void add(long id, float x, float y, float z) {
-		cubes.put(id,new Point3D(x,y,z,0));
-		mesh.update();
-		mesh.setTextureModeNone(color);
+		Integer slot = cubes.get(id);
+		if(slot == null) {
+			slot = free_count > 0 ? free[--free_count] : used++;
+			cubes.put(id, slot);
+		}
+		for(int i = 0; i < POINTS; i += 3) {
+			cube[i]   = x + CORNERS[i]   * half;
+			cube[i+1] = y + CORNERS[i+1] * half;
+			cube[i+2] = z + CORNERS[i+2] * half;
+		}
+		mesh.getPoints().set(slot * POINTS, cube, 0, POINTS);
+		if(getParent() == null)
+			root.getChildren().add(this);
 	}
 
+	/*
+	 * Removes the cube, returns true if the mesh is empty and has been removed from the scene
+	 */
 	public boolean remove(long id) {
-		cubes.remove(id);
+		final Integer slot = cubes.remove(id);
+		if(slot == null)
+			return cubes.isEmpty();
+
+		final float[] p = cube;
+		for(int i = 0; i < POINTS; i++)
+			p[i] = 0;
+		mesh.getPoints().set(slot * POINTS, p, 0, POINTS);
+		free[free_count++] = slot;
+
 		if(cubes.isEmpty()) {
-			mesh.update();
-			root.getChildren().remove(mesh);
+			root.getChildren().remove(this);
 			return true;
 		}
-		mesh.update();
-		mesh.setTextureModeNone(color);
-		
 		return false;
 	}
 	
@@ -0,0 +1,121 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.jmavlib.extensions;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * Byte ring for the streamed ULog data. Parsed messages are released by advancing the read
+ * index, so no remaining bytes are moved. A message is handed to the parser as a view on the
+ * ring; only a message wrapping around the end of the ring is copied into a scratch buffer.
+ * The capacity doubles if the parser falls behind.
+ */
+class ULogRingBuffer {
+
+	private byte[]     ring;
+	private ByteBuffer view;
+	private ByteBuffer scratch;
+
+	private int read  = 0;
+	private int count = 0;
+
+	public ULogRingBuffer(int capacity) {
+		this.ring    = new byte[Integer.highestOneBit(Math.max(capacity, 1024) - 1) << 1];
+		this.view    = ByteBuffer.wrap(ring).order(ByteOrder.LITTLE_ENDIAN);
+		this.scratch = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public void put(byte b) {
+		if(count == ring.length)
+			grow();
+		ring[(read + count++) & (ring.length - 1)] = b;
+	}
+
+	public int available() {
+		return count;
+	}
+
+	public int capacity() {
+		return ring.length;
+	}
+
+	/* Unsigned byte at offset from the read index */
+	public int peek(int offset) {
+		return ring[(read + offset) & (ring.length - 1)] & 0x00FF;
+	}
+
+	public void skip(int n) {
+		n = Math.min(n, count);
+		read = (read + n) & (ring.length - 1);
+		count -= n;
+		if(count == 0)
+			read = 0;
+	}
+
+	/*
+	 * Returns the next length bytes as little endian buffer positioned at the first of them
+	 * without releasing them. The buffer is valid until the next call to put() or slice().
+	 */
+	public ByteBuffer slice(int length) {
+		if(read + length <= ring.length) {
+			view.limit(read + length);
+			view.position(read);
+			return view;
+		}
+		if(scratch.capacity() < length)
+			scratch = ByteBuffer.allocate(Integer.highestOneBit(length) << 1).order(ByteOrder.LITTLE_ENDIAN);
+		final int first = ring.length - read;
+		scratch.clear();
+		scratch.put(ring, read, first);
+		scratch.put(ring, 0, length - first);
+		scratch.flip();
+		return scratch;
+	}
+
+	public void clear() {
+		read = 0; count = 0;
+	}
+
+	private void grow() {
+		final byte[] larger = new byte[ring.length * 2];
+		final int first = Math.min(count, ring.length - read);
+		System.arraycopy(ring, read, larger, 0, first);
+		System.arraycopy(ring, 0, larger, first, count - first);
+		ring = larger;
+		view = ByteBuffer.wrap(ring).order(ByteOrder.LITTLE_ENDIAN);
+		read = 0;
+	}
+}
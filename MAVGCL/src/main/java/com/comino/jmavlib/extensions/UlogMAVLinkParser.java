@@ -34,7 +34,6 @@
 package com.comino.jmavlib.extensions;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -42,8 +41,6 @@ import java.util.Map;
 import java.util.Vector;
 
 import org.mavlink.messages.MAV_SEVERITY;
-import org.mavlink.messages.lquac.msg_logging_data;
-import org.mavlink.messages.lquac.msg_logging_data_acked;
 
 import com.comino.mavcom.log.MSPLogger;
 
@@ -75,7 +72,12 @@ public class UlogMAVLinkParser  {
 
 	private static final int INCOMPAT_FLAG0_DATA_APPENDED_MASK = 1<<0;
 
-	private ByteBuffer buffer = null;
+	private static final int BUFFER_SIZE = 65536;
+
+	// Returned by readNext() for messages which are consumed without a result
+	private static final Object SKIPPED = new Object();
+
+	private ULogRingBuffer buffer = null;
 	private long logStartTimestamp;
 
 	// Header maps
@@ -100,35 +102,34 @@ public class UlogMAVLinkParser  {
 
 	private String hardfaultPlainText = "";
 
+	// Appended data sections only occur in log files, a stream does not contain them
 	private Vector<Long> appendedOffsets = new Vector<Long>();
-	int currentAppendingOffsetIndex = 0; // current index to appendedOffsets for the next appended offset
 
 	private long timeStart=-1;
 
 	public UlogMAVLinkParser() {
-		buffer = ByteBuffer.allocate(300000);
-		buffer.order(ByteOrder.LITTLE_ENDIAN);
-		buffer.clear();
+		buffer = new ULogRingBuffer(BUFFER_SIZE);
 	}
 
-	public void addToBuffer(msg_logging_data msg, boolean ok) {
-		try {
-			if(ok) {
-				for (int i = 0; i < msg.data.length; i++)
-					buffer.put((byte)(msg.data[i] & 0x00FF));
-			} else {
-				buffer.clear();
-				for (int i = msg.first_message_offset; i < msg.data.length; i++)
-					buffer.put((byte)(msg.data[i] & 0x00FF));
-			}
-		} catch(Exception o) {
-			          o.printStackTrace();
+	/*
+	 * Appends the payload of a logging packet. After a gap in the packet sequence the pending
+	 * bytes are dropped and the stream is resynchronized at the first message starting in the
+	 * packet (first_message_offset = 255: no message starts in this packet).
+	 */
+	public void addToBuffer(byte[] payload, int length, int first_message_offset, boolean gap) {
+		int offset = 0;
+		if(gap) {
+			buffer.clear();
+			if(first_message_offset == 255)
+				return;
+			offset = first_message_offset;
 		}
+		for (int i = offset; i < length; i++)
+			buffer.put(payload[i]);
 	}
 
-	public void addToBuffer(msg_logging_data_acked msg) {
-		for (int i = 0; i < msg.data.length; i++)
-			buffer.put((byte)(msg.data[i] & 0x00FF));
+	public int getBufferCapacity() {
+		return buffer.capacity();
 	}
 
 	public Map<String, String> getFieldList() {
@@ -159,21 +160,20 @@ public class UlogMAVLinkParser  {
 	}
 
 	public boolean checkHeader() {
-		buffer.flip();
-		if (!checkMagicHeader()) {
-			buffer.compact();
+		if(buffer.available() < 16)
+			return false;
+		final boolean ok = checkMagicHeader(buffer.slice(16));
+		buffer.skip(16);
+		if (!ok)
 			return false;
-		}
 		MSPLogger.getInstance().writeLocalMsg("[mgc] ULOG Logging started",
 				MAV_SEVERITY.MAV_SEVERITY_DEBUG);
-		buffer.compact();
 		logStartTimestamp = 0;
 		return true;
 	}
 
 	public void parseData(boolean debug) {
 		Object msg = null;
-		buffer.flip();
 		while ((msg = readMessage()) != null) {
 			if(debug)
 				System.out.println(msg);
@@ -183,12 +183,10 @@ public class UlogMAVLinkParser  {
 				applyMsg(data, (MessageData) msg);
 			}
 		}
-		buffer.compact();
 	}
 
 	public void parseHeader()   {
 		Object msg = null;  long lastTime = -1;
-		buffer.flip();
 		while ((msg = readMessage()) != null) {
 			//System.err.println(msg);
 
@@ -296,9 +294,6 @@ public class UlogMAVLinkParser  {
 			}
 			timeStart=-1;
 		}
-
-		buffer.compact();
-
 	}
 
 
@@ -329,38 +324,40 @@ public class UlogMAVLinkParser  {
 		}
 	}
 
+	/*
+	 * Returns the next complete message or null if more data is needed. Messages without a
+	 * result (unknown subscriptions, sync, corrupt bodies) are consumed and parsing continues.
+	 */
 	public Object readMessage()  {
+		Object msg;
+		while ((msg = readNext()) == SKIPPED);
+		return msg;
+	}
 
-		if(buffer.remaining()<3)
+	private Object readNext()  {
+
+		if(buffer.available()<3)
 			return null;
 
-		int s1 = buffer.get() & 0x00FF;
-		int s2 = buffer.get() & 0x00FF;
-		int msgSize = s1 + (256 * s2);
-		int msgType = buffer.get() & 0x00FF;
-
-		// check if we cross an appending boundary: if so, we need to reset the position and skip this message
-		if (currentAppendingOffsetIndex < appendedOffsets.size()) {
-			if (buffer.position() + 3 + msgSize > appendedOffsets.get(currentAppendingOffsetIndex)) {
-				//System.out.println("Jumping to next position: "+pos + ", next: "+appendedOffsets.get(currentAppendingOffsetIndex));
-				buffer.position((appendedOffsets.get(currentAppendingOffsetIndex).intValue()));
-				++currentAppendingOffsetIndex;
-			}
-		}
+		int msgSize = buffer.peek(0) + (256 * buffer.peek(1));
+		int msgType = buffer.peek(2);
 
-		try {
+		if (msgSize > buffer.available()-3)
+			return null;
 
-			if (msgSize > buffer.remaining()-3) {
-				buffer.position(buffer.position()-3);
-				return null;
-			}
+		// The message body is handed over as bounded view, the message is released in any case
+		buffer.skip(3);
+		final ByteBuffer body = buffer.slice(msgSize);
+		buffer.skip(msgSize);
+
+		try {
 
 			switch (msgType) {
 
 			case MESSAGE_TYPE_DATA:
 
-				s1 = buffer.get() & 0x00FF;
-				s2 = buffer.get() & 0x00FF;
+				int s1 = body.get() & 0x00FF;
+				int s2 = body.get() & 0x00FF;
 				int msgID = s1 + (256 * s2);
 
 				Subscription subscription = null;
@@ -368,52 +365,42 @@ public class UlogMAVLinkParser  {
 					subscription = messageSubscriptions.get(msgID);
 				if (subscription == null) {
 					// System.err.println("Unknown DATA subscription ID: " + msgID);
-					buffer.position(buffer.position()+msgSize-5);
-					return null;
+					return SKIPPED;
 				}
 				try {
-					return new MessageData(subscription.format, buffer, subscription.multiID);
+					return new MessageData(subscription.format, body, subscription.multiID);
 				} catch (FormatErrorException e) {
 				//	System.err.println(e.getMessage()+": " + msgID);
-					buffer.position(buffer.position()+msgSize-5);
-					return null;
+					return SKIPPED;
 				}
 			case MESSAGE_TYPE_FLAG_BITS:
-				return  new MessageFlagBits(buffer, msgSize);
+				return  new MessageFlagBits(body, msgSize);
 			case MESSAGE_TYPE_INFO:
-				return new MessageInfo(buffer);
+				return new MessageInfo(body);
 			case MESSAGE_TYPE_INFO_MULTIPLE:
-				return new MessageInfoMultiple(buffer);
+				return new MessageInfoMultiple(body);
 
 			case MESSAGE_TYPE_PARAMETER:
-				return new MessageParameter(buffer);
+				return new MessageParameter(body);
 			case MESSAGE_TYPE_FORMAT:
-				return new MessageFormat(buffer, msgSize);
+				return new MessageFormat(body, msgSize);
 			case MESSAGE_TYPE_ADD_LOGGED_MSG:
-				return new MessageAddLogged(buffer, msgSize);
+				return new MessageAddLogged(body, msgSize);
 			case MESSAGE_TYPE_DROPOUT:
-				return new MessageDropout(buffer);
+				return new MessageDropout(body);
 			case MESSAGE_TYPE_LOG:
-				return new MessageLog(buffer, msgSize);
+				return new MessageLog(body, msgSize);
 			case MESSAGE_TYPE_REMOVE_LOGGED_MSG:
 			case MESSAGE_TYPE_SYNC:
-				buffer.position(buffer.position() + msgSize);
 			//	System.err.println("Sync: " +  (char)msgType+":"+msgSize);
-				return null;
 			default:
-				if (msgSize == 0 && msgType == 0) {
-					// This is an error (corrupt file): likely the file is filled with zeros from this point on.
-					// Not much we can do except to ensure that we make progress and don't spam the error console.
-				} else {
-					buffer.position(buffer.position()+msgSize);
-					//System.out.println((char)msgType);
-				}
+				return SKIPPED;
 			}
 		} catch(Exception e) {  }
-		return null;
+		return SKIPPED;
 	}
 
-	private boolean checkMagicHeader() {
+	private boolean checkMagicHeader(ByteBuffer buffer) {
 		boolean error = true;
 		if ((buffer.get() & 0xFF) != 'U')
 			error = false;
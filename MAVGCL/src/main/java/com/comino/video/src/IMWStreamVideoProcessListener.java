@@ -42,4 +42,10 @@ public interface IMWStreamVideoProcessListener {
 
 	public void process(Image image,  float fps, long tms) throws Exception;
 
+	/*
+	 * Called on the decoder thread with the decoded frame before process() is called on the
+	 * FX thread. The raster is reused by the decoder and only valid during the call.
+	 */
+	public default void processRaster(BufferedImage raster, float fps, long tms) throws Exception { }
+
 }
@@ -44,6 +44,10 @@ public interface IMWVideoSource {
 	public boolean isRunning();
 	int getFPS();
 
+	default int getReceivedFrames() { return 0; }
+	default int getDecodedFrames()  { return 0; }
+	default int getDroppedFrames()  { return 0; }
+
 
 
 }
\ No newline at end of file
@@ -0,0 +1,286 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2017,2021 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+package com.comino.video.src.impl;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import com.comino.video.src.IMWStreamVideoProcessListener;
+
+import javafx.application.Platform;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/*
+ * Decode stage for MJPEG sources: The receiving thread offers each JPEG frame, the frame is
+ * copied into a reusable buffer and replaces a frame not yet decoded (latest frame wins).
+ * The decoder thread decodes into one of two reusable rasters and hands it over to the FX
+ * thread, which writes the pixels into the WritableImage and passes it to the listeners.
+ * The image is therefore only modified on the FX thread, also while it is displayed.
+ * Listeners that need the pixels (e.g. recording) get the raster on the decoder thread
+ * before it is handed over, so that the image is never read back on the FX thread.
+ */
+
+public class MJpegDecoder implements Runnable {
+
+	private static final int INITIAL_BUFFER = 256 * 1024;
+	private static final int STOP_TIMEOUT   = 500;
+
+	// Iterated by the decoder thread and the FX thread, must allow concurrent modification
+	private final List<IMWStreamVideoProcessListener> listeners;
+	private final ImageReader    reader;
+	private final ImageReadParam param;
+
+	private byte[]  pending        = new byte[INITIAL_BUFFER];
+	private byte[]  decoding       = new byte[INITIAL_BUFFER];
+	private int     pending_length = 0;
+	private float   pending_fps    = 0;
+	private long    pending_tms    = 0;
+	private boolean hasPending     = false;
+
+	private final Object  frame_lock = new Object();
+	private DecodedFrame  back       = new DecodedFrame();
+	private DecodedFrame  ready      = new DecodedFrame();
+	private boolean       hasReady   = false;
+	private boolean       isPosted   = false;
+	private WritableImage image      = null;
+
+	private volatile boolean isRunning = false;
+	private volatile Thread  thread    = null;
+
+	private volatile int received = 0;
+	private volatile int decoded  = 0;
+	private volatile int dropped  = 0;
+
+	public MJpegDecoder(List<IMWStreamVideoProcessListener> listeners) {
+		this.listeners = listeners;
+		this.reader    = ImageIO.getImageReadersByFormatName("jpeg").next();
+		this.param     = reader.getDefaultReadParam();
+	}
+
+	public void start() {
+		if(isRunning)
+			return;
+		awaitStopped();
+		isRunning = true;
+		thread = new Thread(this);
+		thread.setName("Video decoder");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() {
+		isRunning = false;
+		synchronized(this) {
+			hasPending = false;
+			notify();
+		}
+		synchronized(frame_lock) {
+			hasReady = false;
+		}
+		awaitStopped();
+	}
+
+	/*
+	 * Waits for the decoder thread to finish the frame it is decoding. Not called from the
+	 * decoder thread itself, e.g. when a listener stops the source.
+	 */
+	private void awaitStopped() {
+		final Thread t = thread;
+		if(t == null || t == Thread.currentThread())
+			return;
+		try {
+			t.join(STOP_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Called by the receiving thread. A frame still waiting for decoding is dropped.
+	 */
+	public synchronized void offer(byte[] data, int offset, int length, float fps, long tms) {
+		received++;
+		if(hasPending)
+			dropped++;
+		if(pending.length < length)
+			pending = new byte[length + length / 2];
+		System.arraycopy(data, offset, pending, 0, length);
+		pending_length = length;
+		pending_fps    = fps;
+		pending_tms    = tms;
+		hasPending     = true;
+		notify();
+	}
+
+	public int getReceivedFrames() {
+		return received;
+	}
+
+	public int getDecodedFrames() {
+		return decoded;
+	}
+
+	public int getDroppedFrames() {
+		return dropped;
+	}
+
+	public void resetStatistics() {
+		received = 0; decoded = 0; dropped = 0;
+	}
+
+	@Override
+	public void run() {
+		final Thread self = Thread.currentThread();
+		while(isRunning && thread == self) {
+			final int length; final float fps; final long tms;
+			synchronized(this) {
+				while(!hasPending && isRunning) {
+					try { wait(); } catch (InterruptedException e) { return; }
+				}
+				if(!isRunning || thread != self)
+					break;
+				final byte[] tmp = decoding;
+				decoding = pending; pending = tmp;
+				length = pending_length; fps = pending_fps; tms = pending_tms;
+				hasPending = false;
+			}
+
+			/* A decoder thread not joined in time by start() still owns the reader */
+			synchronized(reader) {
+				if(!decode(back, decoding, length)) {
+					synchronized(this) {
+						dropped++;
+					}
+					continue;
+				}
+			}
+			decoded++;
+			processRaster(back, fps, tms);
+			publish(fps, tms);
+		}
+	}
+
+	private void processRaster(DecodedFrame frame, float fps, long tms) {
+		listeners.forEach((listener) -> {
+			try {
+				listener.processRaster(frame.raster, fps, tms);
+			} catch (Exception e) { e.printStackTrace(); }
+		} );
+	}
+
+	/*
+	 * Exchanges the decoded raster with the one waiting for the FX thread. A frame not yet
+	 * written by the FX thread is replaced, only one update is posted at a time.
+	 */
+	private void publish(float fps, long tms) {
+		synchronized(frame_lock) {
+			final DecodedFrame tmp = ready;
+			ready = back; back = tmp;
+			ready.fps = fps;
+			ready.tms = tms;
+			hasReady  = true;
+			if(isPosted)
+				return;
+			isPosted = true;
+		}
+		Platform.runLater(this::update);
+	}
+
+	private void update() {
+		final float fps; final long tms;
+		synchronized(frame_lock) {
+			isPosted = false;
+			if(!hasReady)
+				return;
+			hasReady = false;
+			final int width  = ready.raster.getWidth();
+			final int height = ready.raster.getHeight();
+			if(image == null || (int)image.getWidth() != width || (int)image.getHeight() != height)
+				image = new WritableImage(width, height);
+			image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getByteRgbInstance(),
+					ready.pixels, 0, width * 3);
+			fps = ready.fps; tms = ready.tms;
+		}
+		final WritableImage current = image;
+		listeners.forEach((listener) -> {
+			try {
+				listener.process(current, fps, tms);
+			} catch (Exception e) { e.printStackTrace(); }
+		} );
+	}
+
+	private boolean decode(DecodedFrame frame, byte[] data, int length) {
+		try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(data, 0, length))) {
+			reader.setInput(in, true, true);
+			final int width  = reader.getWidth(0);
+			final int height = reader.getHeight(0);
+			if(frame.raster == null || frame.raster.getWidth() != width || frame.raster.getHeight() != height) {
+				final WritableRaster r = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, width, height,
+						width * 3, 3, new int[] { 0, 1, 2 }, null);
+				frame.raster = new BufferedImage(new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+						false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE), r, false, null);
+				frame.pixels = ((DataBufferByte)r.getDataBuffer()).getData();
+			}
+			param.setDestination(frame.raster);
+			reader.read(0, param);
+			return true;
+		} catch (Exception e) {
+			return false;
+		} finally {
+			reader.setInput(null);
+		}
+	}
+
+	private static class DecodedFrame {
+		BufferedImage raster = null;
+		byte[]        pixels = null;
+		float         fps    = 0;
+		long          tms    = 0;
+	}
+}
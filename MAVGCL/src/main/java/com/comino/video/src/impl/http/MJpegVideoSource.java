@@ -33,15 +33,14 @@
 
 package com.comino.video.src.impl.http;
 
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -51,10 +50,9 @@ import javax.imageio.ImageIO;
 import com.comino.flight.model.AnalysisDataModel;
 import com.comino.video.src.IMWStreamVideoProcessListener;
 import com.comino.video.src.IMWVideoSource;
+import com.comino.video.src.impl.MJpegDecoder;
 import com.comino.video.src.impl.proxy.MSPVideoProxy;
 
-import javafx.scene.image.Image;
-
 public class MJpegVideoSource  implements IMWVideoSource, Runnable {
 	
 	private static final boolean PROXY = true;
@@ -66,7 +64,7 @@ public class MJpegVideoSource  implements IMWVideoSource, Runnable {
 
 	private MSPVideoMjpegCodec codec;
 	private DataInputStream in;
-	private Image next;
+	private MJpegDecoder decoder;
 
 	private URL     url;
 	private long    tms;
@@ -75,7 +73,7 @@ public class MJpegVideoSource  implements IMWVideoSource, Runnable {
 	
 	private MSPVideoProxy proxy = new MSPVideoProxy();
 
-	private final List<IMWStreamVideoProcessListener> listeners = new ArrayList<IMWStreamVideoProcessListener>();
+	private final List<IMWStreamVideoProcessListener> listeners = new CopyOnWriteArrayList<IMWStreamVideoProcessListener>();
 
 	public MJpegVideoSource(URI uri, AnalysisDataModel model) {
 		try {
@@ -83,6 +81,7 @@ public class MJpegVideoSource  implements IMWVideoSource, Runnable {
 		} catch (MalformedURLException e) {
 		}
 		this.codec = new MSPVideoMjpegCodec();
+		this.decoder = new MJpegDecoder(listeners);
 		
 		ImageIO.setUseCache(false);
 		Logger.getLogger("javafx.scene.image").setLevel(Level.SEVERE);
@@ -102,19 +101,12 @@ public class MJpegVideoSource  implements IMWVideoSource, Runnable {
 				LockSupport.parkNanos(1000000000); continue;
 			}
 
-			try {
-				LockSupport.parkNanos(40000000);
-				processNext();
-				if(next!=null) {
-					listeners.forEach((listener) -> {
-						try {
-							listener.process(next, fps, System.currentTimeMillis());
-						} catch (Exception e) { e.printStackTrace(); }
-					} );
-				} 
-			} catch (IOException e) { e.printStackTrace(); }
+			// Read frames as they arrive, the decoder drops frames it cannot keep up with
+			if(!processNext())
+				LockSupport.parkNanos(5000000);
 		}
 		
+		decoder.stop();
 		System.out.println("Video stopped");
 		try {
 			in.close();
@@ -138,7 +130,8 @@ public class MJpegVideoSource  implements IMWVideoSource, Runnable {
 			return;
 
 		isRunning   = true;
-		next = null;
+		decoder.resetStatistics();
+		decoder.start();
 
 		thread = new Thread(this);
 		thread.setName("Video worker");
@@ -166,6 +159,21 @@ public class MJpegVideoSource  implements IMWVideoSource, Runnable {
 		return fps;
 	}
 
+	@Override
+	public int getReceivedFrames() {
+		return decoder.getReceivedFrames();
+	}
+
+	@Override
+	public int getDecodedFrames() {
+		return decoder.getDecodedFrames();
+	}
+
+	@Override
+	public int getDroppedFrames() {
+		return decoder.getDroppedFrames();
+	}
+
 	private void connect(URL url) throws IOException {
 		URLConnection conn;
 		conn = url.openConnection();
@@ -179,18 +187,18 @@ public class MJpegVideoSource  implements IMWVideoSource, Runnable {
 		isAvailable = true;
 	}
 
-	private void processNext() throws IOException {
-		byte[] data = codec.readFrame(in);
+	private boolean processNext() {
+		final int length = codec.readFrameData(in);
 		
-		if( data == null) {
-			next = null;
-		} else {
-			if(proxy_enabled)
-			  proxy.process(data, data.length);
-			next = new Image(new ByteArrayInputStream(data), 0, 0, false, true);
-			fps = (int)(((fps * 59) + ((float)(1000f / (System.currentTimeMillis()-tms)))) /60f);
-			tms = System.currentTimeMillis();
-		}
+		if( length == 0)
+			return false;
+
+		if(proxy_enabled)
+		  proxy.process(codec.getFrame(), length);
+		fps = (int)(((fps * 59) + ((float)(1000f / Math.max(1, System.currentTimeMillis()-tms)))) /60f);
+		tms = System.currentTimeMillis();
+		decoder.offer(codec.getFrame(), 0, length, fps, tms);
+		return true;
 	}
 	
 
@@ -52,35 +52,53 @@ public class MSPVideoMjpegCodec {
 	// end of image
 	public static final byte EOI = (byte)0xD9;
 	
-	ByteArrayOutputStream bout = new ByteArrayOutputStream(32768);
+	ResizableByteArrayOutputStream bout = new ResizableByteArrayOutputStream();
+
+	boolean foundFF = false;
 
 
 	/**
 	 * Read a single frame at a time
 	 */
 	public byte[] readFrame( DataInputStream in ) {
+		if( readFrameData(in) > 0)
+			return bout.toByteArray();
+		return null;
+	}
+
+	/**
+	 * Read a single frame into the reused frame buffer (see getFrame()). Returns the
+	 * length of the frame or 0 if the frame is not complete yet.
+	 */
+	public int readFrameData( DataInputStream in ) {
 		try {
 			if( in.available() > 0 ) {
 				return readJpegData(in);
 			}
 		} catch (IOException e) {}
-		return null;
+		return 0;
 	}
 
-	private byte[] readJpegData(DataInputStream in) throws IOException {
+	public byte[] getFrame() {
+		return bout.getBuffer();
+	}
 
-		boolean foundFF = false;
+	private int readJpegData(DataInputStream in) throws IOException {
 
 		while( in.available() > 0 ) {
 			byte d = in.readByte();
 			if( foundFF ) {
 				switch(d) {
 				case EOI:
-					return bout.toByteArray(); // Prevent new allocation
+					bout.write(0xFF);
+					bout.write(EOI);
+					foundFF = false;
+					return bout.size();
 				case SOI:
 					bout.reset();
 					bout.write(0xFF);
 					bout.write(SOI);
+					foundFF = false;
 					break;
 				default:
 					bout.write(0xFF);
@@ -93,7 +111,7 @@ public class MSPVideoMjpegCodec {
 				bout.write(d);
 			}
 		}
-		return null;
+		return 0;
 	}
 
 
@@ -184,6 +184,14 @@ public class StreamSplit {
 		return buf.array();
 	}
 
+	/**
+	 * Length of the data read by the last readToBoundary()
+	 */
+	public int getLength()
+	{
+		return buf.position();
+	}
+
 
 	public boolean isAtStreamEnd()
 	{
@@ -203,4 +211,10 @@ class ResizableByteArrayOutputStream extends ByteArrayOutputStream {
 	{
 		count = size;
 	}
+
+
+	public byte[] getBuffer()
+	{
+		return buf;
+	}
 }
\ No newline at end of file
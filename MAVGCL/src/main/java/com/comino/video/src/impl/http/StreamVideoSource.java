@@ -35,26 +35,21 @@ package com.comino.video.src.impl.http;
 
 
 
-import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
-
-import javax.imageio.ImageIO;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.comino.flight.model.AnalysisDataModel;
 import com.comino.video.src.IMWStreamVideoProcessListener;
 import com.comino.video.src.IMWVideoSource;
-
-import javafx.scene.image.Image;
+import com.comino.video.src.impl.MJpegDecoder;
 
 
 
@@ -65,8 +60,6 @@ import javafx.scene.image.Image;
  */
 public class StreamVideoSource  implements IMWVideoSource, Runnable {
 
-	private static final int RATE = 20;
-
 	public static final String BOUNDARY_MARKER_PREFIX  = "--";
 
 	private Thread thread = null;          // thread reading mjpeg stream
@@ -77,8 +70,6 @@ public class StreamVideoSource  implements IMWVideoSource, Runnable {
 	private boolean m_collecting =false;
 	private boolean isRunning = false;
 	private boolean isAvailable = true;
-	
-	private Image image;
 
 	private long tms=0;
 
@@ -86,7 +77,8 @@ public class StreamVideoSource  implements IMWVideoSource, Runnable {
 
 	private int  fps=0;
 
-	private List<IMWStreamVideoProcessListener> listener = new ArrayList<IMWStreamVideoProcessListener>();
+	private List<IMWStreamVideoProcessListener> listener = new CopyOnWriteArrayList<IMWStreamVideoProcessListener>();
+	private final MJpegDecoder decoder = new MJpegDecoder(listener);
 
 
 	public StreamVideoSource(URI uri, AnalysisDataModel model) {
@@ -228,34 +220,16 @@ public class StreamVideoSource  implements IMWVideoSource, Runnable {
 						} else {
 							//	System.out.println("FC: "+(++framecounter)+"   ");
 							byte[] img = ssplit.readToBoundary(boundary);
-							if (img.length == 0) {
+							if (ssplit.getLength() == 0) {
 								System.out.println("BREAK");
 								trigger = 0;
 								break;
 							}
-							try {
-								if(System.currentTimeMillis() >= trigger) {
-									tms = System.currentTimeMillis();
-									image = new Image(new ByteArrayInputStream(img));
-								//	image = ImageIO.read(new ByteArrayInputStream(img));
-									listener.forEach((l) -> {
-										try {
-										l.process(image, fps, tms);
-										} catch (Exception e) {
-											e.printStackTrace();
-											System.err.println(e.getMessage());
-										}
-									} );
-
-
-									fps = (int)(1000 / (System.currentTimeMillis() - tms));
-									trigger = System.currentTimeMillis()+RATE;
-								}
-								else
-									Thread.sleep(RATE);
-
-							} catch (Exception e) {
-								throw new Exception(e.getMessage());
+							// Every frame is handed over, the decoder drops frames it cannot keep up with
+							if(System.currentTimeMillis() >= trigger) {
+								fps = (int)(1000 / Math.max(1, System.currentTimeMillis() - tms));
+								tms = System.currentTimeMillis();
+								decoder.offer(img, 0, ssplit.getLength(), fps, tms);
 							}
 						}
 					}
@@ -278,6 +252,8 @@ public class StreamVideoSource  implements IMWVideoSource, Runnable {
 			return;
 
 		isRunning = true;
+		decoder.resetStatistics();
+		decoder.start();
 		thread = new Thread(this);
 		thread.setName("Video worker");
 		thread.start();
@@ -294,6 +270,7 @@ public class StreamVideoSource  implements IMWVideoSource, Runnable {
 		if (thread == null)
 			return;
 		thread.interrupt();
+		decoder.stop();
 		m_collecting = false;
 		isRunning = false;
 		try {
@@ -320,6 +297,21 @@ public class StreamVideoSource  implements IMWVideoSource, Runnable {
 		return fps;
 	}
 
+	@Override
+	public int getReceivedFrames() {
+		return decoder.getReceivedFrames();
+	}
+
+	@Override
+	public int getDecodedFrames() {
+		return decoder.getDecodedFrames();
+	}
+
+	@Override
+	public int getDroppedFrames() {
+		return decoder.getDroppedFrames();
+	}
+
 
 
 //	private Image getfromjpeg(byte[] in) {
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 
 import com.comino.video.src.impl.http.MSPVideoMjpegCodec;
 import com.sun.net.httpserver.HttpExchange;
@@ -36,8 +37,9 @@ public class MSPVideoProxy implements HttpHandler {
 
 
 	public void process(byte[] buf, int length) {
-		//System.arraycopy(buf, 0, this.buf, 0, length);
-		this.buf = buf;
+		if(!is_running && this.buf != null)
+			return;
+		this.buf = Arrays.copyOf(buf, length);
 		this.length = length;
 		synchronized(this) {
 			isReady = true;
@@ -1,10 +1,8 @@
 package com.comino.video.src.impl.rtps;
 
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
@@ -17,9 +15,9 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,10 +30,9 @@ import com.comino.mavcom.model.segment.Status;
 import com.comino.mavutils.rtps.RTPpacket;
 import com.comino.video.src.IMWStreamVideoProcessListener;
 import com.comino.video.src.IMWVideoSource;
+import com.comino.video.src.impl.MJpegDecoder;
 import com.comino.video.src.impl.proxy.MSPVideoProxy;
 
-import javafx.scene.image.Image;
-
 public class RTSPMjpegVideoSource implements IMWVideoSource {
 	
 	private static final boolean PROXY = true;
@@ -70,7 +67,8 @@ public class RTSPMjpegVideoSource implements IMWVideoSource {
 //	private MSPVideoProxy proxy = new MSPVideoProxy();
 
 
-	private final List<IMWStreamVideoProcessListener> listeners = new ArrayList<IMWStreamVideoProcessListener>();
+	private final List<IMWStreamVideoProcessListener> listeners = new CopyOnWriteArrayList<IMWStreamVideoProcessListener>();
+	private final MJpegDecoder decoder = new MJpegDecoder(listeners);
 
 
 	int statCumLost;            //Number of packets lost
@@ -149,6 +147,21 @@ public class RTSPMjpegVideoSource implements IMWVideoSource {
 		return (int)(fps+0.5f);
 	}
 
+	@Override
+	public int getReceivedFrames() {
+		return decoder.getReceivedFrames();
+	}
+
+	@Override
+	public int getDecodedFrames() {
+		return decoder.getDecodedFrames();
+	}
+
+	@Override
+	public int getDroppedFrames() {
+		return decoder.getDroppedFrames();
+	}
+
 
 	@Override
 	public void start() {
@@ -196,6 +209,8 @@ public class RTSPMjpegVideoSource implements IMWVideoSource {
 		}
 
 		isRunning = true;
+		decoder.resetStatistics();
+		decoder.start();
 		new Thread(new Receiver()).start();
 
 		//increase RTSP sequence number
@@ -208,7 +223,6 @@ public class RTSPMjpegVideoSource implements IMWVideoSource {
 
 	private class Receiver implements Runnable {
 
-		private Image next;
 		private final byte [] payload = new byte[128*1024];
 		private final byte [] buf     = new byte[128*1024]; 
 		
@@ -260,15 +274,7 @@ public class RTSPMjpegVideoSource implements IMWVideoSource {
 					
 //					if(proxy_enabled)
 //					  proxy.process(payload, payload_length);
-					next = new Image(new BufferedInputStream(new ByteArrayInputStream(payload,0,payload_length)), 0, 0, false, true);
-					if(next!=null) {
-						listeners.forEach((listener) -> {
-							try {
-								listener.process(next, fps, rtp_packet.TimeStamp/1000);
-							} catch (Exception ex) { ex.printStackTrace(); }
-						} );
-					} else
-						System.out.println("NO VIDEO");
+					decoder.offer(payload, 0, payload_length, fps, rtp_packet.TimeStamp/1000);
 
 				}
 				catch (InterruptedIOException iioe) { 
@@ -354,6 +360,7 @@ public class RTSPMjpegVideoSource implements IMWVideoSource {
 		System.out.println("Closing video stream");
 
 		isRunning = false;	
+		decoder.stop();
 		fps = 0;
 
 		RTSPSeqNb = 0;
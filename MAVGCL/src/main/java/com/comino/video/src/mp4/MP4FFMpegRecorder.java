@@ -35,6 +35,9 @@
 package com.comino.video.src.mp4;
 
 import java.awt.image.BufferedImage;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.bytedeco.ffmpeg.global.avcodec;
 import org.bytedeco.ffmpeg.global.avutil;
@@ -45,79 +48,219 @@ import org.bytedeco.javacv.Java2DFrameConverter;
 import com.comino.flight.observables.StateProperties;
 import com.comino.video.src.IMWStreamVideoProcessListener;
 
-import javafx.embed.swing.SwingFXUtils;
+import javafx.application.Platform;
 import javafx.scene.image.Image;
 
+/*
+ * The video listener only copies the decoded raster of a frame into a free buffer of a bounded
+ * ring on the decoder thread and returns, the FX image is not read back.
+ * Frames are converted and encoded by the encoder thread, timestamped by their capture time.
+ * If no buffer is free, a frame is dropped according to the drop policy. Stop returns at
+ * once; the encoder encodes all queued frames, closes the file and then resets the
+ * MP4 recording property. A start while the encoder is still closing the previous file is
+ * performed by the encoder when it has finished.
+ */
+
 public class MP4FFMpegRecorder implements IMWStreamVideoProcessListener {
 
+	public enum DropPolicy { DROP_OLDEST, DROP_NEWEST }
+
 	private final StateProperties state = StateProperties.getInstance();
 	private static final int VIDEO_BITRATE = 1500_000;
+	private static final int FRAME_RATE    = 30;
+	private static final int QUEUE_SIZE    = 8;
 
 	private FFmpegFrameRecorder recorder;
 	private final Java2DFrameConverter biconv = new Java2DFrameConverter();;
 	private String path;
 	private long tms_start = 0;
-	private BufferedImage bimg = null;
-	private boolean isRunning;
+	private volatile boolean isRunning;
+
+	private final BlockingQueue<Slot> free  = new ArrayBlockingQueue<Slot>(QUEUE_SIZE);
+	private final BlockingQueue<Slot> queue = new ArrayBlockingQueue<Slot>(QUEUE_SIZE);
+
+	private static volatile MP4FFMpegRecorder last = null;
+
+	private DropPolicy policy  = DropPolicy.DROP_OLDEST;
+	private Thread     encoder = null;
+	private boolean    isDraining   = false;
+	private boolean    isStartQueued = false;
+
+	private volatile float encode_fps = 0;
+	private volatile int   dropped    = 0;
 
 
 	public MP4FFMpegRecorder(String path) {
 		this.path = path;
+		for(int i = 0; i < QUEUE_SIZE; i++)
+			free.offer(new Slot());
 	}
 
-	public void start() {
+	public void setDropPolicy(DropPolicy policy) {
+		this.policy = policy;
+	}
+
+	public synchronized void start() {
+		if(isRunning)
+			return;
+		if(isDraining) {
+			isStartQueued = true;
+			System.out.println("MP4 recording starts after previous file is closed");
+			return;
+		}
 		try {
 			recorder = new FFmpegFrameRecorder(path+"/video.mp4",640,480,0);
 			recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
 			recorder.setGopSize(1);
 			recorder.setVideoBitrate(VIDEO_BITRATE);
-			recorder.setFrameRate(20);
+			recorder.setFrameRate(FRAME_RATE);
 			tms_start = 0;
+			encode_fps = 0;
+			dropped = 0;
+			queue.drainTo(free);
 			recorder.start();
-			state.getMP4RecordingProperty().set(true);
+			Platform.runLater(() -> state.getMP4RecordingProperty().set(true));
 			System.out.println("MP4 recording started - MP4");
 			isRunning = true;
+			last = this;
+			encoder = new Thread(this::encode);
+			encoder.setName("MP4 encoder");
+			encoder.setDaemon(true);
+			encoder.start();
 		}  catch (Exception e1) { 
 			e1.printStackTrace();
 		}
 	}
 
-	public void stop() {
-		try {
-			if(recorder!=null && state.getMP4RecordingProperty().get()) {
-				isRunning = false;
-				recorder.flush();
-				recorder.stop();
-				recorder.close();
-				recorder.release();
-				state.getMP4RecordingProperty().set(false);
-				System.out.println("MP4 recording stopped");
-			}
-		}  catch (Exception e1) { 
-			state.getMP4RecordingProperty().set(false);
-			e1.printStackTrace();
+	public synchronized void stop() {
+		isStartQueued = false;
+		if(!isRunning)
+			return;
+		isRunning  = false;
+		isDraining = true;
+	}
+
+	/*
+	 * Blocks until the queued frames are encoded and the file is closed or the timeout expired.
+	 */
+	public boolean awaitStopped(long timeout_ms) throws InterruptedException {
+		final Thread t;
+		synchronized(this) {
+			t = encoder;
 		}
+		if(t != null)
+			t.join(timeout_ms);
+		return t == null || !t.isAlive();
+	}
+
+	/*
+	 * Blocks until the file of the recorder started last is closed or the timeout expired.
+	 */
+	public static boolean awaitLastStopped(long timeout_ms) throws InterruptedException {
+		final MP4FFMpegRecorder recorder = last;
+		return recorder == null || recorder.awaitStopped(timeout_ms);
+	}
+
+	public float getEncodeFPS() {
+		return encode_fps;
+	}
+
+	public int getQueueDepth() {
+		return queue.size();
+	}
 
+	public int getDroppedFrames() {
+		return dropped;
 	}
 
 	@Override
 	public void process(Image image,  float fps, long tms) throws Exception {
-		if(state.getMP4RecordingProperty().get() && image!=null & isRunning) {
-			bimg = SwingFXUtils.fromFXImage(image, bimg);
-			Frame frame = biconv.convert(bimg);
-			if(tms_start == 0) {
-				tms_start = tms;
+		// Frames are recorded from the raster, the image is for display only
+	}
+
+	@Override
+	public void processRaster(BufferedImage raster,  float fps, long tms) throws Exception {
+		if(!isRunning || raster == null)
+			return;
+
+		Slot slot = free.poll();
+		if(slot == null && policy == DropPolicy.DROP_OLDEST)
+			slot = queue.poll();
+		if(slot == null) {
+			dropped++;
+			return;
+		}
+		if(slot.tms != 0)
+			dropped++;
+
+		slot.bimg = copy(raster, slot.bimg);
+		slot.tms  = tms;
+		queue.offer(slot);
+	}
+
+	private void encode() {
+		long tms_last = 0;
+		try {
+			while(isRunning || !queue.isEmpty()) {
+				final Slot slot = queue.poll(100, TimeUnit.MILLISECONDS);
+				if(slot == null)
+					continue;
+				try {
+					Frame frame = biconv.convert(slot.bimg);
+					if(tms_start == 0) {
+						tms_start = slot.tms;
+					}
+					final long timestamp = (slot.tms - tms_start) * 1000L;
+					if(timestamp > recorder.getTimestamp())
+						recorder.setTimestamp(timestamp);
+					frame.timestamp   = timestamp;
+					frame.keyFrame    = true;
+					// Rasters of the decoder are interleaved RGB bytes
+					recorder.record(frame,avutil.AV_PIX_FMT_RGB24);
+
+					if(tms_last > 0 && slot.tms > tms_last)
+						encode_fps = ((encode_fps * 29) + (1000f / (slot.tms - tms_last))) / 30f;
+					tms_last = slot.tms;
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+				slot.tms = 0;
+				free.offer(slot);
+			}
+		} catch (InterruptedException e) { }
+
+		try {
+			recorder.flush();
+			recorder.stop();
+			recorder.close();
+			recorder.release();
+			System.out.println("MP4 recording stopped");
+		}  catch (Exception e1) { 
+			e1.printStackTrace();
+		}
+		Platform.runLater(() -> state.getMP4RecordingProperty().set(false));
+
+		synchronized(this) {
+			isDraining = false;
+			if(isStartQueued) {
+				isStartQueued = false;
+				start();
 			}
-			recorder.setFrameRate((int)fps);
-			frame.sampleRate  = (int)fps;
-			frame.timestamp   = (tms - tms_start)*(long)fps*1000;
-			frame.keyFrame    = true;
-		
-		   
-			recorder.record(frame,avutil.AV_PIX_FMT_0RGB);
-		
-		
 		}
 	}
 
+	private static BufferedImage copy(BufferedImage src, BufferedImage dst) {
+		if(dst == null || dst.getWidth() != src.getWidth() || dst.getHeight() != src.getHeight()
+				|| !dst.getColorModel().equals(src.getColorModel()))
+			dst = new BufferedImage(src.getColorModel(), src.getRaster().createCompatibleWritableRaster(),
+					src.isAlphaPremultiplied(), null);
+		src.copyData(dst.getRaster());
+		return dst;
+	}
+
+	private static class Slot {
+		BufferedImage bimg = null;
+		long          tms  = 0;
+	}
+
 }
@@ -2,6 +2,7 @@ package com.comino.video.src.player;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.prefs.Preferences;
 
 import com.comino.flight.model.AnalysisDataModel;
@@ -32,6 +33,9 @@ public class VideoPlayer {
     private IMWVideoSource    	 source;
     private ReplayMP4VideoSource replay_video;
     private MP4FFMpegRecorder          recorder = null;
+
+    // latest decoded frame not yet shown, null if the view is up to date
+    private final AtomicReference<Image> latest = new AtomicReference<Image>();
     
     private boolean              isConnected = false;
     private boolean              isRecording = false;
@@ -149,6 +153,9 @@ public class VideoPlayer {
 				return true;
 			}	
 			
+			// cancels a start queued while the previous file is closed
+			recorder.stop();
+			isRecording = false;
 			return false;
 		}
 		
@@ -305,9 +312,9 @@ public class VideoPlayer {
 			  source.addProcessListener(recorder);
 			
 			source.addProcessListener((im, fps, tms) -> {
-				if(image.isVisible())
+				if(image.isVisible() && latest.getAndSet(im) == null)
 					Platform.runLater(() -> {
-						image.setImage(im);
+						image.setImage(latest.getAndSet(null));
 
 					});
 			});
@@ -14,14 +14,20 @@ public abstract class BinaryLogReader implements LogReader {
     protected ByteBuffer buffer;
     protected FileChannel channel = null;
     protected long channelPosition = 0;
+    private final String fileName;
 
     public BinaryLogReader(String fileName) throws IOException {
+        this.fileName = fileName;
         buffer = ByteBuffer.allocate(65536);
         buffer.order(ByteOrder.LITTLE_ENDIAN);
         buffer.flip();
         channel = new RandomAccessFile(fileName, "r").getChannel();
     }
 
+    public String getFileName() {
+        return fileName;
+    }
+
     @Override
     public void close() throws IOException {
         channel.close();
@@ -10,6 +10,12 @@ public class FieldFormat {
     public final String type;
     public final int size; //array length (-1 if not an array)
 
+    private static final int T_FLOAT = 0, T_DOUBLE = 1, T_INT8 = 2, T_UINT8 = 3, T_INT16 = 4, T_UINT16 = 5,
+                             T_INT32 = 6, T_UINT32 = 7, T_INT64 = 8, T_CHAR = 9, T_UNKNOWN = 10;
+    private static final int[] TYPE_SIZE = { 4, 8, 1, 1, 2, 2, 4, 4, 8, 1, 0 };
+
+    private int typeCode = -1;
+
     public FieldFormat(String formatStr) {
         String[] p = formatStr.split(" ");
         if(p.length > 1)
@@ -39,6 +45,119 @@ public class FieldFormat {
 
     }
 
+    private int getTypeCode() {
+        if (typeCode < 0) {
+            if (type.equals("float")) {
+                typeCode = T_FLOAT;
+            } else if (type.equals("double")) {
+                typeCode = T_DOUBLE;
+            } else if (type.equals("int8_t") || type.equals("bool")) {
+                typeCode = T_INT8;
+            } else if (type.equals("uint8_t")) {
+                typeCode = T_UINT8;
+            } else if (type.equals("int16_t")) {
+                typeCode = T_INT16;
+            } else if (type.equals("uint16_t")) {
+                typeCode = T_UINT16;
+            } else if (type.equals("int32_t")) {
+                typeCode = T_INT32;
+            } else if (type.equals("uint32_t")) {
+                typeCode = T_UINT32;
+            } else if (type.equals("int64_t") || type.equals("uint64_t")) {
+                typeCode = T_INT64;
+            } else if (type.equals("char")) {
+                typeCode = T_CHAR;
+            } else {
+                typeCode = T_UNKNOWN;
+            }
+        }
+        return typeCode;
+    }
+
+    /**
+     * Size of a single element in bytes
+     */
+    public int getElementSize() {
+        return TYPE_SIZE[getTypeCode()];
+    }
+
+    /**
+     * Size of the field in the message body in bytes
+     */
+    public int getFieldSize() {
+        return size >= 0 ? size * getElementSize() : getElementSize();
+    }
+
+    /**
+     * True if single elements can be decoded as number (i.e. not a string)
+     */
+    public boolean isNumeric() {
+        int t = getTypeCode();
+        return t != T_UNKNOWN && !(t == T_CHAR && size >= 0);
+    }
+
+    /**
+     * Decode a single element at the absolute position without boxing
+     */
+    public double getDouble(ByteBuffer buffer, int position) {
+        switch (getTypeCode()) {
+            case T_FLOAT:
+                return buffer.getFloat(position);
+            case T_DOUBLE:
+                return buffer.getDouble(position);
+            case T_INT8:
+            case T_CHAR:
+                return buffer.get(position);
+            case T_UINT8:
+                return buffer.get(position) & 0xFF;
+            case T_INT16:
+                return buffer.getShort(position);
+            case T_UINT16:
+                return buffer.getShort(position) & 0xFFFF;
+            case T_INT32:
+                return buffer.getInt(position);
+            case T_UINT32:
+                return buffer.getInt(position) & 0xFFFFFFFFL;
+            case T_INT64:
+                return buffer.getLong(position);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * True if getValue() returns elements as Long (uint32, int64, uint64)
+     */
+    public boolean isLong() {
+        int t = getTypeCode();
+        return t == T_UINT32 || t == T_INT64;
+    }
+
+    /**
+     * Box a decoded element into the same type getValue() returns
+     */
+    public Object box(double v) {
+        switch (getTypeCode()) {
+            case T_FLOAT:
+                return (float) v;
+            case T_DOUBLE:
+                return v;
+            case T_INT8:
+            case T_UINT8:
+            case T_INT16:
+            case T_UINT16:
+            case T_INT32:
+                return (int) v;
+            case T_UINT32:
+            case T_INT64:
+                return (long) v;
+            case T_CHAR:
+                return (byte) v;
+            default:
+                return 0;
+        }
+    }
+
     public boolean isArray() {
         return size >= 0 && !"char".equals(type);
     }
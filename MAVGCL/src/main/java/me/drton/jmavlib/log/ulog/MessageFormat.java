@@ -21,6 +21,12 @@ public class MessageFormat {
     /** max multi id of all logged messages with this format */
     public int maxMultiID = 0;
 
+    // Flattened numeric elements (array fields expanded), built on first use after parsing is done
+    private FieldFormat[] elementFields = null;
+    private int[] elementOffsets = null;
+    private String[] elementNames = null;
+    private int timestampElement = -1;
+
     public static String getString(ByteBuffer buffer, int len) {
         byte[] strBuf = new byte[len];
         buffer.get(strBuf);
@@ -44,6 +50,16 @@ public class MessageFormat {
         }
     }
 
+    /**
+     * Restore an already flattened format, e.g. from an index
+     */
+    public MessageFormat(String name, ArrayList<FieldFormat> fields, Map<String, Integer> fieldsMap) {
+        this.name = name;
+        this.fields = fields;
+        this.fieldsMap.putAll(fieldsMap);
+        this.nestedParsingDone = true;
+    }
+
     public void parseNestedTypes(final Map<String, MessageFormat> messageFormats) {
         if (nestedParsingDone)
             return;
@@ -78,6 +94,7 @@ public class MessageFormat {
         }
 
         fields = newFields;
+        elementFields = null;
 
         nestedParsingDone = true;
     }
@@ -94,10 +111,97 @@ public class MessageFormat {
         if (fields.size() > 0) {
             if (fields.get(fields.size() - 1).name.startsWith("_padding")) {
                 fields.remove(fields.size() - 1);
+                elementFields = null;
             }
         }
     }
 
+    private void buildElements() {
+        List<FieldFormat> f = new ArrayList<FieldFormat>();
+        List<Integer> o = new ArrayList<Integer>();
+        List<String> n = new ArrayList<String>();
+        int offset = 0;
+        for (FieldFormat field : fields) {
+            if (field.isNumeric()) {
+                if (field.isArray()) {
+                    for (int j = 0; j < field.size; j++) {
+                        f.add(field);
+                        o.add(offset + j * field.getElementSize());
+                        n.add(field.name + "[" + j + "]");
+                    }
+                } else {
+                    f.add(field);
+                    o.add(offset);
+                    n.add(field.name);
+                }
+            }
+            offset += field.getFieldSize();
+        }
+        int[] offsets = new int[o.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = o.get(i);
+        }
+        elementNames = n.toArray(new String[n.size()]);
+        elementOffsets = offsets;
+        timestampElement = n.indexOf("timestamp");
+        elementFields = f.toArray(new FieldFormat[f.size()]);
+    }
+
+    private FieldFormat[] getElementFields() {
+        FieldFormat[] f = elementFields;
+        if (f == null) {
+            buildElements();
+            f = elementFields;
+        }
+        return f;
+    }
+
+    /**
+     * Number of numeric elements of a data message, array fields count with each element
+     */
+    public int getElementCount() {
+        return getElementFields().length;
+    }
+
+    /**
+     * Element name as used in updates, e.g. "q[2]"
+     */
+    public String getElementName(int element) {
+        getElementFields();
+        return elementNames[element];
+    }
+
+    /**
+     * Field format of the element, e.g. to box a decoded value
+     */
+    public FieldFormat getElementField(int element) {
+        return getElementFields()[element];
+    }
+
+    /**
+     * Index of the element holding the timestamp, -1 if none
+     */
+    public int getTimestampElement() {
+        getElementFields();
+        return timestampElement;
+    }
+
+    /**
+     * Decode a single element of a message body starting at the absolute position bodyOffset
+     * without creating a MessageData or boxing
+     */
+    public double getDouble(ByteBuffer buffer, int bodyOffset, int element) {
+        return getElementFields()[element].getDouble(buffer, bodyOffset + elementOffsets[element]);
+    }
+
+    /**
+     * Decode the timestamp of a message body starting at the absolute position bodyOffset
+     */
+    public long getTimestamp(ByteBuffer buffer, int bodyOffset) {
+        getElementFields();
+        return buffer.getLong(bodyOffset + elementOffsets[timestampElement]);
+    }
+
     public List<String> getFields() {
         List<String> field_names = new ArrayList<String>(fields.size());
         for (FieldFormat field : fields) {
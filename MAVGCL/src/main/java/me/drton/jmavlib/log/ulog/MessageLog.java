@@ -13,6 +13,19 @@ public class MessageLog {
         message = MessageFormat.getString(buffer, msgSize - 9);
     }
 
+    public MessageLog(String message, long timestamp, char logLevel) {
+        this.message = message;
+        this.timestamp = timestamp;
+        this.logLevel = logLevel;
+    }
+
+    /**
+     * Level as number, 0 (EMERG) .. 7 (DEBUG)
+     */
+    public int getLevel() {
+        return (logLevel & 0xFF) - '0';
+    }
+
     public String getLevelStr() {
         switch (logLevel) {
         case '0':
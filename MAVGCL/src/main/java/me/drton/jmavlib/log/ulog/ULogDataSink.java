@@ -0,0 +1,19 @@
+package me.drton.jmavlib.log.ulog;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives DATA messages from ULogReader.readData() without a MessageData being created.
+ * The body is only valid during the call, values are decoded with MessageFormat.getDouble().
+ */
+public interface ULogDataSink {
+    /**
+     * @param format     format of the message
+     * @param multiID    multi instance id of the subscription
+     * @param timestamp  timestamp of the message
+     * @param buffer     reader buffer, must not be modified
+     * @param bodyOffset absolute position of the message body in buffer
+     * @param bodySize   size of the message body in bytes
+     */
+    void onData(MessageFormat format, int multiID, long timestamp, ByteBuffer buffer, int bodyOffset, int bodySize);
+}
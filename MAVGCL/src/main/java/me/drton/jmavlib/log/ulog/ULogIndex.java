@@ -0,0 +1,226 @@
+package me.drton.jmavlib.log.ulog;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+/**
+ * Location, key and value encoding of the sidecar index written by ULogReader.
+ * The index holds the results of the statistics pass over a log, so that a log opened
+ * again does not need to be scanned. It is valid as long as size, modification time
+ * and header hash of the log are unchanged. The least recently used index files are
+ * removed when the directory grows beyond its maximum size.
+ */
+public class ULogIndex {
+    public static final int VERSION = 2;
+    public static final int MAGIC = 0x554c4958;   // "ULIX"
+
+    private static final int HEADER_HASH_LENGTH = 65536;
+
+    private static final byte T_NULL   = 0;
+    private static final byte T_INT    = 1;
+    private static final byte T_LONG   = 2;
+    private static final byte T_FLOAT  = 3;
+    private static final byte T_DOUBLE = 4;
+    private static final byte T_BYTE   = 5;
+    private static final byte T_STRING = 6;
+    private static final byte T_ARRAY  = 7;
+
+    private static String directory = System.getProperty("user.home") + "/.MAVGCL/ulog";
+    private static long maxDirectorySize = 64L * 1024 * 1024;
+
+    public final long size;
+    public final long modified;
+    public final long headerHash;
+
+    public ULogIndex(String logFile) throws IOException {
+        File f = new File(logFile);
+        this.size = f.length();
+        this.modified = f.lastModified();
+        this.headerHash = headerHash(f);
+    }
+
+    /**
+     * Set the directory the index files are kept in (default ~/.MAVGCL/ulog)
+     */
+    public static void setDirectory(String dir) {
+        directory = dir;
+    }
+
+    /**
+     * Set the total size of the index files kept in the directory (default 64 MB)
+     */
+    public static void setMaxDirectorySize(long bytes) {
+        maxDirectorySize = bytes;
+    }
+
+    public static File getIndexFile(String logFile) {
+        File f = new File(logFile).getAbsoluteFile();
+        return new File(directory, f.getName() + "-" + Integer.toHexString(f.getPath().hashCode()) + ".idx");
+    }
+
+    public void writeKey(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(size);
+        out.writeLong(modified);
+        out.writeLong(headerHash);
+    }
+
+    public boolean matches(DataInput in) throws IOException {
+        return in.readInt() == MAGIC && in.readInt() == VERSION && in.readLong() == size &&
+               in.readLong() == modified && in.readLong() == headerHash;
+    }
+
+    /**
+     * Mark an index file as recently used, so that it is evicted last
+     */
+    public static void used(File indexFile) {
+        indexFile.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Delete the least recently used index files until the directory holds at most
+     * the maximum size
+     */
+    public static synchronized void evict() {
+        File[] files = new File(directory).listFiles((dir, name) -> name.endsWith(".idx"));
+        if (files == null) {
+            return;
+        }
+        long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> modified[i]).reversed());
+        long total = 0;
+        for (Integer i : order) {
+            total += files[i].length();
+            if (total > maxDirectorySize) {
+                files[i].delete();
+            }
+        }
+    }
+
+    private static long headerHash(File f) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            byte[] b = new byte[(int) Math.min(HEADER_HASH_LENGTH, raf.length())];
+            raf.readFully(b);
+            CRC32 crc = new CRC32();
+            crc.update(b);
+            return crc.getValue();
+        }
+    }
+
+    public static void writeObject(DataOutput out, Object v) throws IOException {
+        if (v == null) {
+            out.writeByte(T_NULL);
+        } else if (v instanceof Integer) {
+            out.writeByte(T_INT);
+            out.writeInt((Integer) v);
+        } else if (v instanceof Long) {
+            out.writeByte(T_LONG);
+            out.writeLong((Long) v);
+        } else if (v instanceof Float) {
+            out.writeByte(T_FLOAT);
+            out.writeFloat((Float) v);
+        } else if (v instanceof Double) {
+            out.writeByte(T_DOUBLE);
+            out.writeDouble((Double) v);
+        } else if (v instanceof Byte) {
+            out.writeByte(T_BYTE);
+            out.writeByte((Byte) v);
+        } else if (v instanceof String) {
+            out.writeByte(T_STRING);
+            writeString(out, (String) v);
+        } else if (v instanceof Object[]) {
+            Object[] a = (Object[]) v;
+            out.writeByte(T_ARRAY);
+            out.writeInt(a.length);
+            for (Object o : a) {
+                writeObject(out, o);
+            }
+        } else {
+            throw new IOException("Unsupported value type: " + v.getClass().getName());
+        }
+    }
+
+    public static Object readObject(DataInput in) throws IOException {
+        byte t = in.readByte();
+        switch (t) {
+            case T_NULL:
+                return null;
+            case T_INT:
+                return in.readInt();
+            case T_LONG:
+                return in.readLong();
+            case T_FLOAT:
+                return in.readFloat();
+            case T_DOUBLE:
+                return in.readDouble();
+            case T_BYTE:
+                return in.readByte();
+            case T_STRING:
+                return readString(in);
+            case T_ARRAY:
+                Object[] a = new Object[in.readInt()];
+                for (int i = 0; i < a.length; i++) {
+                    a[i] = readObject(in);
+                }
+                return a;
+            default:
+                throw new IOException("Unknown value type: " + t);
+        }
+    }
+
+    /**
+     * Length prefixed UTF-8 encoding of strings, not limited to 64 KB like writeUTF
+     */
+    public static void writeString(DataOutput out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Variable length encoding of signed values, small deltas need 1-2 bytes
+     */
+    public static void writeVarLong(DataOutput out, long v) throws IOException {
+        long z = (v << 1) ^ (v >> 63);
+        while ((z & ~0x7FL) != 0) {
+            out.writeByte((int) ((z & 0x7F) | 0x80));
+            z >>>= 7;
+        }
+        out.writeByte((int) z);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long z = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readByte() & 0xFF;
+            z |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (z >>> 1) ^ -(z & 1);
+    }
+}
@@ -1,11 +1,19 @@
 package me.drton.jmavlib.log.ulog;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.swing.JFileChooser;
 
@@ -33,6 +41,9 @@ public class ULogReader extends BinaryLogReader {
 
     static final int INCOMPAT_FLAG0_DATA_APPENDED_MASK = 1 << 0;
 
+    /** Returned by readData() for DATA messages passed to the sink */
+    public static final Object DATA_MESSAGE = new Object();
+
     private String systemName = "PX4";
     private long dataStart = 0;
     private Map<String, MessageFormat> messageFormats = new HashMap<String, MessageFormat>();
@@ -110,7 +121,11 @@ public class ULogReader extends BinaryLogReader {
     public ULogReader(String fileName) throws IOException, FormatErrorException {
         super(fileName);
         parameterUpdates = new HashMap<String, List<ParamUpdate>>();
-        updateStatistics();
+        ULogIndex index = new ULogIndex(fileName);
+        if (!readIndex(fileName, index)) {
+            updateStatistics();
+            writeIndex(fileName, index);
+        }
     }
 
     @Override
@@ -152,6 +167,13 @@ public class ULogReader extends BinaryLogReader {
         return parameters;
     }
     
+    /**
+     * Message formats defined in the log, available after the header has been read
+     */
+    public Map<String, MessageFormat> getMessageFormats() {
+        return messageFormats;
+    }
+
     public Map<String, String> getFieldList() {
 		return fieldsList;
 	}
@@ -387,6 +409,233 @@ public class ULogReader extends BinaryLogReader {
         }
     }
 
+    /**
+     * Restore the results of updateStatistics() from the sidecar index of the log
+     *
+     * @return false if no valid index is available
+     */
+    private boolean readIndex(String fileName, ULogIndex index) {
+        File f = ULogIndex.getIndexFile(fileName);
+        if (!f.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f))))) {
+            if (!index.matches(in)) {
+                return false;
+            }
+            systemName = ULogIndex.readString(in);
+            dataStart = in.readLong();
+            logStartTimestamp = in.readLong();
+            startMicroseconds = in.readLong();
+            sizeUpdates = in.readLong();
+            sizeMicroseconds = in.readLong();
+            utcTimeReference = in.readLong();
+            replayedLog = in.readBoolean();
+            hardfaultPlainText = ULogIndex.readString(in);
+
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String name = ULogIndex.readString(in);
+                int maxMultiID = in.readInt();
+                int nf = in.readInt();
+                ArrayList<FieldFormat> fields = new ArrayList<FieldFormat>(nf);
+                for (int k = 0; k < nf; k++) {
+                    fields.add(new FieldFormat(ULogIndex.readString(in), ULogIndex.readString(in), in.readInt()));
+                }
+                Map<String, Integer> fieldsMap = new HashMap<String, Integer>();
+                int nm = in.readInt();
+                for (int k = 0; k < nm; k++) {
+                    fieldsMap.put(ULogIndex.readString(in), in.readInt());
+                }
+                MessageFormat format = new MessageFormat(name, fields, fieldsMap);
+                format.maxMultiID = maxMultiID;
+                messageFormats.put(name, format);
+            }
+            nestedParsingDone = true;
+
+            n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                Subscription s = null;
+                if (in.readBoolean()) {
+                    String name = ULogIndex.readString(in);
+                    s = new Subscription(messageFormats.get(name), in.readInt());
+                }
+                messageSubscriptions.add(s);
+            }
+
+            n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                appendedOffsets.add(in.readLong());
+            }
+
+            n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                version.put(ULogIndex.readString(in), ULogIndex.readObject(in));
+            }
+
+            n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                parameters.put(ULogIndex.readString(in), ULogIndex.readObject(in));
+            }
+
+            n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String key = ULogIndex.readString(in);
+                int nu = in.readInt();
+                List<ParamUpdate> updates = new ArrayList<ParamUpdate>(nu);
+                for (int k = 0; k < nu; k++) {
+                    updates.add(new ParamUpdate(key, ULogIndex.readObject(in), in.readLong()));
+                }
+                parameterUpdates.put(key, updates);
+            }
+
+            n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                char level = in.readChar();
+                long timestamp = in.readLong();
+                loggedMessages.add(new MessageLog(ULogIndex.readString(in), timestamp, level));
+            }
+
+            n = in.readInt();
+            fieldsList = new HashMap<String, String>(n * 2);
+            for (int i = 0; i < n; i++) {
+                fieldsList.put(ULogIndex.readString(in), ULogIndex.readString(in));
+            }
+
+            n = in.readInt();
+            seekTimes = new ArrayList<SeekTime>(n);
+            long timestamp = 0;
+            long position = 0;
+            for (int i = 0; i < n; i++) {
+                timestamp += ULogIndex.readVarLong(in);
+                position += ULogIndex.readVarLong(in);
+                seekTimes.add(new SeekTime(timestamp, position));
+            }
+
+            seek(0);
+            ULogIndex.used(f);
+            return true;
+
+        } catch (Exception e) {
+            System.err.println("ULog index " + f.getName() + " not used: " + e.getMessage());
+            messageFormats.clear();
+            messageSubscriptions.clear();
+            appendedOffsets.clear();
+            version.clear();
+            parameters.clear();
+            parameterUpdates.clear();
+            loggedMessages.clear();
+            nestedParsingDone = false;
+            return false;
+        }
+    }
+
+    /**
+     * Write the results of updateStatistics() to the sidecar index of the log
+     */
+    private void writeIndex(String fileName, ULogIndex index) {
+        File f = ULogIndex.getIndexFile(fileName);
+        File tmp = new File(f.getPath() + ".tmp");
+        f.getParentFile().mkdirs();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+            index.writeKey(out);
+            ULogIndex.writeString(out, systemName);
+            out.writeLong(dataStart);
+            out.writeLong(logStartTimestamp);
+            out.writeLong(startMicroseconds);
+            out.writeLong(sizeUpdates);
+            out.writeLong(sizeMicroseconds);
+            out.writeLong(utcTimeReference);
+            out.writeBoolean(replayedLog);
+            ULogIndex.writeString(out, hardfaultPlainText);
+
+            out.writeInt(messageFormats.size());
+            for (MessageFormat format : messageFormats.values()) {
+                ULogIndex.writeString(out, format.name);
+                out.writeInt(format.maxMultiID);
+                out.writeInt(format.fields.size());
+                for (FieldFormat field : format.fields) {
+                    ULogIndex.writeString(out, field.name);
+                    ULogIndex.writeString(out, field.type);
+                    out.writeInt(field.size);
+                }
+                out.writeInt(format.fieldsMap.size());
+                for (Map.Entry<String, Integer> e : format.fieldsMap.entrySet()) {
+                    ULogIndex.writeString(out, e.getKey());
+                    out.writeInt(e.getValue());
+                }
+            }
+
+            out.writeInt(messageSubscriptions.size());
+            for (Subscription s : messageSubscriptions) {
+                out.writeBoolean(s != null);
+                if (s != null) {
+                    ULogIndex.writeString(out, s.format.name);
+                    out.writeInt(s.multiID);
+                }
+            }
+
+            out.writeInt(appendedOffsets.size());
+            for (Long offset : appendedOffsets) {
+                out.writeLong(offset);
+            }
+
+            out.writeInt(version.size());
+            for (Map.Entry<String, Object> e : version.entrySet()) {
+                ULogIndex.writeString(out, e.getKey());
+                ULogIndex.writeObject(out, e.getValue());
+            }
+
+            out.writeInt(parameters.size());
+            for (Map.Entry<String, Object> e : parameters.entrySet()) {
+                ULogIndex.writeString(out, e.getKey());
+                ULogIndex.writeObject(out, e.getValue());
+            }
+
+            out.writeInt(parameterUpdates.size());
+            for (Map.Entry<String, List<ParamUpdate>> e : parameterUpdates.entrySet()) {
+                ULogIndex.writeString(out, e.getKey());
+                out.writeInt(e.getValue().size());
+                for (ParamUpdate u : e.getValue()) {
+                    ULogIndex.writeObject(out, u.value);
+                    out.writeLong(u.timestamp);
+                }
+            }
+
+            out.writeInt(loggedMessages.size());
+            for (MessageLog m : loggedMessages) {
+                out.writeChar(m.logLevel);
+                out.writeLong(m.timestamp);
+                ULogIndex.writeString(out, m.message);
+            }
+
+            out.writeInt(fieldsList.size());
+            for (Map.Entry<String, String> e : fieldsList.entrySet()) {
+                ULogIndex.writeString(out, e.getKey());
+                ULogIndex.writeString(out, e.getValue());
+            }
+
+            out.writeInt(seekTimes.size());
+            long timestamp = 0;
+            long position = 0;
+            for (SeekTime sk : seekTimes) {
+                ULogIndex.writeVarLong(out, sk.timestamp - timestamp);
+                ULogIndex.writeVarLong(out, sk.position - position);
+                timestamp = sk.timestamp;
+                position = sk.position;
+            }
+        } catch (Exception e) {
+            System.err.println("ULog index " + f.getName() + " not written: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        f.delete();
+        if (!tmp.renameTo(f)) {
+            tmp.delete();
+        }
+        ULogIndex.evict();
+    }
+
     @Override
     public boolean seek(long seekTime) throws IOException, FormatErrorException {
         position(dataStart);
@@ -453,6 +702,22 @@ public class ULogReader extends BinaryLogReader {
      * @throws EOFException on end of stream
      */
     public Object readMessage() throws IOException, FormatErrorException {
+        return readMessage(null);
+    }
+
+    /**
+     * Read next message from log, DATA messages are passed to the sink directly from the
+     * read buffer instead of being parsed into a MessageData.
+     *
+     * @return DATA_MESSAGE for a message passed to the sink, other messages as readMessage()
+     * @throws IOException  on IO error
+     * @throws EOFException on end of stream
+     */
+    public Object readData(ULogDataSink sink) throws IOException, FormatErrorException {
+        return readMessage(sink);
+    }
+
+    private Object readMessage(ULogDataSink sink) throws IOException, FormatErrorException {
         while (true) {
             fillBuffer(HDRLEN);
             long pos = position();
@@ -493,8 +758,19 @@ public class ULogReader extends BinaryLogReader {
                         buffer.position(buffer.position() + msgSize - 1);
                         continue;
                     }
-                    msg = new MessageData(subscription.format, buffer, subscription.multiID);
-                    break;
+                    if (sink == null) {
+                        msg = new MessageData(subscription.format, buffer, subscription.multiID);
+                        break;
+                    }
+                    if (subscription.format.getTimestampElement() < 0) {
+                        buffer.position(buffer.position() + msgSize - 2);
+                        throw new FormatErrorException("Message " + subscription.format.name + " has no timestamp field");
+                    }
+                    int body = buffer.position();
+                    sink.onData(subscription.format, subscription.multiID,
+                                subscription.format.getTimestamp(buffer, body), buffer, body, msgSize - 2);
+                    buffer.position(body + msgSize - 2);
+                    return DATA_MESSAGE;
                 case MESSAGE_TYPE_FLAG_BITS:
                     msg = new MessageFlagBits(buffer, msgSize);
                     break;
@@ -122,6 +122,9 @@ public class MapTile extends Region {
                 iv.setImage(imageWorker.getValue());
             }
         });
+        if (imageWorker.getState() == Worker.State.SUCCEEDED) {
+            iv.setImage(imageWorker.getValue());
+        }
 
         parentTile = mapArea.findCovering(zoom, i, j);
         if (parentTile != null) {
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2014, 2015, OpenMapFX and LodgON
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *     * Neither the name of LodgON, OpenMapFX, any associated website, nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL LODGON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lodgon.openmapfx.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javafx.scene.image.Image;
+
+/** Two tier cache for map tiles: a bounded LRU of decoded images shared by
+ * all tile types and a size limited file store per tile type.
+ *
+ * The file store keeps an index of its tiles in memory, so that a lookup does
+ * not touch the file system. The index is built from the directory on first
+ * use, least recently modified tiles are evicted first.
+ */
+public class TileCache {
+
+    public static final int  MEMORY_TILES = 384;
+    public static final long DISK_BYTES   = 512L * 1024 * 1024;
+
+    private static final Map<String, Image> memory = new LinkedHashMap<String, Image>(MEMORY_TILES, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+            return size() > MEMORY_TILES;
+        }
+    };
+
+    private final File basePath;
+    private final long limit;
+    private final Map<String, Long> files = new LinkedHashMap<>(1024, 0.75f, true);
+
+    private long size = 0;
+    private boolean indexed = false;
+
+    public TileCache(String basePath) {
+        this(basePath, DISK_BYTES);
+    }
+
+    public TileCache(String basePath, long limit) {
+        this.basePath = new File(basePath);
+        this.limit = limit;
+    }
+
+    /** Returns the decoded tile or null if it is not held in memory.
+     *
+     * @param key the key of the tile, including its type
+     * @return the image or null
+     */
+    public static Image getImage(String key) {
+        synchronized (memory) {
+            return memory.get(key);
+        }
+    }
+
+    public static void putImage(String key, Image image) {
+        synchronized (memory) {
+            memory.put(key, image);
+        }
+    }
+
+    /** Returns the stored tile file or null if the tile is not stored.
+     *
+     * @param path the path of the tile relative to the store, e.g. zoom/i/j.png
+     * @return the file or null
+     */
+    public synchronized File getFile(String path) {
+        index();
+        if (files.get(path) == null) {
+            return null;
+        }
+        return new File(basePath, path);
+    }
+
+    /** Writes a tile to the store and evicts the least recently used tiles
+     * as long as the store exceeds its size limit.
+     *
+     * @param path the path of the tile relative to the store
+     * @param data the encoded tile
+     */
+    public synchronized void putFile(String path, byte[] data) {
+        index();
+        final File file = new File(basePath, path);
+        final File tmp = new File(basePath, path + ".tmp");
+        try {
+            tmp.getParentFile().mkdirs();
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                fos.write(data);
+            }
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot rename " + tmp);
+            }
+        } catch (IOException ex) {
+            tmp.delete();
+            Logger.getLogger(TileCache.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+        final Long previous = files.put(path, (long) data.length);
+        size += data.length - (previous != null ? previous : 0);
+
+        final Iterator<Map.Entry<String, Long>> iterator = files.entrySet().iterator();
+        while (size > limit && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(path)) {
+                continue;
+            }
+            new File(basePath, eldest.getKey()).delete();
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    /** Removes a tile from the store, e.g. a file that cannot be decoded.
+     *
+     * @param path the path of the tile relative to the store
+     */
+    public synchronized void removeFile(String path) {
+        index();
+        final Long previous = files.remove(path);
+        if (previous != null) {
+            size -= previous;
+        }
+        new File(basePath, path).delete();
+    }
+
+    private void index() {
+        if (indexed) {
+            return;
+        }
+        indexed = true;
+        final List<File> found = new ArrayList<>();
+        collect(basePath, found);
+        Collections.sort(found, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        final int offset = basePath.getPath().length() + 1;
+        for (File f : found) {
+            final long length = f.length();
+            files.put(f.getPath().substring(offset).replace(File.separatorChar, '/'), length);
+            size += length;
+        }
+    }
+
+    private static void collect(File dir, List<File> found) {
+        final File[] list = dir.listFiles();
+        if (list == null) {
+            return;
+        }
+        for (File f : list) {
+            if (f.isDirectory()) {
+                collect(f, found);
+            } else if (f.getName().endsWith(".png")) {
+                found.add(f);
+            } else if (f.getName().endsWith(".tmp")) {
+                f.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2014, 2015, OpenMapFX and LodgON
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *     * Neither the name of LodgON, OpenMapFX, any associated website, nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL LODGON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lodgon.openmapfx.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/** A single file archive of map tiles for offline use.
+ *
+ * The archive is a header ("MTPK", int version) followed by records of
+ * int zoom, int i, int j, int length and the encoded tile. Records are only
+ * appended, so that an interrupted seeding keeps all complete tiles and can
+ * be resumed. When opened, the record headers are scanned once to build the
+ * index; a truncated last record is dropped. Tiles are read from a memory
+ * mapping of the archive, which is remapped after tiles have been added.
+ */
+public class TilePack {
+
+    public static final String EXTENSION = ".mtpk";
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x4d54504b;   // "MTPK"
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 16;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final Map<Long, Long> index = new HashMap<>();
+
+    private MappedByteBuffer mapped = null;
+    private long end;
+
+    /** Opens the archive, creating it if it does not exist.
+     *
+     * @param file the archive
+     * @throws IOException if the file is not a tile archive or cannot be read
+     */
+    public TilePack(File file) throws IOException {
+        this.file = file;
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+
+        if (channel.size() < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            end = HEADER_SIZE;
+        } else {
+            scan();
+        }
+    }
+
+    /** Opens the archive belonging to a tile store, if there is one.
+     *
+     * @param store the base path of the tile store
+     * @return the archive or null
+     */
+    public static TilePack open(String store) {
+        File f = new File(store + EXTENSION);
+        if (!f.exists()) {
+            return null;
+        }
+        try {
+            return new TilePack(f);
+        } catch (IOException ex) {
+            System.err.println("Tile pack " + f + " not readable: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized boolean contains(int zoom, long i, long j) {
+        return index.containsKey(key(zoom, i, j));
+    }
+
+    /** Returns the encoded tile or null if the archive does not contain it.
+     *
+     * @param zoom the zoom level
+     * @param i the x-index
+     * @param j the y-index
+     * @return the encoded tile or null
+     * @throws IOException if the archive cannot be mapped
+     */
+    public byte[] get(int zoom, long i, long j) throws IOException {
+        ByteBuffer b;
+        long offset;
+        synchronized (this) {
+            Long o = index.get(key(zoom, i, j));
+            if (o == null) {
+                return null;
+            }
+            offset = o;
+            if (mapped == null || offset >= mapped.capacity()) {
+                if (end > Integer.MAX_VALUE) {
+                    throw new IOException("Tile pack " + file + " exceeds 2GB");
+                }
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+            }
+            b = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        b.position((int) offset + RECORD_SIZE - 4);
+        byte[] data = new byte[b.getInt()];
+        b.get(data);
+        return data;
+    }
+
+    /** Appends a tile. A tile already contained is not written again.
+     *
+     * @param zoom the zoom level
+     * @param i the x-index
+     * @param j the y-index
+     * @param data the encoded tile
+     * @throws IOException if the tile cannot be written or the archive would
+     * exceed 2GB, which cannot be mapped any more
+     */
+    public synchronized void put(int zoom, long i, long j, byte[] data) throws IOException {
+        long key = key(zoom, i, j);
+        if (index.containsKey(key)) {
+            return;
+        }
+        if (end + RECORD_SIZE + data.length > Integer.MAX_VALUE) {
+            throw new IOException("Tile pack " + file + " exceeds 2GB");
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE + data.length).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(zoom).putInt((int) i).putInt((int) j).putInt(data.length).put(data).flip();
+        long position = end;
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        index.put(key, end);
+        end = position;
+    }
+
+    public synchronized void close() throws IOException {
+        mapped = null;
+        raf.close();
+    }
+
+    private void scan() throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Tile pack " + file + " exceeds 2GB");
+        }
+        MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        if (b.getInt(0) != MAGIC) {
+            throw new IOException("Not a tile pack: " + file);
+        }
+        int version = b.getInt(4);
+        if (version > VERSION) {
+            throw new IOException("Unsupported tile pack version " + version);
+        }
+        int position = HEADER_SIZE;
+        while (position + RECORD_SIZE <= size) {
+            int length = b.getInt(position + 12);
+            if (length < 0 || position + RECORD_SIZE + (long) length > size) {
+                break;
+            }
+            index.put(key(b.getInt(position), b.getInt(position + 4), b.getInt(position + 8)), (long) position);
+            position += RECORD_SIZE + length;
+        }
+        end = position;
+        if (position < size) {
+            channel.truncate(position);
+        } else {
+            mapped = b;
+        }
+    }
+
+    private static long key(int zoom, long i, long j) {
+        return ((long) zoom << 58) | (i << 29) | j;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2014, 2015, OpenMapFX and LodgON
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *     * Neither the name of LodgON, OpenMapFX, any associated website, nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL LODGON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lodgon.openmapfx.core;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Fetches all tiles of a bounding box and zoom range from a {@link TileType}
+ * into a {@link TilePack}. Tiles already in the pack are skipped, so an
+ * interrupted seeding continues where it stopped when run again.
+ */
+public class TilePackSeeder {
+
+    /* Longer than the connect and read timeout of a download */
+    private static final long STALL_TIMEOUT = 30000;
+
+    private final TileType type;
+    private final TilePack pack;
+    private final int threads;
+
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private volatile long total = 0;
+    private volatile ExecutorService executor = null;
+    private volatile IOException error = null;
+
+    public TilePackSeeder(TileType type, TilePack pack, int threads) {
+        this.type = type;
+        this.pack = pack;
+        this.threads = threads;
+    }
+
+    /** Seeds the pack and returns when all tiles have been fetched or the
+     * seeding has been cancelled. The seeding is stopped, if the pack cannot
+     * be written or no tile has been fetched for some time.
+     *
+     * @param lat0 latitude of one corner
+     * @param lon0 longitude of one corner
+     * @param lat1 latitude of the opposite corner
+     * @param lon1 longitude of the opposite corner
+     * @param minZoom the lowest zoom level
+     * @param maxZoom the highest zoom level
+     * @return the number of tiles added to the pack
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public int seed(double lat0, double lon0, double lat1, double lon1, int minZoom, int maxZoom)
+            throws InterruptedException {
+
+        done.set(0);
+        failed.set(0);
+        error = null;
+        total = count(lat0, lon0, lat1, lon1, minZoom, maxZoom);
+
+        final AtomicInteger added = new AtomicInteger();
+        final ExecutorService ex = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "OpenMap TilePack seeder");
+            t.setDaemon(true);
+            return t;
+        });
+        executor = ex;
+
+        for (int zoom = minZoom; zoom <= maxZoom && !ex.isShutdown(); zoom++) {
+            final int z = zoom;
+            final long i0 = getX(z, Math.min(lon0, lon1)), i1 = getX(z, Math.max(lon0, lon1));
+            final long j0 = getY(z, Math.max(lat0, lat1)), j1 = getY(z, Math.min(lat0, lat1));
+            for (long i = i0; i <= i1; i++) {
+                for (long j = j0; j <= j1; j++) {
+                    if (pack.contains(z, i, j)) {
+                        done.incrementAndGet();
+                        continue;
+                    }
+                    final long ti = i, tj = j;
+                    try {
+                        ex.execute(() -> {
+                            try {
+                                byte[] data = TileType.download(type.calculateURL(z, ti, tj));
+                                try {
+                                    pack.put(z, ti, tj, data);
+                                    added.incrementAndGet();
+                                } catch (IOException e) {
+                                    error = e;
+                                    failed.incrementAndGet();
+                                    ex.shutdownNow();
+                                }
+                            } catch (IOException e) {
+                                failed.incrementAndGet();
+                            }
+                            done.incrementAndGet();
+                        });
+                    } catch (RejectedExecutionException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        ex.shutdown();
+        int last = -1;
+        while (!ex.awaitTermination(STALL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            int current = done.get();
+            if (current == last) {
+                System.err.println("Tile pack seeding stalled after " + current + " of " + total + " tiles");
+                ex.shutdownNow();
+                ex.awaitTermination(STALL_TIMEOUT, TimeUnit.MILLISECONDS);
+                break;
+            }
+            last = current;
+        }
+        return added.get();
+    }
+
+    public void cancel() {
+        ExecutorService ex = executor;
+        if (ex != null) {
+            ex.shutdownNow();
+        }
+    }
+
+    /** Returns the fraction of tiles fetched or found in the pack.
+     *
+     * @return progress between 0 and 1
+     */
+    public double getProgress() {
+        return total == 0 ? 0 : (double) done.get() / total;
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /** Returns the error that stopped writing to the pack, for example when
+     * the pack would exceed 2GB.
+     *
+     * @return the error or null
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    public static long count(double lat0, double lon0, double lat1, double lon1, int minZoom, int maxZoom) {
+        long count = 0;
+        for (int z = minZoom; z <= maxZoom; z++) {
+            count += (getX(z, Math.max(lon0, lon1)) - getX(z, Math.min(lon0, lon1)) + 1)
+                    * (getY(z, Math.min(lat0, lat1)) - getY(z, Math.max(lat0, lat1)) + 1);
+        }
+        return count;
+    }
+
+    public static long getX(int zoom, double lon) {
+        long n = 1L << zoom;
+        return Math.max(0, Math.min(n - 1, (long) Math.floor(n * (lon + 180) / 360)));
+    }
+
+    public static long getY(int zoom, double lat) {
+        long n = 1L << zoom;
+        double lat_rad = Math.PI * lat / 180;
+        double y = n * (1 - (Math.log(Math.tan(lat_rad) + 1 / Math.cos(lat_rad)) / Math.PI)) / 2;
+        return Math.max(0, Math.min(n - 1, (long) Math.floor(y)));
+    }
+}
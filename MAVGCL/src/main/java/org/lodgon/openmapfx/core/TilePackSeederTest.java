@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2014, 2015, OpenMapFX and LodgON
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *     * Neither the name of LodgON, OpenMapFX, any associated website, nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL LODGON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lodgon.openmapfx.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
+
+/** Seeds a tile pack from a local stand-in of a tile server. The server
+ * answers each tile with its path and fails the tiles of one column, then
+ * the pack is reopened, checked and seeded again, which must not fetch any
+ * tile twice.
+ */
+public class TilePackSeederTest {
+
+    private static final double LAT0 = 47.40, LON0 = 8.50;
+    private static final double LAT1 = 47.35, LON1 = 8.58;
+    private static final int MIN_ZOOM = 10, MAX_ZOOM = 14;
+
+    public static void main(String[] args) throws Exception {
+
+        final long failColumn = TilePackSeeder.getX(MAX_ZOOM, LON0);
+        final AtomicInteger requests = new AtomicInteger();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            String[] p = path.substring(1, path.length() - 4).split("/");
+            if (Integer.parseInt(p[0]) == MAX_ZOOM && Long.parseLong(p[1]) == failColumn) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = path.getBytes(StandardCharsets.US_ASCII);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        File file = File.createTempFile("seeder", TilePack.EXTENSION);
+        file.delete();
+        try {
+            TileType type = new TileType("Test", "http://127.0.0.1:" + server.getAddress().getPort() + "/");
+            long total = TilePackSeeder.count(LAT0, LON0, LAT1, LON1, MIN_ZOOM, MAX_ZOOM);
+            long failing = TilePackSeeder.getY(MAX_ZOOM, LAT1) - TilePackSeeder.getY(MAX_ZOOM, LAT0) + 1;
+
+            TilePack pack = new TilePack(file);
+            TilePackSeeder seeder = new TilePackSeeder(type, pack, 4);
+            int added = seeder.seed(LAT0, LON0, LAT1, LON1, MIN_ZOOM, MAX_ZOOM);
+            pack.close();
+            System.out.println("Seeded " + added + " of " + total + " tiles, " + seeder.getFailed() + " failed");
+            check(added == total - failing, "added tiles");
+            check(seeder.getFailed() == failing, "failed tiles");
+            check(seeder.getProgress() == 1, "progress");
+            check(seeder.getError() == null, "no write error");
+
+            pack = new TilePack(file);
+            check(pack.size() == added, "tiles after reopening");
+            for (int z = MIN_ZOOM; z <= MAX_ZOOM; z++) {
+                long i = TilePackSeeder.getX(z, LON1), j = TilePackSeeder.getY(z, LAT1);
+                byte[] expected = ("/" + z + "/" + i + "/" + j + ".png").getBytes(StandardCharsets.US_ASCII);
+                check(Arrays.equals(pack.get(z, i, j), expected), "content of tile " + z + "/" + i + "/" + j);
+            }
+
+            /* Resumed seeding only requests the failed tiles again */
+            requests.set(0);
+            seeder = new TilePackSeeder(type, pack, 4);
+            added = seeder.seed(LAT0, LON0, LAT1, LON1, MIN_ZOOM, MAX_ZOOM);
+            pack.close();
+            check(added == 0, "nothing added when resumed");
+            check(requests.get() == failing, "only failed tiles requested when resumed");
+
+            System.out.println("TilePackSeeder OK");
+        } finally {
+            server.stop(0);
+            file.delete();
+        }
+    }
+
+    private static void check(boolean condition, String what) throws IOException {
+        if (!condition) {
+            throw new IOException("TilePackSeeder check failed: " + what);
+        }
+    }
+}
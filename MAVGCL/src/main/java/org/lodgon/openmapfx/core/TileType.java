@@ -26,20 +26,19 @@
  */
 package org.lodgon.openmapfx.core;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.BlockingDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 import javafx.concurrent.Task;
 import javafx.concurrent.Worker;
@@ -59,7 +58,30 @@ public class TileType implements MapTileType {
     private final String baseURL;
     private final String attributionNotice;
 
-    private CacheThread cacheThread = null;
+    private static final int WORKERS = 4;
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 10000;
+
+    /* Most recent requests first, as these are the tiles currently in view */
+    private static final ExecutorService loader = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.SECONDS,
+            new LinkedBlockingDeque<Runnable>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public boolean offer(Runnable r) {
+                    return offerFirst(r);
+                }
+            }, r -> {
+                Thread t = new Thread(r, "OpenMap TileType worker");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /* Tiles being loaded, a tile requested again while loading shares the worker */
+    private static final Map<String, Task<Image>> loading = new ConcurrentHashMap<>();
+
+    private TileCache cache = null;
+    private TilePack pack = null;
 
     public TileType(String typeName, String baseURL) {
         this(typeName, baseURL,"");
@@ -72,14 +94,22 @@ public class TileType implements MapTileType {
     }
 
     public void setFileStorageBase(String store) {
-        if (cacheThread != null) {
-            cacheThread.deactivate();
-            cacheThread = null;
-        }
+        this.cache = new TileCache(store);
+        this.pack = TilePack.open(store);
+    }
+
+    /** Sets the offline tile archive, which is looked up before the file store
+     * and the tile provider. By default, the archive next to the file store
+     * ({@code store + ".mtpk"}) is used if it exists.
+     *
+     * @param pack the archive or null
+     */
+    public void setTilePack(TilePack pack) {
+        this.pack = pack;
+    }
 
-        this.cacheThread = new CacheThread(store);
-        this.cacheThread.setName("OpenMap TileType worker");
-        this.cacheThread.start();
+    public TilePack getTilePack() {
+        return pack;
     }
 
     /** The display name for this type of tile, for use in the user interface.
@@ -101,16 +131,53 @@ public class TileType implements MapTileType {
         return baseURL;
     }
 
+    /** Returns a worker delivering the tile image. Decoded tiles are taken
+     * from memory, others are loaded by a fixed pool of workers from the file
+     * store or the tile provider. A tile is loaded only once at a time.
+     *
+     * @param zoom the zoom level
+     * @param i the x-index
+     * @param j the y-index
+     * @return the worker, already succeeded if the tile is held in memory
+     */
+    @Override
     public Worker<Image> getImage(int zoom, long i, long j) {
+        final String key = typeName + "/" + zoom + "/" + i + "/" + j;
+        final Image image = TileCache.getImage(key);
+        if (image == null) {
+            Task<Image> pending = loading.get(key);
+            if (pending != null) {
+                return pending;
+            }
+        }
         Task<Image> worker = new Task<Image>() {
             @Override
             protected Image call() throws Exception {
-                String imageUrl = getImageURL(zoom, i, j);
-                boolean bg = imageUrl.startsWith("http");
-                return new Image(getImageURL(zoom, i, j), bg);
+                Image loaded = image;
+                if (loaded == null) {
+                    try {
+                        loaded = loadImage(zoom, i, j);
+                        if (loaded.isError()) {
+                            throw new IOException("Cannot load tile " + key, loaded.getException());
+                        }
+                        TileCache.putImage(key, loaded);
+                    } finally {
+                        loading.remove(key, this);
+                    }
+                }
+                updateProgress(1, 1);
+                return loaded;
             }
         };
-        new Thread(worker).start();
+        if (image != null) {
+            worker.run();
+        } else {
+            Task<Image> pending = loading.putIfAbsent(key, worker);
+            if (pending != null) {
+                return pending;
+            }
+            loader.execute(worker);
+        }
         return worker;
     }
 
@@ -118,22 +185,69 @@ public class TileType implements MapTileType {
         String cached = getFileCached(zoom, i, j);
         if (cached != null) {
             return cached;
-        } else {
-            String url = calculateURL(zoom, i, j);
-            if (cacheThread != null) {
-                cacheThread.cacheImage(url, zoom, i, j);
+        }
+        return calculateURL(zoom, i, j);
+    }
+
+    private Image loadImage(int zoom, long i, long j) throws IOException {
+        if (pack != null) {
+            byte[] data = pack.get(zoom, i, j);
+            if (data != null) {
+                return new Image(new ByteArrayInputStream(data));
+            }
+        }
+        String cached = getFileCached(zoom, i, j);
+        if (cached != null) {
+            Image image = new Image(cached, false);
+            if (!image.isError()) {
+                return image;
             }
-            return url;
+            // Corrupt or truncated file: drop it and load the tile again
+            cache.removeFile(getPath(zoom, i, j));
+        }
+        String url = calculateURL(zoom, i, j);
+        if (!url.startsWith("http")) {
+            return new Image(url, false);
+        }
+        byte[] data = download(url);
+        if (cache != null) {
+            cache.putFile(getPath(zoom, i, j), data);
         }
+        return new Image(new ByteArrayInputStream(data));
     }
 
     private String getFileCached(int zoom, long i, long j) {
-        if (cacheThread != null) {
-            return cacheThread.getCachedFile(zoom, i, j);
+        if (cache != null) {
+            File file = cache.getFile(getPath(zoom, i, j));
+            if (file != null) {
+                return file.toURI().toString();
+            }
         }
         return null;
     }
 
+    private static String getPath(int zoom, long i, long j) {
+        return zoom + "/" + i + "/" + j + ".png";
+    }
+
+    static byte[] download(String urlString) throws IOException {
+        if (debug) System.out.println("Loading tile from URL " + urlString);
+        HttpURLConnection con = (HttpURLConnection) new URL(urlString).openConnection();
+        con.setConnectTimeout(CONNECT_TIMEOUT);
+        con.setReadTimeout(READ_TIMEOUT);
+        con.setRequestProperty("user-agent","Mozilla/5.0 (Windows NT 6.1; WOW64; rv:11.0) ");
+        try (InputStream inputStream = con.getInputStream()) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(32768);
+            byte[] buff = new byte[4096];
+            int len = inputStream.read(buff);
+            while (len > 0) {
+                bos.write(buff, 0, len);
+                len = inputStream.read(buff);
+            }
+            return bos.toByteArray();
+        }
+    }
+
     protected String calculateURL(int zoom, long i, long j) {
         return getBaseURL() + zoom + "/" + i + "/" + j + ".png";
     }
@@ -148,89 +262,4 @@ public class TileType implements MapTileType {
         return getTypeName();
     }
 
-    private static class CacheThread extends Thread {
-
-        private boolean active = true;
-        private String basePath;
-        private final Set<String> offered = new HashSet<>();
-        private final BlockingDeque<String> deque = new LinkedBlockingDeque<>();
-
-        public CacheThread(String basePath) {
-            this.basePath = basePath;
-            setDaemon(true);
-            setName("TileType CacheImagesThread");
-        }
-
-        public void deactivate() {
-            this.active = false;
-        }
-
-        public void run() {
-            while (active) {
-                try {
-                    String key = deque.pollFirst(10, TimeUnit.SECONDS);
-                    if (key != null) {
-                        String url = key.substring(0, key.lastIndexOf(";"));
-                        String[] split = key.substring(key.lastIndexOf(";") + 1).split("/");
-                        int zoom = Integer.parseInt(split[0]);
-                        long i = Long.parseLong(split[1]);
-                        long j = Long.parseLong(split[2]);
-                        doCache(url, zoom, i, j);
-                    }
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-            if (debug) System.out.println("Thread Has Ended!!!");
-        }
-
-        public void cacheImage(String url, int zoom, long i, long j) {
-            String key = url + ";" + zoom + "/" + i + "/" + j;
-            synchronized (offered) {
-                if (!offered.contains(key)) {
-                    offered.add(key);
-                    deque.offerFirst(key);
-                }
-            }
-        }
-
-        public String getCachedFile(int zoom, long i, long j) {
-            String enc = File.separator + zoom + File.separator + i + File.separator + j + ".png";
-            if (debug) System.out.println("looking for " + enc + " in " + basePath);
-            File candidate = new File(basePath, enc);
-            if (candidate.exists()) {
-                return candidate.toURI().toString();
-            }
-            return null;
-        }
-
-        private void doCache(String urlString, int zoom, long i, long j) {
-        	HttpURLConnection con;
-            try {
-                URL url = new URL(urlString);
-                if (debug) System.out.println("Loading tile from URL " + urlString);
-                con = (HttpURLConnection)url.openConnection();
-				con.setRequestProperty("user-agent","Mozilla/5.0 (Windows NT 6.1; WOW64; rv:11.0) ");
-                try (InputStream inputStream = con.getInputStream()) {
-                    String enc = File.separator + zoom + File.separator + i + File.separator + j + ".png";
-                    File candidate = new File(basePath, enc);
-                    candidate.getParentFile().mkdirs();
-                    try (FileOutputStream fos = new FileOutputStream(candidate)) {
-                        byte[] buff = new byte[4096];
-                        int len = inputStream.read(buff);
-                        while (len > 0) {
-                            fos.write(buff, 0, len);
-                            len = inputStream.read(buff);
-                        }
-                    }
-                    if (debug) System.out.println("Written tile from URL " + urlString + " to " + candidate);
-                }
-            } catch (MalformedURLException ex) {
-                Logger.getLogger(TileType.class.getName()).log(Level.SEVERE, null, ex);
-            } catch (IOException ex) {
-                Logger.getLogger(TileType.class.getName()).log(Level.SEVERE, null, ex);
-            }
-        }
-    }
-
 }